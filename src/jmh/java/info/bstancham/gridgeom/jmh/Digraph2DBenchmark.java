@@ -0,0 +1,83 @@
+package info.bstancham.gridgeom.jmh;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import info.bstancham.gridgeom.Digraph2D;
+import info.bstancham.gridgeom.Line;
+import info.bstancham.gridgeom.Polygon;
+import info.bstancham.gridgeom.Shape45;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <p>Building a {@code Digraph2D} from the outlines of two overlapping
+ * shapes, as done when preparing for boolean operations - and the boolean
+ * operations themselves.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Digraph2DBenchmark {
+
+    // larger sizes are opt-in: gradle jmh -PjmhLarge (see build.gradle)
+    @Param({"10", "100", "1000"})
+    public int numVertices;
+
+    private Shape45 homeShape;
+    private Shape45 awayShape;
+    private Line[] home;
+    private Line[] away;
+
+    @Setup
+    public void setup() {
+        Shape45 s1 = Shapes45.zigzag(numVertices);
+        // same zig-zag, shifted so that the edges cross
+        Shape45 s2 = s1.shift(0, 1);
+        Shapes45.checkValid(Shapes45.zigzag(numVertices), "zigzag " + numVertices);
+        Shapes45.checkValid(Shapes45.zigzag(numVertices).shift(0, 1),
+                            "shifted zigzag " + numVertices);
+        homeShape = s1;
+        awayShape = s2;
+        home = edges(s1.getOutline());
+        away = edges(s2.getOutline());
+    }
+
+    private static Line[] edges(Polygon p) {
+        Line[] lines = new Line[p.getNumEdges()];
+        for (int i = 0; i < lines.length; i++)
+            lines[i] = p.getEdge(i);
+        return lines;
+    }
+
+    @Benchmark
+    public Digraph2D addLine() {
+        Digraph2D graph = new Digraph2D();
+        for (Line ln : home)
+            graph.addLine(ln, 1);
+        for (Line ln : away)
+            graph.addLine(ln, 2);
+        return graph;
+    }
+
+    @Benchmark
+    public Digraph2D addLines() {
+        Digraph2D graph = new Digraph2D();
+        graph.addLines(Arrays.asList(home), 1);
+        graph.addLines(Arrays.asList(away), 2);
+        return graph;
+    }
+
+    @Benchmark
+    public List<Shape45> subtract45() {
+        return homeShape.subtract45(awayShape);
+    }
+
+    @Benchmark
+    public List<Shape45> union45() {
+        return homeShape.union45(awayShape);
+    }
+
+}
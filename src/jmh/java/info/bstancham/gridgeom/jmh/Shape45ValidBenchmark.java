@@ -0,0 +1,134 @@
+package info.bstancham.gridgeom.jmh;
+
+import java.util.concurrent.TimeUnit;
+import info.bstancham.gridgeom.Polygon;
+import info.bstancham.gridgeom.Pt2D;
+import info.bstancham.gridgeom.Shape45;
+import info.bstancham.gridgeom.ShapeGroup;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <p>Full validation of freshly constructed shapes and groups ({@code
+ * isValid} is memoised, so every invocation starts from new objects).</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Shape45ValidBenchmark {
+
+    @State(Scope.Thread)
+    public static class Vertices {
+        // larger sizes are opt-in: gradle jmh -PjmhLarge (see build.gradle)
+        @Param({"10", "100", "1000"})
+        public int numVertices;
+        Pt2D[] vertices;
+        @Setup
+        public void setup() {
+            vertices = Shapes45.zigzagVertices(numVertices);
+            Shapes45.checkValid(Shapes45.zigzag(numVertices), "zigzag " + numVertices);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Comb {
+        // larger sizes are opt-in: gradle jmh -PjmhLarge (see build.gradle)
+        @Param({"10", "100", "1000"})
+        public int numVertices;
+        Pt2D[] vertices;
+        @Setup
+        public void setup() {
+            vertices = Shapes45.horizontalCombVertices(numVertices);
+            Shapes45.checkValid(Shapes45.horizontalComb(numVertices),
+                                "horizontal comb " + numVertices);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Holes {
+        @Param({"1", "4", "16", "64", "256"})
+        public int numHoles;
+        Shape45 shape;
+        @Setup
+        public void setup() {
+            shape = Shapes45.withHoles(numHoles);
+            Shapes45.checkValid(Shapes45.withHoles(numHoles), "withHoles " + numHoles);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Nesting {
+        @Param({"1", "2", "4", "8", "16"})
+        public int depth;
+        Shape45 shape;
+        @Setup
+        public void setup() {
+            shape = Shapes45.nested(depth);
+            Shapes45.checkValid(Shapes45.nested(depth), "nested " + depth);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Group {
+        // larger sizes are opt-in: gradle jmh -PjmhLarge (see build.gradle)
+        @Param({"10", "100", "1000"})
+        public int numShapes;
+        ShapeGroup group;
+        @Setup
+        public void setup() {
+            group = Shapes45.grid(numShapes);
+            Shapes45.checkValid(Shapes45.grid(numShapes), "grid " + numShapes);
+        }
+    }
+
+    @Benchmark
+    public boolean outline(Vertices v) {
+        return new Shape45(v.vertices).isValid();
+    }
+
+    @Benchmark
+    public boolean horizontalComb(Comb c) {
+        return new Shape45(c.vertices).isValid();
+    }
+
+    @Benchmark
+    public boolean holes(Holes h) {
+        return copy(h.shape).isValid();
+    }
+
+    @Benchmark
+    public boolean holesParallel(Holes h) {
+        return copy(h.shape).isValidParallel();
+    }
+
+    @Benchmark
+    public boolean nested(Nesting n) {
+        return copy(n.shape).isValid();
+    }
+
+    @Benchmark
+    public boolean group(Group g) {
+        Shape45[] shapes = new Shape45[g.group.getNumShapes()];
+        for (int i = 0; i < shapes.length; i++)
+            shapes[i] = copy(g.group.getShape(i));
+        return new ShapeGroup(shapes).isValid();
+    }
+
+    /**
+     * <p>Deep copy, so that no memoised validity survives between
+     * invocations.</p>
+     */
+    private static Shape45 copy(Shape45 s) {
+        Shape45[] subs = new Shape45[s.getNumSubShapes()];
+        for (int i = 0; i < subs.length; i++)
+            subs[i] = copy(s.getSubShape(i));
+        Polygon outline = s.getOutline();
+        Pt2D[] verts = new Pt2D[outline.getNumVertices()];
+        for (int i = 0; i < verts.length; i++)
+            verts[i] = outline.getVertex(i);
+        return new Shape45(subs, verts);
+    }
+
+}
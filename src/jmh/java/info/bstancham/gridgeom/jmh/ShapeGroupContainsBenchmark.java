@@ -0,0 +1,78 @@
+package info.bstancham.gridgeom.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import info.bstancham.gridgeom.Box2D;
+import info.bstancham.gridgeom.Pt2D;
+import info.bstancham.gridgeom.ShapeGroup;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <p>Point containment against an already triangulated {@code ShapeGroup}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeGroupContainsBenchmark {
+
+    private static final int NUM_QUERIES = 1024;
+
+    // larger sizes are opt-in: gradle jmh -PjmhLarge (see build.gradle)
+    @Param({"10", "100", "1000"})
+    public int numVertices;
+
+    private ShapeGroup group;
+    private Pt2D[] queries;
+    private int[] queryXs;
+    private int[] queryYs;
+    private boolean[] results;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        group = new ShapeGroup(Shapes45.zigzag(numVertices));
+        Shapes45.checkValid(Shapes45.zigzag(numVertices), "zigzag " + numVertices);
+        // triangulate up front - only containment is measured
+        group.getNumTriangles();
+        Box2D box = group.getBoundingBox();
+        Random rand = new Random(42);
+        queries = new Pt2D[NUM_QUERIES];
+        queryXs = new int[NUM_QUERIES];
+        queryYs = new int[NUM_QUERIES];
+        results = new boolean[NUM_QUERIES];
+        for (int i = 0; i < NUM_QUERIES; i++) {
+            queries[i] = new Pt2D(box.lowX + rand.nextInt(box.sizeX + 1),
+                                  box.lowY + rand.nextInt(box.sizeY + 1));
+            queryXs[i] = queries[i].x();
+            queryYs[i] = queries[i].y();
+        }
+    }
+
+    private Pt2D nextQuery() {
+        next = (next + 1) % NUM_QUERIES;
+        return queries[next];
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return group.contains(nextQuery());
+    }
+
+    @Benchmark
+    public boolean containsExcludeEdges() {
+        return group.containsExcludeEdges(nextQuery());
+    }
+
+    /**
+     * <p>One op = the whole batch of {@value #NUM_QUERIES} queries.</p>
+     */
+    @Benchmark
+    public boolean[] containsAll() {
+        group.containsAll(queryXs, queryYs, results);
+        return results;
+    }
+
+}
@@ -0,0 +1,160 @@
+package info.bstancham.gridgeom.jmh;
+
+import info.bstancham.gridgeom.Pt2D;
+import info.bstancham.gridgeom.Shape45;
+import info.bstancham.gridgeom.ShapeGroup;
+
+/**
+ * <p>Generators for the 45-degree shapes used by the benchmarks.</p>
+ *
+ * <p>All generated shapes are valid: outlines have counter-clockwise winding,
+ * holes have clockwise winding, and no edges intersect.</p>
+ */
+public class Shapes45 {
+
+    private Shapes45() {}
+
+    /**
+     * <p>A long bar whose top edge is a 45-degree zig-zag, so that every top
+     * vertex is a reflex or convex corner. Triangulation cannot take the
+     * convex short-cut.</p>
+     *
+     * @param numVertices Total number of outline vertices (minimum 4).
+     */
+    public static Pt2D[] zigzagVertices(int numVertices) {
+        if (numVertices < 4)
+            throw new IllegalArgumentException("need at least 4 vertices: " + numVertices);
+        int numTop = numVertices - 2;
+        Pt2D[] verts = new Pt2D[numVertices];
+        int i = 0;
+        verts[i++] = new Pt2D(0, 0);
+        verts[i++] = new Pt2D(numTop - 1, 0);
+        for (int x = numTop - 1; x >= 0; x--)
+            verts[i++] = new Pt2D(x, 2 + (x % 2));
+        return verts;
+    }
+
+    public static Shape45 zigzag(int numVertices) {
+        return new Shape45(zigzagVertices(numVertices));
+    }
+
+    /**
+     * <p>A comb whose teeth are long horizontal bars, all spanning the same
+     * x-range - so that sweeping along x alone cannot tell the edges
+     * apart.</p>
+     *
+     * @param numVertices Total number of outline vertices (minimum 4) -
+     * rounded down to a multiple of 4.
+     */
+    public static Pt2D[] horizontalCombVertices(int numVertices) {
+        if (numVertices < 4)
+            throw new IllegalArgumentException("need at least 4 vertices: " + numVertices);
+        int numTeeth = numVertices / 4;
+        int length = numTeeth * 2 + 2;
+        Pt2D[] verts = new Pt2D[numTeeth * 4];
+        int i = 0;
+        verts[i++] = new Pt2D(0, 0);
+        for (int t = 0; t < numTeeth; t++) {
+            verts[i++] = new Pt2D(length, t * 2);
+            verts[i++] = new Pt2D(length, t * 2 + 1);
+            if (t < numTeeth - 1) {
+                verts[i++] = new Pt2D(2, t * 2 + 1);
+                verts[i++] = new Pt2D(2, t * 2 + 2);
+            }
+        }
+        verts[i++] = new Pt2D(0, numTeeth * 2 - 1);
+        return verts;
+    }
+
+    public static Shape45 horizontalComb(int numVertices) {
+        return new Shape45(horizontalCombVertices(numVertices));
+    }
+
+    /**
+     * <p>A square outline containing a grid of {@code numHoles} square
+     * holes.</p>
+     */
+    public static Shape45 withHoles(int numHoles) {
+        int perRow = (int) Math.ceil(Math.sqrt(Math.max(numHoles, 1)));
+        int size = perRow * 4 + 2;
+        Shape45[] holes = new Shape45[numHoles];
+        for (int i = 0; i < numHoles; i++) {
+            int x = (i % perRow) * 4 + 2;
+            int y = (i / perRow) * 4 + 2;
+            holes[i] = new Shape45(square(x, y, x + 2, y + 2, false));
+        }
+        return new Shape45(holes, square(0, 0, size, size, true));
+    }
+
+    /**
+     * <p>A grid of {@code numShapes} separate squares, each touching its
+     * neighbours at the corners - as a group of building footprints
+     * might.</p>
+     */
+    public static ShapeGroup grid(int numShapes) {
+        int perRow = (int) Math.ceil(Math.sqrt(Math.max(numShapes, 1)));
+        Shape45[] shapes = new Shape45[numShapes];
+        for (int i = 0; i < numShapes; i++) {
+            // chequerboard: alternate rows are offset, so that squares in
+            // adjacent rows meet at the corners
+            int x = (i % perRow) * 4;
+            int y = (i / perRow) * 2;
+            int off = ((i / perRow) % 2) * 2;
+            shapes[i] = new Shape45(square(x + off, y, x + off + 2, y + 2, true));
+        }
+        return new ShapeGroup(shapes);
+    }
+
+    /**
+     * <p>Concentric squares, alternating between solid and hole, nested to
+     * {@code depth} levels.</p>
+     */
+    public static Shape45 nested(int depth) {
+        int size = depth * 4;
+        int level = depth - 1;
+        Shape45 s = new Shape45(nestedSquare(level, size));
+        for (level = depth - 2; level >= 0; level--)
+            s = new Shape45(s, nestedSquare(level, size));
+        return s;
+    }
+
+    /**
+     * <p>Checks that a generated shape is valid - otherwise a benchmark
+     * would measure the wrong thing ({@code isValid}, for one, would only
+     * measure its early exit). Called from benchmark setup, for the sizes
+     * actually run.</p>
+     *
+     * <p>Checking memoises the validity (and perhaps the triangles) of
+     * {@code s}, so it should be a shape generated just for the check, not
+     * the one measured.</p>
+     *
+     * @throws IllegalStateException If {@code s} is not valid.
+     */
+    public static void checkValid(Shape45 s, String name) {
+        if (!s.isValid())
+            throw new IllegalStateException("generated shape is not valid: " + name);
+    }
+
+    /**
+     * <p>As {@link #checkValid(Shape45, String)}, for a group.</p>
+     */
+    public static void checkValid(ShapeGroup g, String name) {
+        if (!g.isValid())
+            throw new IllegalStateException("generated group is not valid: " + name);
+    }
+
+    private static Pt2D[] nestedSquare(int level, int size) {
+        int inset = level * 2;
+        return square(inset, inset, size - inset, size - inset, level % 2 == 0);
+    }
+
+    private static Pt2D[] square(int x1, int y1, int x2, int y2, boolean ccw) {
+        if (ccw)
+            return new Pt2D[] { new Pt2D(x1, y1), new Pt2D(x2, y1),
+                                new Pt2D(x2, y2), new Pt2D(x1, y2) };
+        else
+            return new Pt2D[] { new Pt2D(x1, y1), new Pt2D(x1, y2),
+                                new Pt2D(x2, y2), new Pt2D(x2, y1) };
+    }
+
+}
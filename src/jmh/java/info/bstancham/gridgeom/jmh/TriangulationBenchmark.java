@@ -0,0 +1,104 @@
+package info.bstancham.gridgeom.jmh;
+
+import java.util.concurrent.TimeUnit;
+import info.bstancham.gridgeom.Polygon;
+import info.bstancham.gridgeom.Pt2D;
+import info.bstancham.gridgeom.Shape45;
+import info.bstancham.gridgeom.Triangle;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * <p>Triangulation of a simple polygon, and of shapes with holes and nested
+ * sub-shapes, and re-triangulation after a single-vertex edit.</p>
+ *
+ * <p>Shapes memoise their triangles, so each invocation builds a fresh
+ * {@code Shape45} around the pre-generated geometry.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriangulationBenchmark {
+
+    @State(Scope.Thread)
+    public static class Vertices {
+        // larger sizes are opt-in: gradle jmh -PjmhLarge (see build.gradle)
+        @Param({"10", "100", "1000"})
+        public int numVertices;
+        Pt2D[] vertices;
+        @Setup
+        public void setup() {
+            vertices = Shapes45.zigzagVertices(numVertices);
+            Shapes45.checkValid(Shapes45.zigzag(numVertices), "zigzag " + numVertices);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Edit {
+        // larger sizes are opt-in: gradle jmh -PjmhLarge (see build.gradle)
+        @Param({"100", "1000"})
+        public int numVertices;
+        Shape45 shape;
+        int index;
+        Pt2D vertex;
+        @Setup
+        public void setup() {
+            shape = Shapes45.zigzag(numVertices);
+            Shapes45.checkValid(Shapes45.zigzag(numVertices), "zigzag " + numVertices);
+            shape.getNumTriangles();
+            index = numVertices / 2;
+            vertex = shape.getVertexRecursive(index);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Holes {
+        @Param({"1", "4", "16", "64", "256"})
+        public int numHoles;
+        Shape45 shape;
+        @Setup
+        public void setup() {
+            shape = Shapes45.withHoles(numHoles);
+            Shapes45.checkValid(Shapes45.withHoles(numHoles), "withHoles " + numHoles);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Nesting {
+        @Param({"1", "2", "4", "8", "16"})
+        public int depth;
+        Shape45 shape;
+        @Setup
+        public void setup() {
+            shape = Shapes45.nested(depth);
+            Shapes45.checkValid(Shapes45.nested(depth), "nested " + depth);
+        }
+    }
+
+    @Benchmark
+    public Triangle[] earClipping(Vertices v) {
+        return Polygon.triangulateEarClipping(new Polygon(v.vertices));
+    }
+
+    /**
+     * <p>Moves one vertex of an already-triangulated shape, then
+     * re-triangulates - only the neighbourhood of the vertex is redone.</p>
+     */
+    @Benchmark
+    public int setVertex(Edit e) {
+        return e.shape.setVertex(e.index, e.vertex.x(), e.vertex.y() + 1).getNumTriangles();
+    }
+
+    @Benchmark
+    public int holes(Holes h) {
+        return new Shape45(h.shape.getSubShapes(), h.shape.getOutline()).getNumTriangles();
+    }
+
+    @Benchmark
+    public int nested(Nesting n) {
+        return new Shape45(n.shape.getSubShapes(), n.shape.getOutline()).getNumTriangles();
+    }
+
+}
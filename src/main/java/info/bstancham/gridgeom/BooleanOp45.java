@@ -0,0 +1,677 @@
+package info.bstancham.gridgeom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Boolean operations on 45-degree shapes.</p>
+ *
+ * <p>Each operand is an array of shapes (e.g. the contents of a {@link
+ * ShapeGroup}), so that whole groups are combined in one pass rather than by
+ * folding the operation over pairs of shapes. All operations share the same
+ * pipeline, and differ only in which regions are kept (see {@link
+ * Operation#inResult}).</p>
+ *
+ * <p>The operation is done in a single pass over the edges of both operands,
+ * in five steps:</p>
+ *
+ * <ol>
+ * <li>NODING: the edges of both operands are added to one {@link Digraph2D},
+ * which splits them wherever they cross, touch or overlap, so that edges only
+ * meet at nodes.</li>
+ *
+ * <li>CLASSIFICATION: for each noded edge, it is found whether each side is
+ * inside or outside each operand. For an edge belonging to an operand, this
+ * follows directly from the edge's direction (shapes always have their area
+ * on the left of each edge). For an edge belonging to only one operand, the
+ * other operand is tested at the edge's mid-point, using a {@link
+ * ContainmentIndex}. An edge which an operand has in both directions (two of
+ * its shapes touch along it) is inside that operand on both sides. An edge is part of the result outline if the result is
+ * inside on one side only, and is directed so that the result is on its
+ * left.</li>
+ *
+ * <li>RING EXTRACTION: the result edges are linked into closed rings. Where
+ * several edges leave the same vertex, the sharpest left turn is taken, and
+ * rings which pass through the same vertex twice are split in two - so that
+ * every ring is simple.</li>
+ *
+ * <li>NESTING: counter-clockwise rings are outlines and clockwise rings are
+ * holes. Each ring is placed inside the smallest ring of opposite winding
+ * which contains it. Candidates are found by sweeping the rings' bounding
+ * boxes (see {@link SweepAndPrune}), so only rings whose bounding boxes
+ * contain one another are tested.</li>
+ *
+ * <li>OUTPUT: collinear vertices are removed, and the rings are built into
+ * nested {@code Shape45}s.</li>
+ * </ol>
+ *
+ * <p>Where diagonal edges of opposite direction cross at a half unit, the
+ * result may have a vertex which a {@code Shape45} can't hold. The result
+ * can always be given exactly at twice the scale of the operands, though -
+ * see {@link #applyDoubled}.</p>
+ *
+ * <p>All geometry from classification onwards is exact, using {@code long}
+ * arithmetic in doubled (and for mid-points, quadrupled) co-ordinates. Two
+ * 45-compliant edges always cross at a whole or half unit, so in doubled
+ * co-ordinates all vertices are integers. The noding graph stores points as
+ * {@code float}, which is exact for half units up to {@value #MAX_COORD}, so
+ * input co-ordinates are limited to that range.</p>
+ *
+ * <p>COMPLEXITY: O(n log n) for noding and for the nesting sweep, plus the
+ * number of pairs of edges with overlapping bounding boxes, plus (for nested
+ * output rings only) the size of each containing ring tested. Everything else
+ * is linear.</p>
+ *
+ * <p>Both operands should be valid (see {@link Shape45#isValid}) - otherwise
+ * the result is undefined.</p>
+ */
+final class BooleanOp45 {
+
+    /** Maximum absolute value of any input co-ordinate. */
+    static final int MAX_COORD = 1 << 22;
+
+    private static final int ID_A = 1;
+    private static final int ID_B = 2;
+
+    /**
+     * <p>The boolean operations.</p>
+     */
+    enum Operation {
+        /** The area covered by either operand. */
+        UNION {
+            boolean inResult(boolean inA, boolean inB) { return inA || inB; }
+        },
+        /** The area covered by both operands. */
+        INTERSECTION {
+            boolean inResult(boolean inA, boolean inB) { return inA && inB; }
+        },
+        /** The area covered by the first operand, but not the second. */
+        DIFFERENCE {
+            boolean inResult(boolean inA, boolean inB) { return inA && !inB; }
+        },
+        /** The area covered by exactly one of the operands. */
+        XOR {
+            boolean inResult(boolean inA, boolean inB) { return inA != inB; }
+        };
+
+        /**
+         * <p>Is a region which is inside/outside each operand in the
+         * result?</p>
+         */
+        abstract boolean inResult(boolean inA, boolean inB);
+    }
+
+    private BooleanOp45() {}
+
+    /**
+     * <p>Applies {@code op} to the area covered by {@code a} and the area
+     * covered by {@code b}.</p>
+     *
+     * @throws IllegalArgumentException If any co-ordinate is out of range.
+     * @throws ArithmeticException If the result would have a vertex at a
+     * half-unit position, which can't be represented by a {@code Shape45}.
+     * This only happens where two diagonal edges of opposite direction cross
+     * at a half unit - {@link #applyDoubled} gives the exact result in that
+     * case.
+     */
+    static List<Shape45> apply(Operation op, Shape45[] a, Shape45[] b) {
+        return apply(op, a, b, false);
+    }
+
+    /**
+     * <p>As {@link #apply}, but the result is at twice the scale of {@code a}
+     * and {@code b} - so that every vertex of the result is at a whole-unit
+     * position, and it is always exact.</p>
+     *
+     * @throws IllegalArgumentException If any co-ordinate is out of range.
+     */
+    static List<Shape45> applyDoubled(Operation op, Shape45[] a, Shape45[] b) {
+        return apply(op, a, b, true);
+    }
+
+    private static List<Shape45> apply(Operation op, Shape45[] a, Shape45[] b,
+                                       boolean doubledOutput) {
+        List<Line> edgesA = collectEdges(a);
+        List<Line> edgesB = collectEdges(b);
+
+        // trivial cases: an empty operand, or operands which can't interact
+        if (edgesA.isEmpty() || edgesB.isEmpty()) {
+            boolean keepA = !edgesA.isEmpty() && op.inResult(true, false);
+            boolean keepB = !edgesB.isEmpty() && op.inResult(false, true);
+            return concat(keepA ? a : null, keepB ? b : null, doubledOutput);
+        }
+        switch (op) {
+        case INTERSECTION:
+        case DIFFERENCE:
+            // touching doesn't matter - there is no common area either way
+            if (!boxesOverlap(edgesA, edgesB, false))
+                return concat(op == Operation.DIFFERENCE ? a : null, null, doubledOutput);
+            break;
+        default:
+            // touching shapes must be merged
+            if (!boxesOverlap(edgesA, edgesB, true))
+                return concat(a, b, doubledOutput);
+        }
+
+        return new BooleanOp45.Run(op, edgesA, edgesB, doubledOutput).compute();
+    }
+
+    private static List<Shape45> concat(Shape45[] a, Shape45[] b, boolean doubled) {
+        List<Shape45> out = new ArrayList<>();
+        for (Shape45[] shapes : new Shape45[][] { a, b }) {
+            if (shapes == null)
+                continue;
+            for (Shape45 s : shapes)
+                out.add(doubled ? doubled(s) : s);
+        }
+        return out;
+    }
+
+    /**
+     * @return A copy of {@code s}, at twice the scale.
+     */
+    private static Shape45 doubled(Shape45 s) {
+        Shape45[] subs = new Shape45[s.getNumSubShapes()];
+        for (int i = 0; i < subs.length; i++)
+            subs[i] = doubled(s.getSubShape(i));
+        Polygon p = s.getOutline();
+        int[] xs = new int[p.getNumVertices()];
+        int[] ys = new int[p.getNumVertices()];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = p.getVertexX(i) * 2;
+            ys[i] = p.getVertexY(i) * 2;
+        }
+        return new Shape45(subs, new Polygon(xs, ys, false));
+    }
+
+    /**
+     * <p>Collects the edges of all rings (outlines, holes, islands etc.) of
+     * the shapes.</p>
+     */
+    private static List<Line> collectEdges(Shape45[] shapes) {
+        List<Line> edges = new ArrayList<>();
+        for (Shape45 s : shapes)
+            collectEdges(s, edges);
+        return edges;
+    }
+
+    private static void collectEdges(Shape45 s, List<Line> edges) {
+        Polygon p = s.getOutline();
+        for (int i = 0; i < p.getNumVertices(); i++) {
+            if (Math.abs((long) p.getVertexX(i)) > MAX_COORD ||
+                Math.abs((long) p.getVertexY(i)) > MAX_COORD)
+                throw new IllegalArgumentException("co-ordinate out of range (+/-"
+                                                   + MAX_COORD + "): "
+                                                   + p.getVertex(i));
+        }
+        for (int i = 0; i < p.getNumEdges(); i++)
+            edges.add(p.getEdge(i));
+        for (int i = 0; i < s.getNumSubShapes(); i++)
+            collectEdges(s.getSubShape(i), edges);
+    }
+
+    /**
+     * @param includeTouching If false, boxes which only touch don't count as
+     * overlapping.
+     * @return True, if the bounding boxes of the two sets of edges overlap.
+     */
+    private static boolean boxesOverlap(List<Line> e1, List<Line> e2,
+                                        boolean includeTouching) {
+        int[] b1 = bounds(e1);
+        int[] b2 = bounds(e2);
+        if (includeTouching)
+            return b1[0] <= b2[2] && b2[0] <= b1[2] && b1[1] <= b2[3] && b2[1] <= b1[3];
+        return b1[0] < b2[2] && b2[0] < b1[2] && b1[1] < b2[3] && b2[1] < b1[3];
+    }
+
+    /**
+     * @return {@code lowX, lowY, highX, highY}
+     */
+    private static int[] bounds(List<Line> edges) {
+        int[] b = { Integer.MAX_VALUE, Integer.MAX_VALUE,
+                    Integer.MIN_VALUE, Integer.MIN_VALUE };
+        for (Line ln : edges) {
+            b[0] = Math.min(b[0], Math.min(ln.startX(), ln.endX()));
+            b[1] = Math.min(b[1], Math.min(ln.startY(), ln.endY()));
+            b[2] = Math.max(b[2], Math.max(ln.startX(), ln.endX()));
+            b[3] = Math.max(b[3], Math.max(ln.startY(), ln.endY()));
+        }
+        return b;
+    }
+
+
+
+    /*------------------------- SINGLE OPERATION ------------------------*/
+
+    /**
+     * <p>State for a single operation.</p>
+     */
+    private static final class Run {
+
+        private final Operation op;
+        private final List<Line> edgesA;
+        private final List<Line> edgesB;
+        private final boolean doubledOutput;
+
+        // built on first use
+        private ContainmentIndex indexA = null;
+        private ContainmentIndex indexB = null;
+
+        // result edges, in doubled co-ordinates
+        private int numEdges = 0;
+        private int[] fromX = new int[16];
+        private int[] fromY = new int[16];
+        private int[] toX = new int[16];
+        private int[] toY = new int[16];
+
+        Run(Operation op, List<Line> edgesA, List<Line> edgesB, boolean doubledOutput) {
+            this.op = op;
+            this.edgesA = edgesA;
+            this.edgesB = edgesB;
+            this.doubledOutput = doubledOutput;
+        }
+
+        List<Shape45> compute() {
+            Digraph2D graph = new Digraph2D();
+            graph.addLines(edgesA, ID_A);
+            graph.addLines(edgesB, ID_B);
+            classifyEdges(graph);
+            List<int[]> rings = extractRings();
+            return buildShapes(rings);
+        }
+
+        /*---------------------- CLASSIFICATION -----------------------*/
+
+        private void classifyEdges(Digraph2D graph) {
+            for (int i = 0; i < graph.getNumNodes(); i++) {
+                Digraph2D.Node u = graph.getNode(i);
+                int ux = doubled(u.getPoint().x());
+                int uy = doubled(u.getPoint().y());
+                for (Digraph2D.Connection c : u.getConnectionsForward()) {
+                    Digraph2D.Node v = c.getDestination();
+                    int vx = doubled(v.getPoint().x());
+                    int vy = doubled(v.getPoint().y());
+
+                    // an edge may be present in both directions - only
+                    // visit it once
+                    Digraph2D.Connection rev = null;
+                    for (Digraph2D.Connection r : v.getConnectionsForward())
+                        if (r.getDestination() == u)
+                            rev = r;
+                    if (rev != null && (ux > vx || (ux == vx && uy > vy)))
+                        continue;
+
+                    // edges of each operand in direction u->v and v->u
+                    int fwdA = count(c, ID_A);
+                    int revA = count(rev, ID_A);
+                    int fwdB = count(c, ID_B);
+                    int revB = count(rev, ID_B);
+
+                    boolean leftA, rightA, leftB, rightB;
+                    if (fwdA + revA > 0) {
+                        leftA = fwdA > 0;
+                        rightA = revA > 0;
+                    } else {
+                        leftA = rightA = containsA(ux + vx, uy + vy);
+                    }
+                    if (fwdB + revB > 0) {
+                        leftB = fwdB > 0;
+                        rightB = revB > 0;
+                    } else {
+                        leftB = rightB = containsB(ux + vx, uy + vy);
+                    }
+
+                    boolean left = op.inResult(leftA, leftB);
+                    boolean right = op.inResult(rightA, rightB);
+                    if (left && !right)
+                        addEdge(ux, uy, vx, vy);
+                    else if (right && !left)
+                        addEdge(vx, vy, ux, uy);
+                }
+            }
+        }
+
+        private static int count(Digraph2D.Connection c, int id) {
+            return (c != null && c.getIDs().contains(id) ? 1 : 0);
+        }
+
+        /**
+         * @param qx Quadrupled co-ordinate.
+         */
+        private boolean containsA(int qx, int qy) {
+            if (indexA == null)
+                indexA = quadrupledIndex(edgesA);
+            return indexA.contains(qx, qy, false);
+        }
+
+        private boolean containsB(int qx, int qy) {
+            if (indexB == null)
+                indexB = quadrupledIndex(edgesB);
+            return indexB.contains(qx, qy, false);
+        }
+
+        private static ContainmentIndex quadrupledIndex(List<Line> edges) {
+            Line[] scaled = new Line[edges.size()];
+            for (int i = 0; i < scaled.length; i++) {
+                Line ln = edges.get(i);
+                scaled[i] = new Line(ln.startX() * 4, ln.startY() * 4,
+                                     ln.endX() * 4, ln.endY() * 4);
+            }
+            return new ContainmentIndex(scaled);
+        }
+
+        private void addEdge(int x1, int y1, int x2, int y2) {
+            if (numEdges == fromX.length) {
+                int cap = numEdges * 2;
+                fromX = Arrays.copyOf(fromX, cap);
+                fromY = Arrays.copyOf(fromY, cap);
+                toX = Arrays.copyOf(toX, cap);
+                toY = Arrays.copyOf(toY, cap);
+            }
+            fromX[numEdges] = x1;
+            fromY[numEdges] = y1;
+            toX[numEdges] = x2;
+            toY[numEdges] = y2;
+            numEdges++;
+        }
+
+        /*---------------------- RING EXTRACTION ----------------------*/
+
+        /**
+         * @return Rings of vertices in doubled co-ordinates, each as {@code
+         * x0, y0, x1, y1 ...}.
+         */
+        private List<int[]> extractRings() {
+
+            // outgoing edges of each vertex, in compressed form
+            Map<Long, Integer> vertexIDs = new HashMap<>();
+            int[] fromVertex = new int[numEdges];
+            for (int e = 0; e < numEdges; e++) {
+                Integer id = vertexIDs.get(key(fromX[e], fromY[e]));
+                if (id == null) {
+                    id = vertexIDs.size();
+                    vertexIDs.put(key(fromX[e], fromY[e]), id);
+                }
+                fromVertex[e] = id;
+            }
+            int numVertices = vertexIDs.size();
+            int[] outStart = new int[numVertices + 1];
+            for (int e = 0; e < numEdges; e++)
+                outStart[fromVertex[e] + 1]++;
+            for (int v = 0; v < numVertices; v++)
+                outStart[v + 1] += outStart[v];
+            int[] outEdges = new int[numEdges];
+            int[] pos = Arrays.copyOf(outStart, numVertices);
+            for (int e = 0; e < numEdges; e++)
+                outEdges[pos[fromVertex[e]]++] = e;
+
+            boolean[] used = new boolean[numEdges];
+            List<int[]> rings = new ArrayList<>();
+            int[] ring = new int[16];
+            for (int start = 0; start < numEdges; start++) {
+                if (used[start])
+                    continue;
+                int len = 0;
+                int e = start;
+                do {
+                    used[e] = true;
+                    if (len + 2 > ring.length)
+                        ring = Arrays.copyOf(ring, ring.length * 2);
+                    ring[len++] = fromX[e];
+                    ring[len++] = fromY[e];
+
+                    // take the sharpest left turn - i.e. the first outgoing
+                    // edge clockwise from the direction we came from
+                    Integer v = vertexIDs.get(key(toX[e], toY[e]));
+                    if (v == null)
+                        throw new IllegalStateException("open ring - are both operands valid?");
+                    int back = direction(fromX[e] - toX[e], fromY[e] - toY[e]);
+                    int next = -1;
+                    int bestTurn = 8;
+                    for (int k = outStart[v]; k < outStart[v + 1]; k++) {
+                        int cand = outEdges[k];
+                        if (used[cand] && cand != start)
+                            continue;
+                        int d = direction(toX[cand] - fromX[cand],
+                                          toY[cand] - fromY[cand]);
+                        int turn = Math.floorMod(back - d, 8);
+                        if (turn != 0 && turn < bestTurn) {
+                            bestTurn = turn;
+                            next = cand;
+                        }
+                    }
+                    if (next == -1)
+                        throw new IllegalStateException("open ring - are both operands valid?");
+                    e = next;
+                } while (e != start);
+                splitAtRepeatedVertices(ring, len, rings);
+            }
+            return rings;
+        }
+
+        /**
+         * <p>Splits a ring which passes through any vertex more than once
+         * into simple rings, adding them to {@code out}.</p>
+         */
+        private static void splitAtRepeatedVertices(int[] ring, int len,
+                                                    List<int[]> out) {
+            // vertices of the ring so far, with the position of each in the
+            // stack - a repeat closes a loop, which is popped off
+            int[] stack = new int[len];
+            int top = 0;
+            Map<Long, Integer> positions = new HashMap<>();
+            for (int i = 0; i < len; i += 2) {
+                long k = key(ring[i], ring[i + 1]);
+                Integer p = positions.get(k);
+                if (p != null) {
+                    out.add(Arrays.copyOfRange(stack, p, top));
+                    for (int j = p; j < top; j += 2)
+                        positions.remove(key(stack[j], stack[j + 1]));
+                    top = p;
+                }
+                positions.put(k, top);
+                stack[top++] = ring[i];
+                stack[top++] = ring[i + 1];
+            }
+            out.add(Arrays.copyOf(stack, top));
+        }
+
+        /*-------------------------- NESTING --------------------------*/
+
+        private List<Shape45> buildShapes(List<int[]> rings) {
+            int n = rings.size();
+            long[] area = new long[n];
+            int[] minX = new int[n];
+            int[] minY = new int[n];
+            int[] maxX = new int[n];
+            int[] maxY = new int[n];
+            for (int i = 0; i < n; i++) {
+                int[] r = rings.get(i);
+                area[i] = doubleSignedArea(r);
+                minX[i] = minY[i] = Integer.MAX_VALUE;
+                maxX[i] = maxY[i] = Integer.MIN_VALUE;
+                for (int j = 0; j < r.length; j += 2) {
+                    minX[i] = Math.min(minX[i], r[j]);
+                    minY[i] = Math.min(minY[i], r[j + 1]);
+                    maxX[i] = Math.max(maxX[i], r[j]);
+                    maxY[i] = Math.max(maxY[i], r[j + 1]);
+                }
+            }
+
+            // candidate parents: rings of opposite winding whose bounding
+            // box contains the ring's bounding box
+            List<List<Integer>> candidates = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+                candidates.add(new ArrayList<>());
+            SweepAndPrune.forEachOverlappingPair(minX, minY, maxX, maxY, (i, j) -> {
+                    if ((area[i] > 0) == (area[j] > 0))
+                        return true;
+                    if (boxContains(minX, minY, maxX, maxY, i, j))
+                        candidates.get(j).add(i);
+                    if (boxContains(minX, minY, maxX, maxY, j, i))
+                        candidates.get(i).add(j);
+                    return true;
+                });
+
+            int[] parent = new int[n];
+            for (int i = 0; i < n; i++) {
+                List<Integer> cands = candidates.get(i);
+                parent[i] = -1;
+                if (area[i] < 0 && cands.size() == 1) {
+                    // a hole must be inside something
+                    parent[i] = cands.get(0);
+                    continue;
+                }
+                for (int c : cands) {
+                    if ((parent[i] == -1 || Math.abs(area[c]) < Math.abs(area[parent[i]]))
+                        && ringContains(rings.get(c), rings.get(i)))
+                        parent[i] = c;
+                }
+                if (area[i] < 0 && parent[i] == -1)
+                    throw new IllegalStateException("hole without outline - are both operands valid?");
+            }
+
+            // number of rings touching each vertex
+            Map<Long, Integer> vertexUse = new HashMap<>();
+            for (int[] r : rings)
+                for (int j = 0; j < r.length; j += 2)
+                    vertexUse.merge(key(r[j], r[j + 1]), 1, Integer::sum);
+
+            // build shapes from the leaves upwards
+            List<List<Integer>> children = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+                children.add(new ArrayList<>());
+            for (int i = 0; i < n; i++)
+                if (parent[i] != -1)
+                    children.get(parent[i]).add(i);
+            List<Shape45> out = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+                if (parent[i] == -1)
+                    out.add(buildShape(i, rings, children, vertexUse, doubledOutput));
+            return out;
+        }
+
+        private static Shape45 buildShape(int i, List<int[]> rings,
+                                          List<List<Integer>> children,
+                                          Map<Long, Integer> vertexUse,
+                                          boolean doubledOutput) {
+            List<Integer> ch = children.get(i);
+            Shape45[] subs = new Shape45[ch.size()];
+            for (int j = 0; j < subs.length; j++)
+                subs[j] = buildShape(ch.get(j), rings, children, vertexUse, doubledOutput);
+            return new Shape45(subs, toPolygon(rings.get(i), vertexUse, doubledOutput));
+        }
+
+        private static boolean boxContains(int[] minX, int[] minY,
+                                           int[] maxX, int[] maxY,
+                                           int outer, int inner) {
+            return minX[outer] <= minX[inner] && maxX[outer] >= maxX[inner]
+                && minY[outer] <= minY[inner] && maxY[outer] >= maxY[inner];
+        }
+
+        /**
+         * <p>True, if {@code inner} lies inside {@code outer}. The rings
+         * are noded, so may touch, but don't cross or share edges. The
+         * mid-point of an edge of {@code inner} therefore can't lie on {@code
+         * outer}, and is tested (in quadrupled co-ordinates) by counting the
+         * crossings of a ray running left from it.</p>
+         */
+        private static boolean ringContains(int[] outer, int[] inner) {
+            long px = (long) inner[0] + inner[2];
+            long py = (long) inner[1] + inner[3];
+            boolean inside = false;
+            for (int i = 0, j = outer.length - 2; i < outer.length; j = i, i += 2) {
+                long x1 = 2L * outer[j];
+                long y1 = 2L * outer[j + 1];
+                long x2 = 2L * outer[i];
+                long y2 = 2L * outer[i + 1];
+                if ((y1 > py) != (y2 > py)) {
+                    // exact for 45-degree edges: dx is 0 or +/-dy
+                    long x = x1 + (py - y1) * (x2 - x1) / (y2 - y1);
+                    if (x < px)
+                        inside = !inside;
+                }
+            }
+            return inside;
+        }
+
+        /*--------------------------- OUTPUT --------------------------*/
+
+        /**
+         * <p>Removes collinear vertices, and (unless {@code doubledOutput})
+         * converts back from doubled co-ordinates.</p>
+         *
+         * <p>A collinear vertex is kept if another ring touches it - rings
+         * of a valid shape may only touch at shared vertices.</p>
+         */
+        private static Polygon toPolygon(int[] ring, Map<Long, Integer> vertexUse,
+                                         boolean doubledOutput) {
+            int n = ring.length / 2;
+            int[] xs = new int[n];
+            int[] ys = new int[n];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                int p = (i + n - 1) % n;
+                int q = (i + 1) % n;
+                int x = ring[2 * i];
+                int y = ring[2 * i + 1];
+                int dIn = direction(x - ring[2 * p], y - ring[2 * p + 1]);
+                int dOut = direction(ring[2 * q] - x, ring[2 * q + 1] - y);
+                if (dIn == dOut && vertexUse.get(key(x, y)) == 1)
+                    continue;
+                xs[count] = doubledOutput ? x : undoubled(x);
+                ys[count] = doubledOutput ? y : undoubled(y);
+                count++;
+            }
+            return new Polygon(Arrays.copyOf(xs, count),
+                               Arrays.copyOf(ys, count), false);
+        }
+
+        private static int undoubled(int v) {
+            if ((v & 1) != 0)
+                throw new ArithmeticException("result has a vertex at a half-unit position: "
+                                              + (v / 2.0)
+                                              + " (the doubled variant of the operation is exact)");
+            return v >> 1;
+        }
+    }
+
+
+
+    /*---------------------------- HELPERS -----------------------------*/
+
+    private static int doubled(float f) {
+        return (int) (f * 2.0f);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return Direction of a 45-degree vector, as one of eight octants
+     * counting counter-clockwise from {@code 0} = east.
+     */
+    private static int direction(int dx, int dy) {
+        int sx = Integer.signum(dx);
+        int sy = Integer.signum(dy);
+        if (sy == 0)  return (sx > 0 ? 0 : 4);
+        if (sy > 0)   return 2 - sx;
+        return 6 + sx;
+    }
+
+    /**
+     * @return Twice the signed area - positive for counter-clockwise.
+     */
+    private static long doubleSignedArea(int[] ring) {
+        long sum = 0;
+        for (int i = 0, j = ring.length - 2; i < ring.length; j = i, i += 2)
+            sum += (long) ring[j] * ring[i + 1] - (long) ring[i] * ring[j + 1];
+        return sum;
+    }
+
+}
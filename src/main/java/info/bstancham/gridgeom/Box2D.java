@@ -26,4 +26,51 @@ public class Box2D {
         centerY = lowY + (sizeY / 2);
     }
 
+    /**
+     * <p>Bounds are inclusive - points on the edge of the box are
+     * contained.</p>
+     */
+    public boolean contains(int x, int y) {
+        return x >= lowX && x <= highX && y >= lowY && y <= highY;
+    }
+
+    public boolean contains(Pt2D p) {
+        return contains(p.x(), p.y());
+    }
+
+    /**
+     * @return True, if {@code b} lies entirely inside this box (edges may
+     * touch).
+     */
+    public boolean contains(Box2D b) {
+        return b.lowX >= lowX && b.highX <= highX
+            && b.lowY >= lowY && b.highY <= highY;
+    }
+
+    /**
+     * @return True, if the boxes overlap or touch.
+     */
+    public boolean intersects(Box2D b) {
+        return b.lowX <= highX && lowX <= b.highX
+            && b.lowY <= highY && lowY <= b.highY;
+    }
+
+    /**
+     * @return True, if this box overlaps or touches the box with corners
+     * {@code x1/y1} and {@code x2/y2} - e.g. the bounding box of a line
+     * segment.
+     */
+    public boolean intersects(int x1, int y1, int x2, int y2) {
+        return Math.min(x1, x2) <= highX && lowX <= Math.max(x1, x2)
+            && Math.min(y1, y2) <= highY && lowY <= Math.max(y1, y2);
+    }
+
+    /**
+     * @return True, if this box overlaps or touches the bounding box of
+     * {@code ln}. If not, they can't intersect.
+     */
+    public boolean intersectsBoundingBox(Line ln) {
+        return intersects(ln.startX(), ln.startY(), ln.endX(), ln.endY());
+    }
+
 }
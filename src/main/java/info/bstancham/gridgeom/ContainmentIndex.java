@@ -0,0 +1,447 @@
+package info.bstancham.gridgeom;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Immutable uniform-grid spatial index over the edges of a group of
+ * shapes, for fast point containment queries.</p>
+ *
+ * <p>The bounding box of the edges is divided into square cells, and each
+ * edge is listed in every cell which it passes through. For each cell, the
+ * winding number of a fixed reference point in the cell (at offset {@code
+ * 1/4, 1/2} from the low corner) is also recorded. A query then only needs to
+ * look at the edges listed in the cell which contains the query point: it
+ * adds up the edges crossed by a short path from the reference point to the
+ * query point, which stays inside the cell.</p>
+ *
+ * <p>The reference point and path are placed at quarter- and half-unit
+ * offsets, so that they never pass through a vertex or lie on any horizontal,
+ * vertical or 45-degree edge. All tests are exact, using {@code long}
+ * arithmetic. For other edge angles, a query may give the wrong answer in
+ * the (rare) case where an edge passes exactly through one of the path's
+ * corner points.</p>
+ *
+ * <p>Inside/outside is determined by the non-zero winding rule over all
+ * (directed) edges: each crossing counts +1 or -1 depending on which way the
+ * edge runs. With counter-clockwise outlines and clockwise holes, this gives
+ * the union of the shapes - the same as the area covered by their
+ * triangulation - even where shapes are nested inside one another or
+ * overlap.</p>
+ *
+ * <p>Cell lists are stored in compressed form: a single array of edge
+ * indices, plus an array of start offsets for each cell.</p>
+ */
+final class ContainmentIndex {
+
+    /**
+     * <p>Maximum width or height of the indexed area. Keeps all intermediate
+     * values (in quarter units, relative to the grid origin) well inside the
+     * range of a {@code long}.</p>
+     */
+    static final int MAX_EXTENT = 1 << 28;
+
+    /** Grid has at most this many cells per edge (on average). */
+    private static final int MAX_CELLS_PER_EDGE = 4;
+
+    // edge end-points, relative to the grid origin
+    private final int[] ax;
+    private final int[] ay;
+    private final int[] bx;
+    private final int[] by;
+
+    private final int originX;
+    private final int originY;
+    private final int cellSize;
+    private final int numCellsX;
+    private final int numCellsY;
+
+    private final int[] cellStart;
+    private final int[] cellEdges;
+    private final int[] refWinding;
+
+    /**
+     * @throws IllegalArgumentException If {@code edges} is empty, or the
+     * width or height of the edges' bounding box is not less than {@link
+     * #MAX_EXTENT}.
+     */
+    public ContainmentIndex(Line[] edges) {
+        if (edges.length == 0)
+            throw new IllegalArgumentException("no edges to index");
+
+        long lowX = Long.MAX_VALUE;
+        long lowY = Long.MAX_VALUE;
+        long highX = Long.MIN_VALUE;
+        long highY = Long.MIN_VALUE;
+        for (Line ln : edges) {
+            lowX  = Math.min(lowX,  Math.min(ln.startX(), ln.endX()));
+            lowY  = Math.min(lowY,  Math.min(ln.startY(), ln.endY()));
+            highX = Math.max(highX, Math.max(ln.startX(), ln.endX()));
+            highY = Math.max(highY, Math.max(ln.startY(), ln.endY()));
+        }
+        if (!canIndex(highX - lowX, highY - lowY))
+            throw new IllegalArgumentException("extent too large to index: "
+                                               + (highX - lowX) + " x "
+                                               + (highY - lowY));
+        originX = (int) lowX;
+        originY = (int) lowY;
+        int width = (int) (highX - lowX);
+        int height = (int) (highY - lowY);
+
+        int n = edges.length;
+        ax = new int[n];
+        ay = new int[n];
+        bx = new int[n];
+        by = new int[n];
+        for (int i = 0; i < n; i++) {
+            ax[i] = edges[i].startX() - originX;
+            ay[i] = edges[i].startY() - originY;
+            bx[i] = edges[i].endX() - originX;
+            by[i] = edges[i].endY() - originY;
+        }
+
+        // choose cell size so that there are roughly as many cells as edges
+        long size = Math.max(1, (long) Math.ceil(Math.sqrt(((double) width + 1)
+                                                           * ((double) height + 1)
+                                                           / n)));
+        while ((width / size + 1) * (height / size + 1) > (long) MAX_CELLS_PER_EDGE * n)
+            size *= 2;
+        cellSize = (int) size;
+        numCellsX = width / cellSize + 1;
+        numCellsY = height / cellSize + 1;
+
+        cellStart = new int[numCellsX * numCellsY + 1];
+        cellEdges = fillCells();
+        refWinding = findReferenceWindings();
+    }
+
+    /**
+     * @return True, if an area of the given size can be indexed.
+     */
+    static boolean canIndex(long width, long height) {
+        return width < MAX_EXTENT && height < MAX_EXTENT;
+    }
+
+
+
+    /*------------------------------ BUILD -----------------------------*/
+
+    /**
+     * <p>Lists each edge in every cell it passes through, filling in {@code
+     * cellStart}. Edges are clipped to each row of cells in turn, so that a
+     * long diagonal edge is only listed in the cells along its length.</p>
+     *
+     * @return The edge indices, in cell order.
+     */
+    private int[] fillCells() {
+        // count edges per cell
+        for (int i = 0; i < ax.length; i++)
+            visitCells(i, null, null);
+        // prefix sum
+        for (int c = 1; c < cellStart.length; c++)
+            cellStart[c] += cellStart[c - 1];
+        // fill, using a moving insertion point for each cell
+        int[] items = new int[cellStart[cellStart.length - 1]];
+        int[] pos = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 0; i < ax.length; i++)
+            visitCells(i, items, pos);
+        return items;
+    }
+
+    /**
+     * <p>If {@code items} is null, increments the count for each cell which
+     * edge {@code i} passes through, otherwise adds the edge to each cell's
+     * list.</p>
+     */
+    private void visitCells(int i, int[] items, int[] pos) {
+        int minY = Math.min(ay[i], by[i]);
+        int maxY = Math.max(ay[i], by[i]);
+        for (int row = minY / cellSize; row <= maxY / cellSize; row++) {
+            // clip edge to the closed y-range of the row
+            long y0 = Math.max(minY, (long) row * cellSize);
+            long y1 = Math.min(maxY, (long) (row + 1) * cellSize);
+            long x0;
+            long x1;
+            if (ay[i] == by[i]) {
+                x0 = Math.min(ax[i], bx[i]);
+                x1 = Math.max(ax[i], bx[i]);
+            } else {
+                long dy = by[i] - ay[i];
+                long dx = bx[i] - ax[i];
+                // x = ax + (y - ay) * dx / dy ... rounded outwards
+                long n0 = (y0 - ay[i]) * dx;
+                long n1 = (y1 - ay[i]) * dx;
+                if (dy < 0) {
+                    n0 = -n0;
+                    n1 = -n1;
+                    dy = -dy;
+                }
+                x0 = ax[i] + Math.floorDiv(Math.min(n0, n1), dy);
+                x1 = ax[i] - Math.floorDiv(-Math.max(n0, n1), dy);
+            }
+            int c0 = (int) Math.max(0, x0 / cellSize);
+            int c1 = (int) Math.min(numCellsX - 1, x1 / cellSize);
+            for (int col = c0; col <= c1; col++) {
+                int c = row * numCellsX + col;
+                if (items == null)
+                    cellStart[c + 1]++;
+                else
+                    items[pos[c]++] = i;
+            }
+        }
+    }
+
+    /**
+     * <p>Finds the winding number of the reference point of each cell, by
+     * casting a horizontal ray along each row of reference points. The rows
+     * are at half-unit y co-ordinates, so no vertex can lie on them.</p>
+     *
+     * <p>Each crossing is added to the first cell whose reference point lies
+     * to the right of it, and the totals are then summed along each row.</p>
+     */
+    private int[] findReferenceWindings() {
+        int[] winding = new int[numCellsX * numCellsY];
+        for (int i = 0; i < ax.length; i++) {
+            // moving rightwards: an edge going down is entered from its
+            // right-hand side (outside), an edge going up is left by it
+            int delta = by[i] < ay[i] ? 1 : -1;
+            for (int row = firstRowCrossed(i); row <= lastRowCrossed(i); row++) {
+                double y = (double) row * cellSize + 0.5;
+                double crossX = ax[i] + (y - ay[i]) * (bx[i] - ax[i]) / (by[i] - ay[i]);
+                // first column with crossX < refX = col * cellSize + 1/4
+                long col = (long) Math.floor((crossX - 0.25) / cellSize) + 1;
+                if (col < numCellsX)
+                    winding[row * numCellsX + (int) Math.max(0, col)] += delta;
+            }
+        }
+        for (int row = 0; row < numCellsY; row++)
+            for (int col = 1; col < numCellsX; col++)
+                winding[row * numCellsX + col] += winding[row * numCellsX + col - 1];
+        return winding;
+    }
+
+    /**
+     * @return The first row whose reference y co-ordinate ({@code row *
+     * cellSize + 1/2}) lies strictly within the y-range of edge {@code i}.
+     */
+    private int firstRowCrossed(int i) {
+        int minY = Math.min(ay[i], by[i]);
+        // smallest row with row * cellSize >= minY
+        return (minY + cellSize - 1) / cellSize;
+    }
+
+    /**
+     * @return The last row whose reference y co-ordinate lies strictly within
+     * the y-range of edge {@code i}.
+     */
+    private int lastRowCrossed(int i) {
+        int maxY = Math.max(ay[i], by[i]);
+        // largest row with row * cellSize < maxY
+        return Math.min(numCellsY - 1, Math.floorDiv(maxY - 1, cellSize));
+    }
+
+
+
+    /*------------------------------ QUERY -----------------------------*/
+
+    /**
+     * @return The index of the cell containing point {@code x/y} (relative to
+     * the grid origin), or {@code -1} if the point is outside of the grid.
+     */
+    int cellIndex(long x, long y) {
+        if (x < 0 || y < 0)
+            return -1;
+        long cx = x / cellSize;
+        long cy = y / cellSize;
+        if (cx >= numCellsX || cy >= numCellsY)
+            return -1;
+        return (int) (cy * numCellsX + cx);
+    }
+
+    /**
+     * @param includeEdges If false, points which lie on any edge are not
+     * contained.
+     */
+    public boolean contains(int x, int y, boolean includeEdges) {
+        long px = (long) x - originX;
+        long py = (long) y - originY;
+        int c = cellIndex(px, py);
+        if (c < 0)
+            return false;
+        return containsInCell(c, (int) px, (int) py, includeEdges);
+    }
+
+    /**
+     * <p>Batch containment test for points {@code from} (inclusive) to {@code
+     * to} (exclusive) of {@code xs/ys}, writing results to the same indices
+     * of {@code out}.</p>
+     *
+     * <p>If the batch is large compared to the grid, the points are first
+     * bucketed by cell (counting sort), so that each cell's edges are read
+     * from memory once per batch rather than once per point. Scratch arrays
+     * are allocated once per batch - nothing is allocated per point.</p>
+     */
+    public void containsAll(int[] xs, int[] ys, int from, int to,
+                            boolean includeEdges, boolean[] out) {
+        int n = to - from;
+        int numCells = refWinding.length;
+        if (n < numCells / 4) {
+            // small batch - bucketing not worth the cost
+            for (int i = from; i < to; i++)
+                out[i] = contains(xs[i], ys[i], includeEdges);
+            return;
+        }
+
+        // cell of each point (-1 if outside the grid)
+        int[] cellOf = new int[n];
+        int[] bucketStart = new int[numCells + 1];
+        for (int i = 0; i < n; i++) {
+            int c = cellIndex((long) xs[from + i] - originX,
+                              (long) ys[from + i] - originY);
+            cellOf[i] = c;
+            if (c < 0)
+                out[from + i] = false;
+            else
+                bucketStart[c + 1]++;
+        }
+        for (int c = 1; c < bucketStart.length; c++)
+            bucketStart[c] += bucketStart[c - 1];
+
+        // point indices in cell order
+        int[] order = new int[bucketStart[numCells]];
+        for (int i = 0; i < n; i++)
+            if (cellOf[i] >= 0)
+                order[bucketStart[cellOf[i]]++] = i;
+
+        for (int k = 0; k < order.length; k++) {
+            int i = from + order[k];
+            out[i] = containsInCell(cellOf[order[k]],
+                                    xs[i] - originX,
+                                    ys[i] - originY,
+                                    includeEdges);
+        }
+    }
+
+    /**
+     * <p>As {@link #containsAll}, but splits the batch into chunks which are
+     * processed in parallel by {@code pool}. Blocks until all are done.</p>
+     *
+     * <p>The index is immutable, so needs no synchronisation.</p>
+     */
+    public void containsAllParallel(int[] xs, int[] ys, boolean includeEdges,
+                                    boolean[] out, ForkJoinPool pool) {
+        pool.invoke(new ContainsTask(this, xs, ys, 0, xs.length, includeEdges, out));
+    }
+
+    private static final class ContainsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Chunks smaller than this are not split further. */
+        private static final int THRESHOLD = 1 << 13;
+
+        private final ContainmentIndex index;
+        private final int[] xs;
+        private final int[] ys;
+        private final int from;
+        private final int to;
+        private final boolean includeEdges;
+        private final boolean[] out;
+
+        ContainsTask(ContainmentIndex index, int[] xs, int[] ys, int from, int to,
+                     boolean includeEdges, boolean[] out) {
+            this.index = index;
+            this.xs = xs;
+            this.ys = ys;
+            this.from = from;
+            this.to = to;
+            this.includeEdges = includeEdges;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                index.containsAll(xs, ys, from, to, includeEdges, out);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ContainsTask(index, xs, ys, from, mid, includeEdges, out),
+                          new ContainsTask(index, xs, ys, mid, to, includeEdges, out));
+            }
+        }
+    }
+
+    /**
+     * <p>Containment test for relative point {@code px/py} which is known to
+     * lie in cell {@code c}.</p>
+     */
+    boolean containsInCell(int c, int px, int py, boolean includeEdges) {
+        int start = cellStart[c];
+        int end = cellStart[c + 1];
+
+        // points on an edge
+        for (int k = start; k < end; k++)
+            if (onEdge(cellEdges[k], px, py))
+                return includeEdges;
+
+        // Path from reference point r, up or down to s, right to t, then
+        // diagonally to p itself (all co-ordinates in quarter units)
+        long cellX = (long) (c % numCellsX) * cellSize;
+        long cellY = (long) (c / numCellsX) * cellSize;
+        long rx = cellX * 4 + 1;
+        long ry = cellY * 4 + 2;
+        long sy = (long) py * 4 + 2;
+        long tx = (long) px * 4 + 1;
+        long qx = (long) px * 4;
+        long qy = (long) py * 4;
+
+        int winding = refWinding[c];
+        for (int k = start; k < end; k++) {
+            int e = cellEdges[k];
+            long x1 = (long) ax[e] * 4;
+            long y1 = (long) ay[e] * 4;
+            long x2 = (long) bx[e] * 4;
+            long y2 = (long) by[e] * 4;
+            winding += crossing(rx, ry, rx, sy, x1, y1, x2, y2);
+            winding += crossing(rx, sy, tx, sy, x1, y1, x2, y2);
+            winding += crossing(tx, sy, qx, qy, x1, y1, x2, y2);
+        }
+        return winding != 0;
+    }
+
+    private boolean onEdge(int e, long px, long py) {
+        return px >= Math.min(ax[e], bx[e]) && px <= Math.max(ax[e], bx[e])
+            && py >= Math.min(ay[e], by[e]) && py <= Math.max(ay[e], by[e])
+            && orient(ax[e], ay[e], bx[e], by[e], px, py) == 0;
+    }
+
+    /**
+     * @return The change in winding number along path {@code p1-p2} due to
+     * edge {@code q1-q2}: {@code +1} if the path crosses from the right-hand
+     * side of the edge to the left, {@code -1} if from left to right, or
+     * {@code 0} unless they cross at a single point in the interior of
+     * both.
+     */
+    private static int crossing(long p1x, long p1y, long p2x, long p2y,
+                                long q1x, long q1y, long q2x, long q2y) {
+        long o1 = orient(q1x, q1y, q2x, q2y, p1x, p1y);
+        long o2 = orient(q1x, q1y, q2x, q2y, p2x, p2y);
+        if ((o1 >= 0 || o2 <= 0) && (o1 <= 0 || o2 >= 0))
+            return 0;
+        long o3 = orient(p1x, p1y, p2x, p2y, q1x, q1y);
+        long o4 = orient(p1x, p1y, p2x, p2y, q2x, q2y);
+        if ((o3 < 0 && o4 > 0) || (o3 > 0 && o4 < 0))
+            return o1 < 0 ? 1 : -1;
+        return 0;
+    }
+
+    /**
+     * @return Positive if {@code a, b, c} turn counter-clockwise, negative if
+     * clockwise, or zero if collinear.
+     */
+    private static long orient(long ax, long ay, long bx, long by, long cx, long cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+
+}
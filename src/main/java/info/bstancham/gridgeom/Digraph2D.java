@@ -8,6 +8,9 @@ import java.util.TreeSet;
 import java.util.HashSet;
 import java.util.Stack;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.HashMap;
 
 /**
  * <p>A directed graph representing connections between points in two
@@ -17,10 +20,15 @@ import java.util.Collection;
  * <ul>
  * <li>A node cannot be connected to itself. It would not be useful for my intended usage.</li>
  * </ul>
+ *
+ * <p>Nodes are held in a list (which preserves insertion order, for {@link
+ * #getNode(int)}) and are also indexed in a hash map keyed on their exact
+ * co-ordinates, so that looking up the node at a point is O(1).</p>
  */
 public class Digraph2D {
 
     private List<Node> nodes = new ArrayList<>();
+    private Map<Long, Node> nodesByPoint = new HashMap<>();
 
     @Override
     public String toString() {
@@ -48,20 +56,26 @@ public class Digraph2D {
      * there is no such node.
      */
     public Node getNode(Pt2Df p) {
-        for (Node n : nodes)
-            if (n.getPoint().equals(p))
-                return n;
-        return null;
+        return nodesByPoint.get(pointKey(p));
     }
 
     /**
      * @return {@code true}, if digraph contains a node with the co-ordinates of point
      * {@code p}, otherwise {@code false}. */
     public boolean contains(Pt2Df p) {
-        for (Node n : nodes)
-            if (n.getPoint().equals(p))
-                return true;
-        return false;
+        return nodesByPoint.containsKey(pointKey(p));
+    }
+
+    /**
+     * <p>Packs the bits of both co-ordinates into a single key. Keys are equal
+     * exactly when the points are equal according to {@link Pt2Df#equals}
+     * (NaN co-ordinates aside) - {@code -0.0} is normalised to {@code 0.0}
+     * first, since the two compare as equal.</p>
+     */
+    private static long pointKey(Pt2Df p) {
+        int x = Float.floatToIntBits(p.x() + 0.0f);
+        int y = Float.floatToIntBits(p.y() + 0.0f);
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
     }
 
     /**
@@ -114,158 +128,195 @@ public class Digraph2D {
     }
     
     public void addLine(Line ln, int shapeID) {
-        addLine(ln.start().toFloat(), ln.end().toFloat(), shapeID);
+        addLine(new Pt2Df(ln.startX(), ln.startY()),
+                new Pt2Df(ln.endX(), ln.endY()), shapeID);
     }
 
+    /**
+     * <p>Adds a line, splitting it and any existing connections it crosses or
+     * overlaps, so that connections only ever meet at nodes.</p>
+     *
+     * <p>To add many lines, use {@link #addLines} instead.</p>
+     */
     public void addLine(Pt2Df p1, Pt2Df p2, int shapeID) {
+        addSegments(Collections.singletonList(new Linef(p1, p2)), shapeID);
+    }
 
-        // collect all points of new line (except start) into a sorted set so
-        // that they will be in the correct order to make connections at the end
-        SortedSet<Pt2Df> linePoints
-            = new TreeSet<>(new Pt2Df.SmallestDistComparator(p1));
-        linePoints.add(p2);
+    /**
+     * <p>Adds all of the lines in one step. The result is the same as adding
+     * each line in turn with {@link #addLine}, but all of the splits between
+     * the new lines and the existing connections (and between the new lines
+     * themselves) are found in a single sweep, and each line or connection is
+     * then split once, at all of its split points together.</p>
+     *
+     * <p>COMPLEXITY: O(n log n) plus the number of pairs of lines whose
+     * bounding boxes overlap (see {@link SweepAndPrune}) - compared with
+     * O(n<sup>2</sup>) for adding the lines one at a time.</p>
+     */
+    public void addLines(Collection<Line> lines, int shapeID) {
+        List<Linef> segs = new ArrayList<>(lines.size());
+        for (Line ln : lines)
+            segs.add(new Linef(ln.startX(), ln.startY(), ln.endX(), ln.endY()));
+        addSegments(segs, shapeID);
+    }
 
-        // keep track of what splits need to be made in existing connections
-        List<SplitDirective> splitters = new ArrayList<>();
-        
-        // check for intersections with existing lines...
-        Linef newLine = new Linef(p1, p2);
-        for (Node n : nodes) {
-            for (Connection c : n.getConnectionsForward()) {
-                Linef oldLine = c.getLine();
-
-                // DO LINES INTERSECT?
-
-                List<Pt2Df> ipts = new ArrayList<>();
-                if (newLine.intersects(oldLine)) {
-                    // normal intersection
-
-                    Pt2Df ip = newLine.getIntersectionPoint(oldLine);
-
-                    // for new line
-                    ipts.add(ip);
-                    // linePoints.add(ip);
-
-                    // split-directive for old line
-                    if (!ip.equals(oldLine.start()) &&
-                        !ip.equals(oldLine.end())) {
-                        
-                        splitters.add(new SplitDirective(c.getOrigin().getPoint(),
-                                                         c.getDestination().getPoint(),
-                                                         ip));
-                    }
-
-                } else if (newLine.isParallel(oldLine)) {
-
-                    // new line split
-                    // ... easy - just add to line-points
-                    
-                    if (newLine.contains(oldLine.start()) &&
-                        !newLine.hasVertex(oldLine.start()))
-                        ipts.add(oldLine.start());
-                    
-                    if (newLine.contains(oldLine.end()) &&
-                        !newLine.hasVertex(oldLine.end()))
-                        ipts.add(oldLine.end());
-
-
-                    
-                    // old line split
-                    // ... 
-
-                    boolean ns =
-                        !oldLine.hasVertex(newLine.start()) &&
-                        oldLine.contains(newLine.start());
-                    boolean ne =
-                        !oldLine.hasVertex(newLine.end()) &&
-                        oldLine.contains(newLine.end());
-
-                    // both?
-                    if (ns && ne) {
-
-                        Pt2Df s = c.getOrigin().getPoint();
-                        Pt2Df i1 = newLine.start();
-                        Pt2Df i2 = newLine.end();
-                        Pt2Df e = c.getDestination().getPoint();
-                        if (Geom2D.distSquared(s, i2) < Geom2D.distSquared(s, i1)) {
-                            // i2 is nearer to start - swap order
-                            i1 = newLine.end();
-                            i2 = newLine.start();
-                        }
-                        splitters.add(new SplitDirective(s, e, i1));
-                        splitters.add(new SplitDirective(i1, e, i2));
-                        
-                    } else if (ns) {
-                        splitters.add(new SplitDirective(c.getOrigin().getPoint(),
-                                                         c.getDestination().getPoint(),
-                                                         newLine.start()));
-                    } else if (ne) {
-                        splitters.add(new SplitDirective(c.getOrigin().getPoint(),
-                                                         c.getDestination().getPoint(),
-                                                         newLine.end()));
-                    }
+    /**
+     * <p>Nodes the new segments against the existing connections and against
+     * each other, then adds them.</p>
+     */
+    private void addSegments(List<Linef> newSegs, int shapeID) {
 
-                }
+        // existing connections first, then the new segments
+        List<Connection> old = new ArrayList<>();
+        for (Node n : nodes)
+            old.addAll(n.getConnectionsForward());
+        int numOld = old.size();
+        int total = numOld + newSegs.size();
+        Linef[] segs = new Linef[total];
+        for (int i = 0; i < numOld; i++)
+            segs[i] = old.get(i).getLine();
+        for (int i = numOld; i < total; i++)
+            segs[i] = newSegs.get(i - numOld);
+
+        // split points for each segment - created lazily, since most segments
+        // won't be split at all
+        List<SortedSet<Pt2Df>> splits = new ArrayList<>(Collections.nCopies(total, null));
+
+        if (newSegs.size() == 1) {
+            // no point sorting everything for a single line
+            for (int i = 0; i < numOld; i++)
+                findSplits(segs, splits, i, numOld);
+        } else {
+            int[] minX = new int[total];
+            int[] minY = new int[total];
+            int[] maxX = new int[total];
+            int[] maxY = new int[total];
+            for (int i = 0; i < total; i++) {
+                Linef ln = segs[i];
+                minX[i] = (int) Math.floor(Math.min(ln.startX(), ln.endX()));
+                minY[i] = (int) Math.floor(Math.min(ln.startY(), ln.endY()));
+                maxX[i] = (int) Math.ceil(Math.max(ln.startX(), ln.endX()));
+                maxY[i] = (int) Math.ceil(Math.max(ln.startY(), ln.endY()));
+            }
+            SweepAndPrune.forEachOverlappingPair(minX, minY, maxX, maxY, (i, j) -> {
+                    // existing connections are already noded
+                    if (i >= numOld || j >= numOld)
+                        findSplits(segs, splits, i, j);
+                    return true;
+                });
+        }
 
-                for (Pt2Df ip : ipts) {
-                    // add node for new line
-                    // ... only if point is not same as start point or end
-                    if (!ip.equals(newLine.start()) &&
-                        !ip.equals(newLine.end())) {
-                        linePoints.add(ip);
-                    }
+        // add new segments (split as required)
+        for (int i = numOld; i < total; i++) {
+            Pt2Df origin = segs[i].start();
+            if (splits.get(i) != null) {
+                for (Pt2Df dest : splits.get(i)) {
+                    addConnection(origin, dest, shapeID);
+                    origin = dest;
                 }
-            }   
+            }
+            addConnection(origin, segs[i].end(), shapeID);
         }
 
-        // add new line (segmented as required)
-        Pt2Df origin = p1;
-        for (Pt2Df dest : linePoints) {
-            addConnection(origin, dest, shapeID);
-            origin = dest;
+        // replace each split connection with a chain of connections
+        for (int i = 0; i < numOld; i++) {
+            if (splits.get(i) == null)
+                continue;
+            Connection c = old.get(i);
+            Node origin = c.getOrigin();
+            Node dest = c.getDestination();
+            origin.removeConnection(dest);
+            for (Pt2Df p : splits.get(i)) {
+                Node n = getAndAddNode(p);
+                origin.addConnection(n, c.getIDs());
+                origin = n;
+            }
+            origin.addConnection(dest, c.getIDs());
         }
+    }
 
-        for (SplitDirective sd : splitters) {
-            boolean result = splitConnection(sd);
+    /**
+     * <p>Finds the points (if any) at which segments {@code i} and {@code j}
+     * split one another, and adds them to each segment's set of split
+     * points. End points of a segment never split it.</p>
+     */
+    private static void findSplits(Linef[] segs, List<SortedSet<Pt2Df>> splits,
+                                   int i, int j) {
+        Linef a = segs[i];
+        Linef b = segs[j];
+        boolean both45 = a.is45Compliant() && b.is45Compliant();
+        Pt2Df ip = null;
+        if (both45 && onHalfGrid(a) && onHalfGrid(b)) {
+            // exact, in integer arithmetic: the end points are whole numbers
+            // in doubled co-ordinates, and the result is in quadrupled
+            // co-ordinates (which is exact as a float)
+            long p = Line.intersectionPointDoubled45(doubled(a.startX()), doubled(a.startY()),
+                                                     doubled(a.endX()), doubled(a.endY()),
+                                                     doubled(b.startX()), doubled(b.startY()),
+                                                     doubled(b.endX()), doubled(b.endY()));
+            if (p != Line.NO_INTERSECTION_POINT)
+                ip = new Pt2Df(Line.doubledX(p) / 4.0f, Line.doubledY(p) / 4.0f);
+        } else if (both45 ? a.intersects45(b) : a.intersects(b)) {
+            ip = (both45 ? a.getIntersectionPoint45(b)
+                         : a.getIntersectionPoint(b));
+        }
+        if (ip != null) {
+            // normal intersection
+            addSplit(segs, splits, i, ip);
+            addSplit(segs, splits, j, ip);
+        } else if (a.isParallel(b)) {
+            // overlapping collinear lines split each other at their end points
+            addSplitIfContained(segs, splits, i, b.start());
+            addSplitIfContained(segs, splits, i, b.end());
+            addSplitIfContained(segs, splits, j, a.start());
+            addSplitIfContained(segs, splits, j, a.end());
         }
     }
 
-    private boolean splitConnection(SplitDirective sd) {
-        Connection c = getConnection(sd.start, sd.end);
-        if (c == null)
-            return false;
-
-        // get rid of old connection
-        c.getOrigin().removeConnection(c.getDestination());
-        // add two new connections
-        Node inode = getAndAddNode(sd.splitPoint);
-        c.getOrigin().addConnection(inode, c.getIDs());
-        inode.addConnection(c.getDestination(), c.getIDs());
-        return true;
-    }
+    /**
+     * <p>Largest co-ordinate for which the exact 45-degree path is used - so
+     * that quadrupled co-ordinates fit in an {@code int}.</p>
+     */
+    private static final float MAX_EXACT_COORD = 1 << 29;
 
     /**
-     * <p>Gets the {@code Connection} from {@code origin} to {@code
-     * destination}, if it exists - otherwise returns {@code null}.</p>
+     * @return True, if both end points of {@code ln} lie on the half-unit
+     * grid, within range of the exact 45-degree path.
      */
-    private Connection getConnection(Pt2Df origin, Pt2Df destination) {
-        Node n = getNode(origin);
-        if (n == null)
-            return null;
-        return n.getConnection(destination);
+    private static boolean onHalfGrid(Linef ln) {
+        return onHalfGrid(ln.startX()) && onHalfGrid(ln.startY())
+            && onHalfGrid(ln.endX()) && onHalfGrid(ln.endY());
+    }
+
+    private static boolean onHalfGrid(float f) {
+        return Math.abs(f) < MAX_EXACT_COORD && f * 2.0f == (float) Math.rint(f * 2.0f);
     }
 
-    private class SplitDirective {
-        public final Pt2Df start;
-        public final Pt2Df end;
-        public final Pt2Df splitPoint;
-        public SplitDirective(Pt2Df start, Pt2Df end, Pt2Df splitPoint) {
-            this.start = start;
-            this.end = end;
-            this.splitPoint = splitPoint;
+    private static int doubled(float f) {
+        return (int) (f * 2.0f);
+    }
+
+    private static void addSplitIfContained(Linef[] segs,
+                                            List<SortedSet<Pt2Df>> splits,
+                                            int i, Pt2Df p) {
+        if (segs[i].contains(p))
+            addSplit(segs, splits, i, p);
+    }
+
+    private static void addSplit(Linef[] segs, List<SortedSet<Pt2Df>> splits,
+                                 int i, Pt2Df p) {
+        Linef ln = segs[i];
+        if (ln.hasVertex(p))
+            return;
+        SortedSet<Pt2Df> set = splits.get(i);
+        if (set == null) {
+            // sorted by distance from the start, so in order along the line
+            set = new TreeSet<>(new Pt2Df.SmallestDistComparator(ln.start()));
+            splits.set(i, set);
         }
+        set.add(p);
     }
-    
+
     /**
      * <p>Adds a connection between {@code Node} at point {@code p1} and {@code
      * Node} at point {@code p2}, creating each {@code Node} if it doesn't
@@ -286,6 +337,7 @@ public class Digraph2D {
         if (n == null) {
             n = new Node(p);
             nodes.add(n);
+            nodesByPoint.put(pointKey(p), n);
         }
         return n;
     }
@@ -296,10 +348,7 @@ public class Digraph2D {
      * @return True, if a new {@code Node} was added.
      */
     public boolean addNode(Node n) {
-        boolean found = false;
-        for (Node nn : nodes)
-            if (nn.getPoint().equals(n.getPoint()))
-                found = true;
+        boolean found = (nodesByPoint.putIfAbsent(pointKey(n.getPoint()), n) != null);
         if (!found)
             nodes.add(n);
         return !found;
@@ -311,6 +360,7 @@ public class Digraph2D {
             return false;
         n.removeAllConnections();
         nodes.remove(n);
+        nodesByPoint.remove(pointKey(p));
         return true;
     }
 
@@ -399,18 +449,6 @@ public class Digraph2D {
             return null;
         }
 
-        /**
-         * @return The {@code Connection} from this {@code Node} to the {@code
-         * Node} at point {@code p}, or returns {@code null} if no such {@code
-         * Connection} exists.
-         */
-        private Connection getConnection(Pt2Df p) {
-            for (Connection c : connections)
-                if (c.getDestination().getPoint().equals(p))
-                    return c;
-            return null;
-        }
-
         /**
          * <p>Removes forward connection to point {@code dest} (if it exists),
          * and also the associated backward-connection in the destination
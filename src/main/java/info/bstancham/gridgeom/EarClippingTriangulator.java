@@ -0,0 +1,990 @@
+package info.bstancham.gridgeom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Ear-clipping triangulation over an index-linked vertex list.</p>
+ *
+ * <p>The remaining vertices are held in a circular doubly-linked list made of
+ * plain {@code int} arrays, so clipping an ear is O(1) and no objects are
+ * created per step (other than the output triangles). Only reflex vertices
+ * can block an ear, so the ear test skips every convex vertex it meets. For
+ * polygons of more than {@value #MIN_HASHED_VERTICES} vertices, the vertices
+ * are also threaded onto a second list sorted by z-order (Morton) code: an
+ * ear test then only visits the vertices whose z-order code lies in the range
+ * covered by the candidate triangle's bounding box.</p>
+ *
+ * <p>If a full circuit of the polygon finds no ear (which only happens with
+ * degenerate input), the triangulator falls back in turn to: removing
+ * duplicate and collinear vertices; cutting off small local
+ * self-intersections; and finally splitting the polygon in two along a valid
+ * diagonal and triangulating both halves.</p>
+ *
+ * <p>COMPLEXITY: O(n log n) for the z-order sort, plus close to O(1) per ear
+ * test for typical outlines, so triangulation scales almost linearly. The
+ * worst case is O(n<sup>2</sup>), reached when a large proportion of the
+ * vertices are reflex and crowd into the bounding box of every candidate ear,
+ * or when the splitting fall-back is needed.</p>
+ *
+ * <p>Input winding may be either direction - the vertex list is always built
+ * with counter-clockwise winding, and all output triangles have
+ * counter-clockwise winding.</p>
+ *
+ * <p>Holes are merged into the outline before clipping begins, working
+ * directly on the linked list. The holes are taken in order of their leftmost
+ * vertex, and each is joined to the outline by a pair of coincident bridge
+ * edges running to the nearest outline vertex visible from that leftmost
+ * vertex. Finding a bridge costs O(n) in the number of vertices already
+ * merged, so merging h holes costs O(h * n) in total. The merged outline can
+ * also be produced on its own, with {@link #bridgeHoles}, and triangulated
+ * later as an ordinary polygon.</p>
+ *
+ * <p>Each instance does a single triangulation or bridging.</p>
+ *
+ * <p>If a {@link TriangulationListener} is supplied, it is notified of each
+ * ear clipped, each fall-back pass, and the total time taken.</p>
+ */
+class EarClippingTriangulator {
+
+    /** Below this size a linear scan is faster than building the z-order index. */
+    private static final int MIN_HASHED_VERTICES = 80;
+
+    private static final int NIL = -1;
+
+    private final int[] px;
+    private final int[] py;
+    // index into px/py of the first vertex of each hole
+    private final int[] holeStart;
+    // sorted packed co-ordinates which occur more than once in the input
+    private long[] sharedKeys;
+    // while true, collinear vertices in sharedKeys are not filtered out - a
+    // hole may yet need to be joined at one
+    private boolean mergingHoles = false;
+    private final TriangulationListener listener;
+    private final List<Triangle> tris = new ArrayList<>();
+
+    // linked-list nodes - parallel arrays indexed by node
+    private int size = 0;
+    private int[] vertexIndex;
+    private int[] x;
+    private int[] y;
+    private int[] prev;
+    private int[] next;
+    private int[] z;
+    private int[] prevZ;
+    private int[] nextZ;
+
+    // z-order hashing
+    private boolean hashed = false;
+    private int minX;
+    private int minY;
+    private double invSize;
+
+    public EarClippingTriangulator(Polygon poly) {
+        this(poly, null);
+    }
+
+    /**
+     * @param listener May be null.
+     */
+    public EarClippingTriangulator(Polygon poly, TriangulationListener listener) {
+        this(poly, new Polygon[0], listener);
+    }
+
+    /**
+     * <p>Triangulates the area inside {@code outline} but outside all of
+     * {@code holes}. The holes must lie inside the outline and must not
+     * overlap one another, though they may touch at vertices.</p>
+     *
+     * @param listener May be null.
+     */
+    public EarClippingTriangulator(Polygon outline, Polygon[] holes,
+                                   TriangulationListener listener) {
+        this.listener = listener;
+        int n = outline.getNumVertices();
+        holeStart = new int[holes.length];
+        for (int h = 0; h < holes.length; h++) {
+            holeStart[h] = n;
+            n += holes[h].getNumVertices();
+        }
+        px = new int[n];
+        py = new int[n];
+        copyVertices(outline, 0);
+        for (int h = 0; h < holes.length; h++)
+            copyVertices(holes[h], holeStart[h]);
+        allocate(n + n / 4 + 2 * holes.length + 8);
+    }
+
+    private void copyVertices(Polygon poly, int offset) {
+        for (int i = 0; i < poly.getNumVertices(); i++) {
+            px[offset + i] = poly.getVertexX(i);
+            py[offset + i] = poly.getVertexY(i);
+        }
+    }
+
+    /**
+     * @return The triangles, all with counter-clockwise winding.
+     */
+    public Triangle[] triangulate() {
+        long startTime = 0;
+        if (listener != null) {
+            listener.started(px.length);
+            startTime = System.nanoTime();
+        }
+        int outerEnd = (holeStart.length > 0 ? holeStart[0] : px.length);
+        if (outerEnd >= 3) {
+            int outer = linkedList(0, outerEnd, true);
+            if (outer != NIL && next[outer] != prev[outer]) {
+                if (holeStart.length > 0)
+                    outer = eliminateHoles(outer);
+                if (px.length > MIN_HASHED_VERTICES)
+                    initHashing();
+                earClipLinked(outer, 0);
+            }
+        }
+        if (listener != null)
+            listener.finished(tris.size(), System.nanoTime() - startTime);
+        return tris.toArray(new Triangle[tris.size()]);
+    }
+
+
+
+    /**
+     * <p>Merges the holes into the outline, without triangulating.</p>
+     *
+     * @return A single counter-clockwise outline covering the same area as
+     * the outline less the holes. Each hole is joined on by a bridge: a pair
+     * of coincident edges running in opposite directions. Collinear vertices
+     * at the ends of a bridge may be dropped. If there are no holes, or the
+     * outline has no area, a copy of the outline is returned.
+     */
+    public Polygon bridgeHoles() {
+        int outerEnd = (holeStart.length > 0 ? holeStart[0] : px.length);
+        int outer = (outerEnd >= 3 ? linkedList(0, outerEnd, true) : NIL);
+        if (holeStart.length == 0 || outer == NIL || next[outer] == prev[outer])
+            return new Polygon(Arrays.copyOf(px, outerEnd), Arrays.copyOf(py, outerEnd));
+
+        outer = eliminateHoles(outer);
+        int n = countNodes(outer);
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        int p = outer;
+        for (int i = 0; i < n; i++) {
+            xs[i] = x[p];
+            ys[i] = y[p];
+            p = next[p];
+        }
+        return new Polygon(xs, ys);
+    }
+
+
+
+    /*------------------------- MAIN ALGORITHM -------------------------*/
+
+    /**
+     * <p>Clips ears until only a single triangle remains. If a whole circuit
+     * of the polygon finds no ear, falls back to the next pass.</p>
+     *
+     * @param pass {@code 0} = normal clipping; {@code 1} = after filtering
+     * out duplicate/collinear vertices; {@code 2} = after curing local
+     * self-intersections.
+     */
+    private void earClipLinked(int ear, int pass) {
+        if (ear == NIL)
+            return;
+
+        if (pass == 0 && hashed)
+            indexCurve(ear);
+
+        int stop = ear;
+        while (prev[ear] != next[ear]) {
+            int p = prev[ear];
+            int n = next[ear];
+
+            if (hashed ? isEarHashed(ear) : isEar(ear)) {
+                addTriangle(p, ear, n);
+                removeNode(ear);
+                // skipping the next vertex leads to fewer sliver triangles
+                ear = next[n];
+                stop = next[n];
+                continue;
+            }
+
+            ear = n;
+
+            // a whole circuit without finding an ear
+            if (ear == stop) {
+                if (listener != null)
+                    listener.retry(pass + 1, countNodes(ear));
+                if (pass == 0) {
+                    earClipLinked(filterPoints(ear, NIL), 1);
+                } else if (pass == 1) {
+                    ear = cureLocalIntersections(filterPoints(ear, NIL));
+                    earClipLinked(ear, 2);
+                } else if (pass == 2) {
+                    splitEarClip(ear);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * <p>Linear-scan ear test: the triangle must be convex, and contain no
+     * reflex vertex.</p>
+     */
+    private boolean isEar(int ear) {
+        int a = prev[ear];
+        int b = ear;
+        int c = next[ear];
+        if (area(a, b, c) >= 0)
+            return false; // reflex - can't be an ear
+
+        int x0 = Math.min(x[a], Math.min(x[b], x[c]));
+        int y0 = Math.min(y[a], Math.min(y[b], y[c]));
+        int x1 = Math.max(x[a], Math.max(x[b], x[c]));
+        int y1 = Math.max(y[a], Math.max(y[b], y[c]));
+
+        int p = next[c];
+        while (p != a) {
+            if (blocksEar(p, a, b, c, x0, y0, x1, y1))
+                return false;
+            p = next[p];
+        }
+        return true;
+    }
+
+    /**
+     * <p>Ear test using the z-order index: only the vertices whose z-order
+     * codes fall between those of the triangle's bounding-box corners need
+     * to be examined.</p>
+     */
+    private boolean isEarHashed(int ear) {
+        int a = prev[ear];
+        int b = ear;
+        int c = next[ear];
+        if (area(a, b, c) >= 0)
+            return false; // reflex - can't be an ear
+
+        int x0 = Math.min(x[a], Math.min(x[b], x[c]));
+        int y0 = Math.min(y[a], Math.min(y[b], y[c]));
+        int x1 = Math.max(x[a], Math.max(x[b], x[c]));
+        int y1 = Math.max(y[a], Math.max(y[b], y[c]));
+
+        int minZ = zOrder(x0, y0);
+        int maxZ = zOrder(x1, y1);
+
+        int p = prevZ[ear];
+        int n = nextZ[ear];
+
+        // look in both directions at once...
+        while (p != NIL && z[p] >= minZ && n != NIL && z[n] <= maxZ) {
+            if (p != a && p != c && blocksEar(p, a, b, c, x0, y0, x1, y1))
+                return false;
+            p = prevZ[p];
+            if (n != a && n != c && blocksEar(n, a, b, c, x0, y0, x1, y1))
+                return false;
+            n = nextZ[n];
+        }
+        // ... then finish off whichever direction remains
+        while (p != NIL && z[p] >= minZ) {
+            if (p != a && p != c && blocksEar(p, a, b, c, x0, y0, x1, y1))
+                return false;
+            p = prevZ[p];
+        }
+        while (n != NIL && z[n] <= maxZ) {
+            if (n != a && n != c && blocksEar(n, a, b, c, x0, y0, x1, y1))
+                return false;
+            n = nextZ[n];
+        }
+        return true;
+    }
+
+    /**
+     * @return True, if node {@code p} is a reflex vertex lying inside (or on
+     * the boundary of) triangle {@code abc}. A node coincident with {@code a}
+     * doesn't count - this is the other end of a bridge, when holes have been
+     * merged in.
+     */
+    private boolean blocksEar(int p, int a, int b, int c,
+                              int x0, int y0, int x1, int y1) {
+        return x[p] >= x0 && x[p] <= x1 && y[p] >= y0 && y[p] <= y1
+            && !equals(p, a)
+            && pointInTriangle(x[a], y[a], x[b], y[b], x[c], y[c], x[p], y[p])
+            && area(prev[p], p, next[p]) >= 0;
+    }
+
+    /**
+     * <p>Finds places where two adjacent edges cross (a small
+     * self-intersection, usually left behind by filtering) and cuts them off
+     * as a triangle.</p>
+     */
+    private int cureLocalIntersections(int start) {
+        if (start == NIL)
+            return NIL;
+        int p = start;
+        do {
+            int a = prev[p];
+            int b = next[next[p]];
+            if (!equals(a, b) &&
+                intersects(a, p, next[p], b) &&
+                locallyInside(a, b) &&
+                locallyInside(b, a)) {
+
+                addTriangle(a, p, b);
+                // remove the two nodes involved
+                removeNode(next[p]);
+                removeNode(p);
+                p = start = b;
+            }
+            p = next[p];
+        } while (p != start);
+        return filterPoints(p, NIL);
+    }
+
+    /**
+     * <p>Last resort: splits the polygon in two along a valid diagonal, and
+     * triangulates each half separately.</p>
+     */
+    private void splitEarClip(int start) {
+        int a = start;
+        do {
+            int b = next[next[a]];
+            while (b != prev[a]) {
+                if (vertexIndex[a] != vertexIndex[b] && isValidDiagonal(a, b)) {
+                    int c = splitPolygon(a, b);
+                    a = filterPoints(a, next[a]);
+                    c = filterPoints(c, next[c]);
+                    earClipLinked(a, 0);
+                    earClipLinked(c, 0);
+                    return;
+                }
+                b = next[b];
+            }
+            a = next[a];
+        } while (a != start);
+    }
+
+    private void addTriangle(int a, int b, int c) {
+        if (listener != null)
+            listener.earClipped();
+        tris.add(new Triangle(x[a], y[a], x[b], y[b], x[c], y[c]));
+    }
+
+
+
+    /*----------------------------- HOLES ------------------------------*/
+
+    /**
+     * <p>Links every hole into the outer list, starting with the hole whose
+     * leftmost vertex lies furthest to the left. Taking the holes in this
+     * order means that a bridge never needs to cross a hole which has not
+     * yet been merged.</p>
+     *
+     * @return A node of the merged list.
+     */
+    private int eliminateHoles(int outer) {
+        findSharedVertices();
+        // sort key: leftmost x in the high 32 bits, node in the low 32 bits
+        long[] queue = new long[holeStart.length];
+        int numQueued = 0;
+        for (int h = 0; h < holeStart.length; h++) {
+            int end = (h + 1 < holeStart.length ? holeStart[h + 1] : px.length);
+            int list = linkedList(holeStart[h], end, false);
+            if (list == NIL || list == next[list])
+                continue; // no area - nothing to remove
+            int left = getLeftmost(list);
+            queue[numQueued++] = ((long) x[left] << 32) | left;
+        }
+        Arrays.sort(queue, 0, numQueued);
+        mergingHoles = true;
+        for (int i = 0; i < numQueued; i++)
+            outer = eliminateHole((int) queue[i], outer);
+        mergingHoles = false;
+        return outer;
+    }
+
+    /**
+     * <p>Bridges {@code hole} into the list containing {@code outer}, by
+     * splitting at a mutually visible pair of nodes.</p>
+     *
+     * <p>If the hole touches the merged list at a vertex, it is joined at that
+     * vertex instead. A bridge made anywhere else would leave the touching
+     * vertex on two overlapping paths, and clipping would go wrong there.</p>
+     */
+    private int eliminateHole(int hole, int outer) {
+        int bridge = NIL;
+        if (sharedKeys.length > 0) {
+            int h = hole;
+            do {
+                if (isShared(h))
+                    bridge = findTouchingNode(h, outer);
+                if (bridge != NIL) {
+                    hole = h;
+                    break;
+                }
+                h = next[h];
+            } while (h != hole);
+        }
+        if (bridge == NIL)
+            bridge = findHoleBridge(hole, outer);
+        if (listener != null)
+            listener.bridgeAttempt(bridge != NIL);
+        if (bridge == NIL)
+            return outer;
+        int bridgeReverse = splitPolygon(bridge, hole);
+        // filter collinear points around the cuts
+        filterPoints(bridgeReverse, next[bridgeReverse]);
+        return filterPoints(bridge, next[bridge]);
+    }
+
+    /**
+     * <p>Finds the packed co-ordinates shared by more than one input vertex -
+     * only holes with one of these can touch another ring.</p>
+     */
+    private void findSharedVertices() {
+        long[] keys = new long[px.length];
+        for (int i = 0; i < px.length; i++)
+            keys[i] = pack(px[i], py[i]);
+        Arrays.sort(keys);
+        int n = 0;
+        for (int i = 1; i < keys.length; i++)
+            if (keys[i] == keys[i - 1] && (n == 0 || keys[n - 1] != keys[i]))
+                keys[n++] = keys[i];
+        sharedKeys = Arrays.copyOf(keys, n);
+    }
+
+    private boolean isShared(int p) {
+        return Arrays.binarySearch(sharedKeys, pack(x[p], y[p])) >= 0;
+    }
+
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return A node of the list containing {@code outer} which coincides with
+     * hole node {@code h}, and whose interior sector contains both hole edges
+     * meeting at {@code h}; or {@code NIL} if there is none.
+     */
+    private int findTouchingNode(int h, int outer) {
+        int p = outer;
+        do {
+            if (equals(p, h) && locallyInside(p, next[h]) && locallyInside(p, prev[h]))
+                return p;
+            p = next[p];
+        } while (p != outer);
+        return NIL;
+    }
+
+    /**
+     * <p>Finds a node of the outer list which can be joined to node {@code
+     * hole} (the leftmost vertex of a hole) without crossing any edge.</p>
+     *
+     * <p>A ray is cast from {@code hole} to the left, and the nearest edge it
+     * hits is found. The end of that edge with the lower x co-ordinate is a
+     * candidate, unless some reflex vertex lies inside the triangle formed by
+     * {@code hole}, the ray's hit point and the candidate - in which case the
+     * reflex vertex making the smallest angle with the ray is used
+     * instead.</p>
+     *
+     * @return The bridge node, or {@code NIL} if none could be found.
+     */
+    private int findHoleBridge(int hole, int outer) {
+        long hx = x[hole];
+        long hy = y[hole];
+        double qx = Double.NEGATIVE_INFINITY;
+        int m = NIL;
+
+        // find the nearest segment hit by the ray
+        int p = outer;
+        do {
+            int pn = next[p];
+            if (equals(hole, p))
+                return p;
+            if (hy <= y[p] && hy >= y[pn] && y[pn] != y[p]) {
+                double hitX = x[p] + (hy - y[p]) * ((double) x[pn] - x[p]) / ((double) y[pn] - y[p]);
+                if (hitX <= hx && hitX > qx) {
+                    qx = hitX;
+                    m = (x[p] < x[pn] ? p : pn);
+                    if (hitX == hx)
+                        return m; // hole touches the segment
+                }
+            }
+            p = pn;
+        } while (p != outer);
+
+        if (m == NIL)
+            return NIL;
+
+        // look for vertices inside the triangle formed by the hole vertex,
+        // the hit point and the candidate
+        int stop = m;
+        long mx = x[m];
+        long my = y[m];
+        boolean below = hy < my;
+        double tanMin = Double.POSITIVE_INFINITY;
+        p = m;
+        do {
+            if (hx >= x[p] && x[p] >= mx && hx != x[p] &&
+                pointInTriangleD(below ? hx : qx, hy, mx, my, below ? qx : hx, hy, x[p], y[p])) {
+
+                double tan = Math.abs(hy - y[p]) / (double) (hx - x[p]);
+                if (locallyInside(p, hole) &&
+                    (tan < tanMin ||
+                     (tan == tanMin && (x[p] > x[m] ||
+                                        (x[p] == x[m] && sectorContainsSector(m, p)))))) {
+                    m = p;
+                    tanMin = tan;
+                }
+            }
+            p = next[p];
+        } while (p != stop);
+
+        return m;
+    }
+
+    /**
+     * @return True, if the sector at node {@code m} contains the sector at
+     * node {@code p} - used to choose between coincident bridge vertices.
+     */
+    private boolean sectorContainsSector(int m, int p) {
+        return area(prev[m], m, prev[p]) < 0 && area(next[p], m, prev[m]) < 0;
+    }
+
+    private int getLeftmost(int start) {
+        int p = start;
+        int leftmost = start;
+        do {
+            if (x[p] < x[leftmost] || (x[p] == x[leftmost] && y[p] < y[leftmost]))
+                leftmost = p;
+            p = next[p];
+        } while (p != start);
+        return leftmost;
+    }
+
+
+
+    /*--------------------------- LINKED LIST --------------------------*/
+
+    private void allocate(int capacity) {
+        vertexIndex = new int[capacity];
+        x = new int[capacity];
+        y = new int[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        z = new int[capacity];
+        prevZ = new int[capacity];
+        nextZ = new int[capacity];
+    }
+
+    private void ensureCapacity() {
+        if (size < x.length)
+            return;
+        int cap = x.length * 2;
+        vertexIndex = Arrays.copyOf(vertexIndex, cap);
+        x = Arrays.copyOf(x, cap);
+        y = Arrays.copyOf(y, cap);
+        prev = Arrays.copyOf(prev, cap);
+        next = Arrays.copyOf(next, cap);
+        z = Arrays.copyOf(z, cap);
+        prevZ = Arrays.copyOf(prevZ, cap);
+        nextZ = Arrays.copyOf(nextZ, cap);
+    }
+
+    private int newNode(int i, int px, int py) {
+        ensureCapacity();
+        int n = size++;
+        vertexIndex[n] = i;
+        x[n] = px;
+        y[n] = py;
+        prev[n] = NIL;
+        next[n] = NIL;
+        z[n] = 0;
+        prevZ[n] = NIL;
+        nextZ[n] = NIL;
+        return n;
+    }
+
+    /**
+     * <p>Builds a circular list from input vertices {@code start} (inclusive)
+     * to {@code end} (exclusive), in counter-clockwise order if {@code ccw}
+     * is true, otherwise clockwise.</p>
+     *
+     * @return The last node added, or {@code NIL} if there were no vertices.
+     */
+    private int linkedList(int start, int end, boolean ccw) {
+        int last = NIL;
+        if (ccw == (signedArea(start, end) > 0)) {
+            for (int i = start; i < end; i++)
+                last = insertNode(i, last);
+        } else {
+            for (int i = end - 1; i >= start; i--)
+                last = insertNode(i, last);
+        }
+        if (last != NIL && equals(last, next[last])) {
+            int n = next[last];
+            removeNode(last);
+            last = n;
+        }
+        return last;
+    }
+
+    private int insertNode(int i, int last) {
+        int p = newNode(i, px[i], py[i]);
+        if (last == NIL) {
+            prev[p] = p;
+            next[p] = p;
+        } else {
+            next[p] = next[last];
+            prev[p] = last;
+            prev[next[last]] = p;
+            next[last] = p;
+        }
+        return p;
+    }
+
+    private int countNodes(int start) {
+        int count = 0;
+        int p = start;
+        do {
+            count++;
+            p = next[p];
+        } while (p != start);
+        return count;
+    }
+
+    private void removeNode(int p) {
+        prev[next[p]] = prev[p];
+        next[prev[p]] = next[p];
+        if (prevZ[p] != NIL)
+            nextZ[prevZ[p]] = nextZ[p];
+        if (nextZ[p] != NIL)
+            prevZ[nextZ[p]] = prevZ[p];
+    }
+
+    /**
+     * <p>Links node {@code a} to node {@code b} with a diagonal, splitting the
+     * polygon in two. Both nodes are duplicated so that each half has its
+     * own copy.</p>
+     *
+     * @return The copy of {@code b}, which belongs to the second polygon.
+     */
+    private int splitPolygon(int a, int b) {
+        int a2 = newNode(vertexIndex[a], x[a], y[a]);
+        int b2 = newNode(vertexIndex[b], x[b], y[b]);
+        int an = next[a];
+        int bp = prev[b];
+
+        next[a] = b;
+        prev[b] = a;
+
+        next[a2] = an;
+        prev[an] = a2;
+
+        next[b2] = a2;
+        prev[a2] = b2;
+
+        next[bp] = b2;
+        prev[b2] = bp;
+
+        return b2;
+    }
+
+    /**
+     * <p>Removes duplicate and collinear vertices between {@code start} and
+     * {@code end} (whole list if {@code end} is {@code NIL}).</p>
+     */
+    private int filterPoints(int start, int end) {
+        if (start == NIL)
+            return NIL;
+        if (end == NIL)
+            end = start;
+
+        int p = start;
+        boolean again;
+        do {
+            again = false;
+            if (equals(p, next[p]) ||
+                (area(prev[p], p, next[p]) == 0 && !(mergingHoles && isShared(p)))) {
+                removeNode(p);
+                p = end = prev[p];
+                if (p == next[p])
+                    break;
+                again = true;
+            } else {
+                p = next[p];
+            }
+        } while (again || p != end);
+
+        return end;
+    }
+
+
+
+    /*----------------------------- Z-ORDER ----------------------------*/
+
+    private void initHashing() {
+        minX = Integer.MAX_VALUE;
+        minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < px.length; i++) {
+            if (px[i] < minX) minX = px[i];
+            if (py[i] < minY) minY = py[i];
+            if (px[i] > maxX) maxX = px[i];
+            if (py[i] > maxY) maxY = py[i];
+        }
+        double extent = Math.max((double) maxX - minX, (double) maxY - minY);
+        invSize = (extent != 0 ? 32767 / extent : 0);
+        hashed = true;
+    }
+
+    /**
+     * <p>Interlinks the polygon nodes in z-order.</p>
+     */
+    private void indexCurve(int start) {
+        int p = start;
+        do {
+            if (z[p] == 0)
+                z[p] = zOrder(x[p], y[p]);
+            prevZ[p] = prev[p];
+            nextZ[p] = next[p];
+            p = next[p];
+        } while (p != start);
+
+        nextZ[prevZ[p]] = NIL;
+        prevZ[p] = NIL;
+
+        sortLinked(p);
+    }
+
+    /**
+     * <p>Merge-sorts the z-order list in place (Simon Tatham's linked list
+     * merge sort - O(n log n), no extra storage).</p>
+     */
+    private int sortLinked(int list) {
+        int inSize = 1;
+        int numMerges;
+        do {
+            int p = list;
+            list = NIL;
+            int tail = NIL;
+            numMerges = 0;
+
+            while (p != NIL) {
+                numMerges++;
+                int q = p;
+                int pSize = 0;
+                for (int i = 0; i < inSize; i++) {
+                    pSize++;
+                    q = nextZ[q];
+                    if (q == NIL)
+                        break;
+                }
+                int qSize = inSize;
+
+                while (pSize > 0 || (qSize > 0 && q != NIL)) {
+                    int e;
+                    if (pSize != 0 && (qSize == 0 || q == NIL || z[p] <= z[q])) {
+                        e = p;
+                        p = nextZ[p];
+                        pSize--;
+                    } else {
+                        e = q;
+                        q = nextZ[q];
+                        qSize--;
+                    }
+
+                    if (tail != NIL)
+                        nextZ[tail] = e;
+                    else
+                        list = e;
+
+                    prevZ[e] = tail;
+                    tail = e;
+                }
+
+                p = q;
+            }
+
+            nextZ[tail] = NIL;
+            inSize *= 2;
+
+        } while (numMerges > 1);
+
+        return list;
+    }
+
+    /**
+     * <p>Z-order of a point, with co-ordinates scaled to a 15-bit range
+     * within the bounding box of the polygon.</p>
+     */
+    private int zOrder(int px, int py) {
+        int zx = (int) ((px - (double) minX) * invSize);
+        int zy = (int) ((py - (double) minY) * invSize);
+
+        zx = (zx | (zx << 8)) & 0x00FF00FF;
+        zx = (zx | (zx << 4)) & 0x0F0F0F0F;
+        zx = (zx | (zx << 2)) & 0x33333333;
+        zx = (zx | (zx << 1)) & 0x55555555;
+
+        zy = (zy | (zy << 8)) & 0x00FF00FF;
+        zy = (zy | (zy << 4)) & 0x0F0F0F0F;
+        zy = (zy | (zy << 2)) & 0x33333333;
+        zy = (zy | (zy << 1)) & 0x55555555;
+
+        return zx | (zy << 1);
+    }
+
+
+
+    /*---------------------------- GEOMETRY ----------------------------*/
+
+    /**
+     * <p>Twice the signed area of the input vertices {@code start} (inclusive)
+     * to {@code end} (exclusive). Positive for counter-clockwise winding.</p>
+     */
+    private long signedArea(int start, int end) {
+        long sum = 0;
+        for (int i = start, j = end - 1; i < end; j = i++)
+            sum += ((long) px[j] - px[i]) * ((long) py[i] + py[j]);
+        return sum;
+    }
+
+    /**
+     * <p>Twice the signed area of triangle {@code pqr}, NEGATED - i.e. a
+     * negative value means that {@code pqr} turns counter-clockwise (a convex
+     * corner, in a counter-clockwise polygon).</p>
+     */
+    private long area(int p, int q, int r) {
+        return ((long) y[q] - y[p]) * ((long) x[r] - x[q])
+             - ((long) x[q] - x[p]) * ((long) y[r] - y[q]);
+    }
+
+    private boolean equals(int p, int q) {
+        return x[p] == x[q] && y[p] == y[q];
+    }
+
+    /**
+     * <p>Includes points on the edges of the triangle.</p>
+     */
+    private static boolean pointInTriangle(long ax, long ay, long bx, long by,
+                                           long cx, long cy, long px, long py) {
+        return (cx - px) * (ay - py) >= (ax - px) * (cy - py)
+            && (ax - px) * (by - py) >= (bx - px) * (ay - py)
+            && (bx - px) * (cy - py) >= (cx - px) * (by - py);
+    }
+
+    /**
+     * <p>As {@link #pointInTriangle}, for the bridge search, where one corner
+     * (the ray's hit point) need not be on the integer grid.</p>
+     */
+    private static boolean pointInTriangleD(double ax, double ay, double bx, double by,
+                                            double cx, double cy, double px, double py) {
+        return (cx - px) * (ay - py) >= (ax - px) * (cy - py)
+            && (ax - px) * (by - py) >= (bx - px) * (ay - py)
+            && (bx - px) * (cy - py) >= (cx - px) * (by - py);
+    }
+
+    /**
+     * @return True, if a diagonal between nodes {@code a} and {@code b} would
+     * lie inside the polygon without crossing any edges.
+     */
+    private boolean isValidDiagonal(int a, int b) {
+        if (vertexIndex[next[a]] == vertexIndex[b] ||
+            vertexIndex[prev[a]] == vertexIndex[b] ||
+            intersectsPolygon(a, b))
+            return false;
+        // locally visible, and doesn't create opposite-facing sectors
+        if (locallyInside(a, b) && locallyInside(b, a) && middleInside(a, b) &&
+            (area(prev[a], a, prev[b]) != 0 || area(a, prev[b], b) != 0))
+            return true;
+        // special zero-length case
+        return equals(a, b) &&
+            area(prev[a], a, next[a]) > 0 &&
+            area(prev[b], b, next[b]) > 0;
+    }
+
+    /**
+     * @return True, if segments {@code p1-q1} and {@code p2-q2} intersect
+     * (including touching).
+     */
+    private boolean intersects(int p1, int q1, int p2, int q2) {
+        int o1 = Long.signum(area(p1, q1, p2));
+        int o2 = Long.signum(area(p1, q1, q2));
+        int o3 = Long.signum(area(p2, q2, p1));
+        int o4 = Long.signum(area(p2, q2, q1));
+
+        if (o1 != o2 && o3 != o4)
+            return true; // general case
+
+        // collinear special cases
+        if (o1 == 0 && onSegment(p1, p2, q1)) return true;
+        if (o2 == 0 && onSegment(p1, q2, q1)) return true;
+        if (o3 == 0 && onSegment(p2, p1, q2)) return true;
+        if (o4 == 0 && onSegment(p2, q1, q2)) return true;
+
+        return false;
+    }
+
+    /**
+     * <p>For collinear points {@code p, q, r}: true if {@code q} lies on
+     * segment {@code pr}.</p>
+     */
+    private boolean onSegment(int p, int q, int r) {
+        return x[q] <= Math.max(x[p], x[r]) && x[q] >= Math.min(x[p], x[r])
+            && y[q] <= Math.max(y[p], y[r]) && y[q] >= Math.min(y[p], y[r]);
+    }
+
+    /**
+     * @return True, if diagonal {@code a-b} intersects any polygon edge not
+     * incident to {@code a} or {@code b}.
+     */
+    private boolean intersectsPolygon(int a, int b) {
+        int p = a;
+        do {
+            if (vertexIndex[p] != vertexIndex[a] &&
+                vertexIndex[next[p]] != vertexIndex[a] &&
+                vertexIndex[p] != vertexIndex[b] &&
+                vertexIndex[next[p]] != vertexIndex[b] &&
+                intersects(p, next[p], a, b))
+                return true;
+            p = next[p];
+        } while (p != a);
+        return false;
+    }
+
+    /**
+     * @return True, if diagonal {@code a-b} starts off inside the polygon at
+     * {@code a}.
+     */
+    private boolean locallyInside(int a, int b) {
+        if (area(prev[a], a, next[a]) < 0)
+            return area(a, b, next[a]) >= 0 && area(a, prev[a], b) >= 0;
+        else
+            return area(a, b, prev[a]) < 0 || area(a, next[a], b) < 0;
+    }
+
+    /**
+     * @return True, if the mid-point of diagonal {@code a-b} is inside the
+     * polygon (even-odd ray-casting).
+     */
+    private boolean middleInside(int a, int b) {
+        int p = a;
+        boolean inside = false;
+        double px = (x[a] + (double) x[b]) / 2;
+        double py = (y[a] + (double) y[b]) / 2;
+        do {
+            int pn = next[p];
+            if (((y[p] > py) != (y[pn] > py)) && y[pn] != y[p] &&
+                (px < ((double) x[pn] - x[p]) * (py - y[p]) / ((double) y[pn] - y[p]) + x[p]))
+                inside = !inside;
+            p = pn;
+        } while (p != a);
+        return inside;
+    }
+
+}
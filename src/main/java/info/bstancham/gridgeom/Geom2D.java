@@ -1,7 +1,5 @@
 package info.bstancham.gridgeom;
 
-import java.util.Arrays;
-
 /**
  * <p>Static methods for 2D geometry.</p>
  */
@@ -47,6 +45,27 @@ public class Geom2D {
 
 
 
+    /*------------------------ EXACT ORIENTATION -----------------------*/
+
+    /**
+     * <p>Orientation of three integer points - the cross product of {@code
+     * ab} and {@code ac}, which is twice the signed area of triangle {@code
+     * abc}.</p>
+     *
+     * <p>Exact, and allocates nothing, as long as the absolute value of
+     * every co-ordinate is less than {@code 2^30} (so that the result can't
+     * overflow a {@code long}).</p>
+     *
+     * @return Positive if {@code a, b, c} turn counter-clockwise, negative if
+     * clockwise, or zero if collinear.
+     */
+    public static long orient(int ax, int ay, int bx, int by, int cx, int cy) {
+        return ((long) bx - ax) * ((long) cy - ay)
+             - ((long) by - ay) * ((long) cx - ax);
+    }
+
+
+
     /*--------------------------- LINE ANGLE ---------------------------*/
 
     /**
@@ -81,8 +100,23 @@ public class Geom2D {
         return angleAB - angleBC;
     }
 
+    /**
+     * <p>Exact - see {@link #orient}.</p>
+     *
+     * @return {@code -1} if turn direction is counter-clockwise (or left).<br/>
+     * {@code 1} if turn is clockwise (or right).<br/>
+     * {@code 0} if the points are collinear (including turning back on
+     * itself).
+     */
     public static int turnDirection(Pt2D a, Pt2D b, Pt2D c) {
-        return turnDirection(a.toFloat(), b.toFloat(), c.toFloat());
+        return turnDirection(a.x(), a.y(), b.x(), b.y(), c.x(), c.y());
+    }
+
+    /**
+     * <p>As {@link #turnDirection(Pt2D, Pt2D, Pt2D)}.</p>
+     */
+    public static int turnDirection(int ax, int ay, int bx, int by, int cx, int cy) {
+        return -Long.signum(orient(ax, ay, bx, by, cx, cy));
     }
     
     /**
@@ -106,8 +140,8 @@ public class Geom2D {
     }
     
     public static double lineAngle(Line ln) {
-        return lineAngle(ln.start().x(), ln.start().y(),
-                         ln.end().x(), ln.end().y());
+        return lineAngle(ln.startX(), ln.startY(),
+                         ln.endX(), ln.endY());
     }
 
     public static double lineAngle(Linef ln) {
@@ -226,14 +260,15 @@ public class Geom2D {
         return false;
     }
 
+    /**
+     * <p>Exact - see {@link #orient}.</p>
+     */
     public static boolean collinear(Pt2D a, Pt2D b, Pt2D c) {
-        // find bottom-left point
-        Pt2D[] points = new Pt2D[] { a, b, c };
-        Arrays.sort(points);
-        return lineAngle(points[0], points[1]) == lineAngle(points[0], points[2]);
-        
-        // return lineAngle(a, b) == lineAngle(a, c);
+        return collinear(a.x(), a.y(), b.x(), b.y(), c.x(), c.y());
+    }
 
+    public static boolean collinear(int ax, int ay, int bx, int by, int cx, int cy) {
+        return orient(ax, ay, bx, by, cx, cy) == 0;
     }
     
     // /**
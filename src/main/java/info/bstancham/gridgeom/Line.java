@@ -3,50 +3,73 @@ package info.bstancham.gridgeom;
 /**
  * <p>Immutable data type representing a line segment with {@code int}
  * co-ordinates.</p>
+ *
+ * <p>Stored as four {@code int} fields only - a {@code Line} is a single
+ * small object, with no references to follow. Derived values (slope, angle
+ * etc) are cheap, so are computed on demand rather than cached. {@link
+ * #start} and {@link #end} create a new {@code Pt2D} on each call, so
+ * performance-sensitive code should use the primitive accessors ({@link
+ * #startX} etc) instead.</p>
  */
 public class Line {
 
-    private Pt2D start;
-    private Pt2D end;
-    private Double length = null;
-    private Double slope = null;
-    private Double intercept = null;
-    private Double angle = null;
+    private final int x1;
+    private final int y1;
+    private final int x2;
+    private final int y2;
 
     public Line(int x1, int y1, int x2, int y2) {
-        this(new Pt2D(x1, y1), new Pt2D(x2, y2));
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
     }
-    
+
     public Line(Pt2D start, Pt2D end) {
-        this.start = start;
-        this.end = end;
+        this(start.x(), start.y(), end.x(), end.y());
     }
 
     public Linef toFloat() {
-        return new Linef(start.toFloat(), end.toFloat());
+        return new Linef(x1, y1, x2, y2);
     }
 
-    
+
 
     /*--------------------------- ACCESSORS ----------------------------*/
 
-    public Pt2D start() { return start; }
-    public Pt2D end()   { return end; }
+    public Pt2D start() { return new Pt2D(x1, y1); }
+    public Pt2D end()   { return new Pt2D(x2, y2); }
 
-    public int startX() { return start.x(); }
-    public int startY() { return start.y(); }
+    public int startX() { return x1; }
+    public int startY() { return y1; }
 
-    public int endX()   { return end.x(); }
-    public int endY()   { return end.y(); }
+    public int endX()   { return x2; }
+    public int endY()   { return y2; }
 
     /** May return a negative number. */
     public int distX() {
-        return end.x() - start.x();
+        return x2 - x1;
     }
 
     /** May return a negative number. */
     public int distY() {
-        return end.y() - start.y();
+        return y2 - y1;
+    }
+
+    /**
+     * @return True, if the start point of this line has the same value as
+     * {@code p}.
+     */
+    public boolean startEqualsValue(Pt2Df p) {
+        return p.x() == x1 && p.y() == y1;
+    }
+
+    /**
+     * @return True, if the end point of this line has the same value as
+     * {@code p}.
+     */
+    public boolean endEqualsValue(Pt2Df p) {
+        return p.x() == x2 && p.y() == y2;
     }
 
 
@@ -54,18 +77,14 @@ public class Line {
     /*---------------------------- GEOMETRY ----------------------------*/
 
     public double length() {
-        if (length == null)
-            length = Geom2D.dist(start, end);
-        return length;
+        return Geom2D.dist(x1, y1, x2, y2);
     }
-    
+
     /**
      * @return Angle of the line in radians.
      */
     public double angle() {
-        if (angle == null)
-            angle = Geom2D.lineAngle(this);
-        return angle;
+        return Geom2D.lineAngle(x1, y1, x2, y2);
     }
 
     /**
@@ -76,9 +95,10 @@ public class Line {
      * <p>... see documentation for {@link Pt2D#slopeTo}</p>
      */
     public double slope() {
-        if (slope == null)
-            slope = start.slopeTo(end);
-        return slope;
+        if (x1 == x2 && y1 == y2) return Double.NEGATIVE_INFINITY; // degenerate
+        if (y1 == y2) return +0.0;                                 // horizontal
+        if (x1 == x2) return Double.POSITIVE_INFINITY;             // vertical
+        return (y2 - (double) y1) / (x2 - (double) x1);
     }
 
     /**
@@ -89,34 +109,32 @@ public class Line {
      * crosses the X axis (where X = 0).</p>
      */
     public double intercept() {
-        if (intercept == null)
-            intercept = startY() - startX() * slope();
-        return intercept;
+        return y1 - x1 * slope();
     }
 
     public boolean isDegenerate() {
-        return start.x() == end.x() && start.y() == end.y();
+        return x1 == x2 && y1 == y2;
     }
-    
+
     public boolean isHoriz() {
-        return start.y() == end.y() && start.x() != end.x();
+        return y1 == y2 && x1 != x2;
     }
 
     public boolean isVert() {
-        return start.x() == end.x() && start.y() != end.y();
+        return x1 == x2 && y1 != y2;
     }
 
     public boolean isDiag45() {
         return Math.abs(distX()) == Math.abs(distY())
-            && start.x() != end.x();
+            && x1 != x2;
     }
 
     public boolean isDiag45Positive() {
-        return distX() == distY() && start.x() != end.x();
+        return distX() == distY() && x1 != x2;
     }
 
     public boolean isDiag45Negative() {
-        return distX() == -distY() && start.x() != end.x();
+        return distX() == -distY() && x1 != x2;
     }
 
     public boolean is45Compliant() {
@@ -150,11 +168,11 @@ public class Line {
 
         // check for vertical line
         if (isVert())
-            return new Pt2Df(startX(),
-                             (float) ((l.slope() * startX()) + l.intercept()));
+            return new Pt2Df(x1,
+                             (float) ((l.slope() * x1) + l.intercept()));
         if (l.isVert())
-            return new Pt2Df(l.startX(),
-                             (float) ((slope() * l.startX()) + intercept()));
+            return new Pt2Df(l.x1,
+                             (float) ((slope() * l.x1) + intercept()));
 
         double x = -(intercept() - l.intercept()) / (slope() - l.slope());
         double y = (slope() * x) + intercept();
@@ -162,10 +180,133 @@ public class Line {
     }
 
     /**
-     * <p>WARNING: returns {@code null} if either line is not 45-compliant!</p>
+     * <p>Exact (up to {@code float} precision) if both lines are
+     * 45-compliant. Computed directly from the {@code int} co-ordinates.</p>
+     *
+     * <p>WARNING: returns {@code null} if either line is not 45-compliant,
+     * or if the lines are parallel!</p>
      */
     public Pt2Df getIntersectionPoint45(Line l) {
-        return toFloat().getIntersectionPoint45(l.toFloat());
+
+        if (isHoriz()) {
+            if (l.isVert())
+                return new Pt2Df(l.x1, y1);
+            else if (l.isDiag45Positive())
+                return new Pt2Df(l.x1 - ((long) l.y1 - y1), y1);
+            else if (l.isDiag45Negative())
+                return new Pt2Df(l.x1 + ((long) l.y1 - y1), y1);
+            return null;
+        }
+
+        if (isVert()) {
+            if (l.isHoriz())
+                return new Pt2Df(x1, l.y1);
+            else if (l.isDiag45Positive())
+                return new Pt2Df(x1, l.y1 - ((long) l.x1 - x1));
+            else if (l.isDiag45Negative())
+                return new Pt2Df(x1, l.y1 + ((long) l.x1 - x1));
+            return null;
+        }
+
+        if (isDiag45()) {
+            if (l.isVert() || l.isHoriz())
+                return l.getIntersectionPoint45(this);
+            if (isDiag45Positive() && l.isDiag45Negative())
+                return getIntersectionPointPosNeg45(this, l);
+            if (isDiag45Negative() && l.isDiag45Positive())
+                return getIntersectionPointPosNeg45(l, this);
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>Returned by {@link #getIntersectionPointDoubled45} if there is no
+     * single intersection point.</p>
+     */
+    public static final long NO_INTERSECTION_POINT = Long.MIN_VALUE;
+
+    /**
+     * <p>Exact intersection point of two 45-compliant line segments, in
+     * integer arithmetic and without creating any objects.</p>
+     *
+     * <p>Any two 45-compliant lines with integer co-ordinates meet on the
+     * half-unit grid, so the point is returned in doubled co-ordinates, which
+     * are always integers. The two co-ordinates are packed into a single
+     * {@code long} - unpack them with {@link #doubledX} and {@link
+     * #doubledY}.</p>
+     *
+     * <p>All co-ordinates must be within {@code +/-2^30}, so that doubled
+     * co-ordinates fit in an {@code int}.</p>
+     *
+     * @return {@link #NO_INTERSECTION_POINT} if the segments don't meet, if
+     * they are parallel (including collinear overlap), or if either is not
+     * 45-compliant.
+     * @throws ArithmeticException If the result is out of range.
+     */
+    public long getIntersectionPointDoubled45(Line l) {
+        return intersectionPointDoubled45(x1, y1, x2, y2, l.x1, l.y1, l.x2, l.y2);
+    }
+
+    /**
+     * <p>As {@link #getIntersectionPointDoubled45(Line)}, for segments given
+     * by their end points.</p>
+     */
+    public static long intersectionPointDoubled45(int ax1, int ay1, int ax2, int ay2,
+                                                  int bx1, int by1, int bx2, int by2) {
+        int k1 = kind45(ax1, ay1, ax2, ay2);
+        int k2 = kind45(bx1, by1, bx2, by2);
+        if (k1 == KIND_OTHER || k2 == KIND_OTHER || k1 == k2)
+            return NO_INTERSECTION_POINT;
+        long c1 = constant45(k1, ax1, ay1);
+        long c2 = constant45(k2, bx1, by1);
+        long x, y;
+        if (k1 < k2) {
+            x = crossDoubledX(k1, c1, k2, c2);
+            y = crossDoubledY(k1, c1, k2, c2);
+        } else {
+            x = crossDoubledX(k2, c2, k1, c1);
+            y = crossDoubledY(k2, c2, k1, c1);
+        }
+        if (!doubledBoundingBoxContains(ax1, ay1, ax2, ay2, x, y) ||
+            !doubledBoundingBoxContains(bx1, by1, bx2, by2, x, y))
+            return NO_INTERSECTION_POINT;
+        if (x != (int) x || y != (int) y)
+            throw new ArithmeticException("doubled intersection point out of range: "
+                                          + x + ", " + y);
+        return packDoubled((int) x, (int) y);
+    }
+
+    /**
+     * <p>Packs a point in doubled co-ordinates into a {@code long}, as
+     * returned by {@link #getIntersectionPointDoubled45}.</p>
+     */
+    public static long packDoubled(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return Doubled x co-ordinate of a packed point.
+     */
+    public static int doubledX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    /**
+     * @return Doubled y co-ordinate of a packed point.
+     */
+    public static int doubledY(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * <p>Intersection of a positive diagonal ({@code y = x + c1}) with a
+     * negative diagonal ({@code y = -x + c2}).</p>
+     */
+    private static Pt2Df getIntersectionPointPosNeg45(Line pos, Line neg) {
+        long c1 = (long) pos.y1 - pos.x1;
+        long c2 = (long) neg.y1 + neg.x1;
+        return new Pt2Df((c2 - c1) / 2.0f, (c1 + c2) / 2.0f);
     }
 
     /**
@@ -173,12 +314,11 @@ public class Line {
      * line.
      */
     public boolean boundingBoxContains(Pt2Df p) {
-        // System.out.println("boundingBoxContains(Pt2Df p = " + p + ")");
         return
-            p.x() >= Math.min(start.x(), end.x()) &&
-            p.x() <= Math.max(start.x(), end.x()) &&
-            p.y() >= Math.min(start.y(), end.y()) &&
-            p.y() <= Math.max(start.y(), end.y());
+            p.x() >= Math.min(x1, x2) &&
+            p.x() <= Math.max(x1, x2) &&
+            p.y() >= Math.min(y1, y2) &&
+            p.y() <= Math.max(y1, y2);
     }
 
     /**
@@ -186,20 +326,52 @@ public class Line {
      * line.
      */
     public boolean boundingBoxContains(Pt2D p) {
+        return boundingBoxContains(p.x(), p.y());
+    }
+
+    /**
+     * @return True, if point {@code x/y} is contained within the bounding-box
+     * of this line.
+     */
+    public boolean boundingBoxContains(int x, int y) {
         return
-            p.x() >= Math.min(start.x(), end.x()) &&
-            p.x() <= Math.max(start.x(), end.x()) &&
-            p.y() >= Math.min(start.y(), end.y()) &&
-            p.y() <= Math.max(start.y(), end.y());
+            x >= Math.min(x1, x2) &&
+            x <= Math.max(x1, x2) &&
+            y >= Math.min(y1, y2) &&
+            y <= Math.max(y1, y2);
+    }
+
+    /**
+     * @return True, if the bounding boxes of this line and {@code l} overlap
+     * or touch. If not, the lines can't intersect.
+     */
+    public boolean boundingBoxIntersects(Line l) {
+        return Math.min(x1, x2) <= Math.max(l.x1, l.x2)
+            && Math.min(l.x1, l.x2) <= Math.max(x1, x2)
+            && Math.min(y1, y2) <= Math.max(l.y1, l.y2)
+            && Math.min(l.y1, l.y2) <= Math.max(y1, y2);
     }
 
     /**
      * <p>WARNING: only works if line is 45-compliant.</p>
      */
     public boolean contains45(Pt2D p) {
-        return contains45(p.toFloat());
+        return contains45(p.x(), p.y());
     }
-    
+
+    /**
+     * <p>WARNING: only works if line is 45-compliant.</p>
+     */
+    public boolean contains45(int x, int y) {
+        if (boundingBoxContains(x, y)) {
+            if (isHoriz() || isVert())
+                return true;
+            if (isDiag45())
+                return Math.abs((long) x - x1) == Math.abs((long) y - y1);
+        }
+        return false;
+    }
+
     /**
      * <p>WARNING: only works if line is 45-compliant.</p>
      */
@@ -208,25 +380,37 @@ public class Line {
             if (isHoriz() || isVert())
                 return true;
             if (isDiag45()) {
-                return Geom2D.distAbs(p.x(), start.x())
-                    == Geom2D.distAbs(p.y(), start.y());
+                return Geom2D.distAbs(p.x(), x1)
+                    == Geom2D.distAbs(p.y(), y1);
             }
         }
         return false;
     }
 
     public boolean contains(Pt2D p) {
-        if (boundingBoxContains(p)) {
-            if (p.equals(start) ||
-                p.equals(end))
+        return contains(p.x(), p.y());
+    }
+
+    public boolean contains(int x, int y) {
+        if (boundingBoxContains(x, y)) {
+            if ((x == x1 && y == y1) ||
+                (x == x2 && y == y2))
                 return true;
-            return Geom2D.collinear(start, end, p);
+            return Geom2D.collinear(x1, y1, x2, y2, x, y);
         }
         return false;
     }
 
-    
-    
+    /**
+     * @return True, if either end point of this line has the same value as
+     * {@code p}.
+     */
+    private boolean hasEndPoint(Pt2Df p) {
+        return startEqualsValue(p) || endEqualsValue(p);
+    }
+
+
+
     /*----------------------- LINE INTERSECTION ------------------------*/
 
     public static boolean linesIntersect(Line l1, Line l2) {
@@ -237,58 +421,162 @@ public class Line {
 
         return l1.boundingBoxContains(p) && l2.boundingBoxContains(p);
     }
-    
+
     public static boolean linesIntersectIgnoreSharedEnds(Line l1, Line l2) {
         Pt2Df p = l1.getIntersectionPoint(l2);
         if (p == null)
             return false;
 
-        boolean endPt1 = l1.start.equalsValue(p) || l1.end.equalsValue(p);
-        boolean endPt2 = l2.start.equalsValue(p) || l2.end.equalsValue(p);
-        boolean sharedEnd = endPt1 && endPt2;
+        boolean sharedEnd = l1.hasEndPoint(p) && l2.hasEndPoint(p);
 
         return !sharedEnd &&
             l1.boundingBoxContains(p) && l2.boundingBoxContains(p);
     }
-    
+
     /**
      * <p>NOTE: won't work unless both lines are 45-compliant!</p>
      */
     public static boolean linesIntersect45(Line l1, Line l2) {
-        Pt2Df p = l1.getIntersectionPoint45(l2);
-        if (p == null)
-            return false;
-
-        return l1.contains45(p) && l2.contains45(p);
+        return intersection45(l1, l2) != NO_INTERSECTION;
     }
-    
+
     /**
      * <p>NOTE: won't work unless both lines are 45-compliant!</p>
      */
     public static boolean linesIntersect45IgnoreSharedEnds(Line l1, Line l2) {
-        Pt2Df p = l1.getIntersectionPoint45(l2);
-        if (p == null)
-            return false;
-
-        boolean endPt1 = l1.start.equalsValue(p) || l1.end.equalsValue(p);
-        boolean endPt2 = l2.start.equalsValue(p) || l2.end.equalsValue(p);
-        boolean sharedEnd = endPt1 && endPt2;
-
-        return !sharedEnd && l1.contains45(p) && l2.contains45(p);
+        int i = intersection45(l1, l2);
+        return i == INTERSECTION_AT_ONE_END || i == INTERSECTION_INTERIOR;
     }
 
     /**
      * <p>NOTE: won't work unless both lines are 45-compliant!</p>
      */
     public static boolean linesIntersect45IgnoreEnds(Line l1, Line l2) {
-        Pt2Df p = l1.getIntersectionPoint45(l2);
-        if (p == null)
-            return false;
+        return intersection45(l1, l2) == INTERSECTION_INTERIOR;
+    }
+
+    // results of intersection45
+    private static final int NO_INTERSECTION         = 0;
+    private static final int INTERSECTION_SHARED_END = 1;
+    private static final int INTERSECTION_AT_ONE_END = 2;
+    private static final int INTERSECTION_INTERIOR   = 3;
+
+    // line kinds for intersection45
+    private static final int KIND_HORIZ    = 0;
+    private static final int KIND_VERT     = 1;
+    private static final int KIND_DIAG_POS = 2;
+    private static final int KIND_DIAG_NEG = 3;
+    private static final int KIND_OTHER    = -1;
+
+    private static int kind45(int x1, int y1, int x2, int y2) {
+        long dx = (long) x2 - x1;
+        long dy = (long) y2 - y1;
+        if (dx == 0 && dy == 0)  return KIND_OTHER;
+        if (dy == 0)             return KIND_HORIZ;
+        if (dx == 0)             return KIND_VERT;
+        if (dx == dy)            return KIND_DIAG_POS;
+        if (dx == -dy)           return KIND_DIAG_NEG;
+        return KIND_OTHER;
+    }
+
+    /**
+     * <p>The constant {@code c} in the line equation for the kind: {@code y
+     * = c}, {@code x = c}, {@code y - x = c} or {@code y + x = c}, where
+     * {@code x/y} is any point on the line.</p>
+     */
+    private static long constant45(int kind, int x, int y) {
+        switch (kind) {
+        case KIND_HORIZ:    return y;
+        case KIND_VERT:     return x;
+        case KIND_DIAG_POS: return (long) y - x;
+        default:            return (long) y + x;
+        }
+    }
+
+    /**
+     * <p>Doubled x co-ordinate of the point where two infinite lines of
+     * different kinds cross, where {@code k1 < k2}.</p>
+     */
+    private static long crossDoubledX(int k1, long c1, int k2, long c2) {
+        if (k1 == KIND_HORIZ) {
+            if      (k2 == KIND_VERT)     return 2 * c2;
+            else if (k2 == KIND_DIAG_POS) return 2 * (c1 - c2);
+            else                          return 2 * (c2 - c1);
+        }
+        if (k1 == KIND_VERT)
+            return 2 * c1;
+        // positive and negative diagonals
+        return c2 - c1;
+    }
 
-        boolean endPt = l1.start.equalsValue(p) || l1.end.equalsValue(p)
-                     || l2.start.equalsValue(p) || l2.end.equalsValue(p);
+    /**
+     * <p>Doubled y co-ordinate of the point where two infinite lines of
+     * different kinds cross, where {@code k1 < k2}.</p>
+     */
+    private static long crossDoubledY(int k1, long c1, int k2, long c2) {
+        if (k1 == KIND_HORIZ)
+            return 2 * c1;
+        if (k1 == KIND_VERT) {
+            if (k2 == KIND_DIAG_POS) return 2 * (c1 + c2);
+            else                     return 2 * (c2 - c1);
+        }
+        // positive and negative diagonals
+        return c1 + c2;
+    }
+
+    /**
+     * <p>Classifies the intersection of two 45-compliant lines exactly, in
+     * integer arithmetic and without creating any objects.</p>
+     *
+     * <p>The intersection of two 45-compliant lines always lies on the
+     * half-unit grid, so it is found in doubled co-ordinates, where it is an
+     * integer. Since the point lies on both infinite lines, it lies on a
+     * segment exactly when it lies within the segment's bounding box.</p>
+     *
+     * @return {@code NO_INTERSECTION} if the lines are parallel (including
+     * collinear), either is not 45-compliant, or they do not meet; otherwise
+     * whether the point is an end of both lines, of exactly one line, or of
+     * neither.
+     */
+    private static int intersection45(Line l1, Line l2) {
+        int k1 = kind45(l1.x1, l1.y1, l1.x2, l1.y2);
+        int k2 = kind45(l2.x1, l2.y1, l2.x2, l2.y2);
+        if (k1 == KIND_OTHER || k2 == KIND_OTHER || k1 == k2)
+            return NO_INTERSECTION;
+        if (k1 > k2) {
+            Line tl = l1; l1 = l2; l2 = tl;
+            int tk = k1; k1 = k2; k2 = tk;
+        }
+        long c1 = constant45(k1, l1.x1, l1.y1);
+        long c2 = constant45(k2, l2.x1, l2.y1);
+
+        // doubled co-ordinates of the intersection point
+        long x = crossDoubledX(k1, c1, k2, c2);
+        long y = crossDoubledY(k1, c1, k2, c2);
+
+        if (!doubledBoundingBoxContains(l1.x1, l1.y1, l1.x2, l1.y2, x, y) ||
+            !doubledBoundingBoxContains(l2.x1, l2.y1, l2.x2, l2.y2, x, y))
+            return NO_INTERSECTION;
+
+        boolean end1 = l1.doubledHasEndPoint(x, y);
+        boolean end2 = l2.doubledHasEndPoint(x, y);
+        if (end1 && end2)  return INTERSECTION_SHARED_END;
+        if (end1 || end2)  return INTERSECTION_AT_ONE_END;
+        return INTERSECTION_INTERIOR;
+    }
+
+    private static boolean doubledBoundingBoxContains(int x1, int y1, int x2, int y2,
+                                                      long x, long y) {
+        return
+            x >= 2L * Math.min(x1, x2) &&
+            x <= 2L * Math.max(x1, x2) &&
+            y >= 2L * Math.min(y1, y2) &&
+            y <= 2L * Math.max(y1, y2);
+    }
 
-        return !endPt && l1.contains45(p) && l2.contains45(p);
+    private boolean doubledHasEndPoint(long x, long y) {
+        return (x == 2L * x1 && y == 2L * y1)
+            || (x == 2L * x2 && y == 2L * y2);
     }
 
 }
@@ -3,14 +3,19 @@ package info.bstancham.gridgeom;
 /**
  * <p>Immutable data type representing a line segment with {@code float}
  * co-ordinates.</p>
+ *
+ * <p>THREAD-SAFETY: derived values (slope, angle etc) are memoised in {@code
+ * volatile} fields using the single-check idiom. Two threads racing on first
+ * access may both compute a value, but it is cheap and always the same, so
+ * no lock is needed.</p>
  */
 public class Linef {
 
-    private Pt2Df start;
-    private Pt2Df end;
-    private Float slope = null;
-    private Float intercept = null;
-    private Float angle = null;
+    private final Pt2Df start;
+    private final Pt2Df end;
+    private volatile Float slope = null;
+    private volatile Float intercept = null;
+    private volatile Float angle = null;
 
     public Linef(float x1, float y1, float x2, float y2) {
         this(new Pt2Df(x1, y1), new Pt2Df(x2, y2));
@@ -57,9 +62,10 @@ public class Linef {
      * <p>See documentation for {@link Pt2Df#slopeTo}...</p>
      */
     public float slope() {
-        if (slope == null)
-            slope = start.slopeTo(end);
-        return slope;
+        Float s = slope;
+        if (s == null)
+            slope = s = start.slopeTo(end);
+        return s;
     }
 
     /**
@@ -73,21 +79,24 @@ public class Linef {
      * Degenerate line returns {@code Float.NEGATIVE_INFINITY}.</p>
      */
     public float intercept() {
-        if (intercept == null) {
+        Float i = intercept;
+        if (i == null) {
             if (isDegenerate())
-                intercept = Float.NEGATIVE_INFINITY;
+                i = Float.NEGATIVE_INFINITY;
             else if (isVert())
-                intercept = Float.POSITIVE_INFINITY;
+                i = Float.POSITIVE_INFINITY;
             else
-                intercept = startY() - startX() * slope();
+                i = startY() - startX() * slope();
+            intercept = i;
         }
-        return intercept;
+        return i;
     }
 
     public float angle() {
-        if (angle == null)
-            angle = (float) Geom2D.lineAngle(this);
-        return angle;
+        Float a = angle;
+        if (a == null)
+            angle = a = (float) Geom2D.lineAngle(this);
+        return a;
     }
 
     public boolean isDegenerate() {
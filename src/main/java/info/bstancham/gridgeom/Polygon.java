@@ -1,90 +1,229 @@
 package info.bstancham.gridgeom;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.function.LongPredicate;
 import static info.bstancham.gridgeom.Geom2D.WindingDir;
 
 /**
  * <p>Immutable data type representing a polygon made up of an ordered
  * collection of {@code int} co-ordinate vertices.</p>
+ *
+ * <p>Vertices are stored as two parallel {@code int} arrays rather than as
+ * {@code Pt2D} objects, so that the hot loops (edges, winding, intersection,
+ * triangulation) and the transformations run over primitive arrays. {@link
+ * #getVertex} remains as a compatibility view, creating a new {@code Pt2D} on
+ * each call - use {@link #getVertexX}/{@link #getVertexY} in
+ * performance-sensitive code.</p>
+ *
+ * <p>THREAD-SAFETY: derived data (edges, winding etc) is computed lazily and
+ * memoised, using double-checked locking on {@code volatile} fields. Each
+ * value is computed at most once, under a lock on the polygon, and then
+ * published as a single immutable object - reads after that take no lock.
+ * The same scheme is used by {@link Shape45} and {@link ShapeGroup}.</p>
  */
 public class Polygon implements Iterable<Pt2D> {
 
-    private Pt2D[] vertices;
-    protected WindingDir winding = null;
-    private Boolean convex = null;
-    private Integer numLeftTurns = null;
-    private Integer numRightTurns = null;
-    private Line[] polyEdges = null;
+    private final int[] xs;
+    private final int[] ys;
+    private volatile Turns turns = null;
+    private volatile Line[] polyEdges = null;
+    private volatile Box2D boundingBox = null;
+
+    /**
+     * <p>Results of {@link #countTurns}, held together so that they are
+     * always published as a consistent set.</p>
+     */
+    private static final class Turns {
+        final WindingDir winding;
+        final boolean convex;
+        Turns(WindingDir winding, boolean convex) {
+            this.winding = winding;
+            this.convex = convex;
+        }
+    }
 
     public Polygon(Pt2D ... vertices) {
-        this.vertices = vertices;
+        xs = new int[vertices.length];
+        ys = new int[vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            xs[i] = vertices[i].x();
+            ys[i] = vertices[i].y();
+        }
     }
 
-    public int getNumVertices() { return vertices.length; }
+    /**
+     * <p>The arrays are copied.</p>
+     *
+     * @throws IllegalArgumentException if {@code xs} and {@code ys} are not
+     * the same length.
+     */
+    public Polygon(int[] xs, int[] ys) {
+        this(xs.clone(), ys.clone(), false);
+    }
 
+    /**
+     * <p>Takes ownership of the arrays, which must not be modified
+     * afterwards. For use by factory methods which have just built them.</p>
+     */
+    Polygon(int[] xs, int[] ys, boolean copy) {
+        if (xs.length != ys.length)
+            throw new IllegalArgumentException("xs.length (" + xs.length
+                                               + ") != ys.length ("
+                                               + ys.length + ")");
+        this.xs = (copy ? xs.clone() : xs);
+        this.ys = (copy ? ys.clone() : ys);
+    }
+
+    public int getNumVertices() { return xs.length; }
+
+    /**
+     * <p>NOTE: creates a new {@code Pt2D} on each call.</p>
+     */
     public Pt2D getVertex(int index) {
-        return vertices[index];
+        return new Pt2D(xs[index], ys[index]);
     }
 
+    public int getVertexX(int index) { return xs[index]; }
+    public int getVertexY(int index) { return ys[index]; }
+
     public Pt2D getVertexWrapped(int i) {
-        if (i < 0)
-            return vertices[vertices.length + i % vertices.length];
-        if (i >= vertices.length)
-            return vertices[i % vertices.length];
-        return vertices[i];
+        return getVertex(wrapIndex(i));
+    }
+
+    public int getVertexXWrapped(int i) { return xs[wrapIndex(i)]; }
+    public int getVertexYWrapped(int i) { return ys[wrapIndex(i)]; }
+
+    private int wrapIndex(int i) {
+        if (i < 0 || i >= xs.length)
+            return Math.floorMod(i, xs.length);
+        return i;
     }
 
     /**
      * <p>Makes a new array of all the edges.</p>
      */
     public int getNumEdges() {
-        if (polyEdges == null)
-            buildEdges();
-        return polyEdges.length;
+        return getEdges().length;
     }
 
     /**
      * @return The edge at index {@code i}.
      */
     public Line getEdge(int i) {
-        if (polyEdges == null)
-            buildEdges();
-        return polyEdges[i];
+        return getEdges()[i];
     }
 
-    private void buildEdges() {
-        polyEdges = new Line[getNumVertices()];
-        for (int i = 0; i < getNumVertices(); i++)
-            polyEdges[i] = new Line(vertices[i], getVertexWrapped(i + 1));
+    private Line[] getEdges() {
+        Line[] edges = polyEdges;
+        if (edges == null) {
+            synchronized (this) {
+                edges = polyEdges;
+                if (edges == null)
+                    polyEdges = edges = buildEdges();
+            }
+        }
+        return edges;
+    }
+
+    private Line[] buildEdges() {
+        Line[] edges = new Line[getNumVertices()];
+        int n = getNumVertices();
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1 == n ? 0 : i + 1);
+            edges[i] = new Line(xs[i], ys[i], xs[j], ys[j]);
+        }
+        return edges;
     }
 
     public boolean hasVertex(Pt2D v) {
-        for (Pt2D vv : this)
-            if (v.equals(vv))
+        return hasVertex(v.x(), v.y());
+    }
+
+    public boolean hasVertex(int x, int y) {
+        for (int i = 0; i < xs.length; i++)
+            if (xs[i] == x && ys[i] == y)
                 return true;
         return false;
     }
 
     public boolean hasVertex(Pt2Df v) {
-        for (Pt2D vv : this)
-            if (vv.equalsValue(v))
+        for (int i = 0; i < xs.length; i++)
+            if (xs[i] == v.x() && ys[i] == v.y())
                 return true;
         return false;
     }
 
 
 
+    /*-------------------------- BOUNDING BOX --------------------------*/
+
+    /**
+     * <p>Memoised.</p>
+     *
+     * @throws IndexOutOfBoundsException If the polygon has no vertices.
+     */
+    public Box2D getBoundingBox() {
+        Box2D box = boundingBox;
+        if (box == null) {
+            synchronized (this) {
+                box = boundingBox;
+                if (box == null)
+                    boundingBox = box = findBoundingBox();
+            }
+        }
+        return box;
+    }
+
+    private Box2D findBoundingBox() {
+        int lowX  = xs[0];
+        int highX = lowX;
+        int lowY  = ys[0];
+        int highY = lowY;
+        for (int i = 1; i < xs.length; i++) {
+            if (xs[i] < lowX)  lowX  = xs[i];
+            if (xs[i] > highX) highX = xs[i];
+            if (ys[i] < lowY)  lowY  = ys[i];
+            if (ys[i] > highY) highY = ys[i];
+        }
+        return new Box2D(lowX, lowY, highX, highY);
+    }
+
+    /**
+     * <p>Early reject for intersection tests.</p>
+     *
+     * @return False, if this polygon can't intersect {@code ln}.
+     */
+    private boolean boundingBoxIntersects(Line ln) {
+        return xs.length > 0 && getBoundingBox().intersectsBoundingBox(ln);
+    }
+
+    /**
+     * <p>Early reject for intersection tests.</p>
+     *
+     * @return False, if this polygon can't intersect {@code p}.
+     */
+    private boolean boundingBoxIntersects(Polygon p) {
+        return xs.length > 0 && p.xs.length > 0
+            && getBoundingBox().intersects(p.getBoundingBox());
+    }
+
+
+
     /*---------------- INTERSECTION (non-45 compliant) -----------------*/
 
     public Set<Pt2Df> getIntersectionPoints(Line ln) {
         Set<Pt2Df> points = new HashSet<>();
+        if (!boundingBoxIntersects(ln))
+            return points;
         // intersect all lines
         for (int i = 0; i < getNumEdges(); i++) {
             Line edge = getEdge(i);
+            if (!edge.boundingBoxIntersects(ln))
+                continue;
             Pt2Df p = edge.getIntersectionPoint(ln);
             if (p != null) {
                 if (edge.boundingBoxContains(p) &&
@@ -97,9 +236,13 @@ public class Polygon implements Iterable<Pt2D> {
 
     public Set<Pt2Df> getIntersectionPointsIncludeParallel(Line ln) {
         Set<Pt2Df> points = new HashSet<>();
+        if (!boundingBoxIntersects(ln))
+            return points;
         // intersect all lines
         for (int i = 0; i < getNumEdges(); i++) {
             Line edge = getEdge(i);
+            if (!edge.boundingBoxIntersects(ln))
+                continue;
             Pt2Df p = edge.getIntersectionPoint(ln);
             if (p != null) {
                 if (edge.boundingBoxContains(p) &&
@@ -107,10 +250,10 @@ public class Polygon implements Iterable<Pt2D> {
                     points.add(p);
             }
             // make sure not to miss any intersecting vertices of collinear lines etc
-            if (ln.contains(edge.start()))
-                points.add(edge.start().toFloat());
-            if (ln.contains(edge.end()))
-                points.add(edge.end().toFloat());
+            if (ln.contains(edge.startX(), edge.startY()))
+                points.add(new Pt2Df(edge.startX(), edge.startY()));
+            if (ln.contains(edge.endX(), edge.endY()))
+                points.add(new Pt2Df(edge.endX(), edge.endY()));
         }
         return points;
     }
@@ -125,8 +268,8 @@ public class Polygon implements Iterable<Pt2D> {
         for (Pt2Df p : ipts) {
             if (!hasVertex(p))
                 return true;
-            if (!ln.start().equalsValue(p) &&
-                !ln.end().equalsValue(p))
+            if (!ln.startEqualsValue(p) &&
+                !ln.endEqualsValue(p))
                 return true;
         }
 
@@ -143,8 +286,8 @@ public class Polygon implements Iterable<Pt2D> {
         for (Pt2Df p : ipts) {
 
             boolean pContains = hasVertex(p);
-            boolean ls = ln.start().equalsValue(p);
-            boolean le = ln.end().equalsValue(p);
+            boolean ls = ln.startEqualsValue(p);
+            boolean le = ln.endEqualsValue(p);
 
             if (!pContains) return true;
             if (!ls && !le) return true;
@@ -161,94 +304,220 @@ public class Polygon implements Iterable<Pt2D> {
 
     /*------------------ INTERSECTION (45-compliant) -------------------*/
 
+    /*
+     * The 45-compliant intersection methods are all exact. Intersection points
+     * lie on the half-unit grid, so they are found in doubled co-ordinates,
+     * packed into a long (see Line.getIntersectionPointDoubled45). Only the
+     * methods which return Set<Pt2Df> convert them to floats.
+     */
+
     public Set<Pt2Df> getIntersectionPoints45(Line ln) {
-        Set<Pt2Df> points = new HashSet<>();
-        // intersect all lines
-        for (int i = 0; i < getNumEdges(); i++) {
-            Line edge = getEdge(i);
-            Pt2Df p = edge.getIntersectionPoint45(ln);
-            if (p != null) {
-                if (edge.boundingBoxContains(p) &&
-                    ln.boundingBoxContains(p))
-                    points.add(p);
-            }
-        }
-        return points;
+        return toPointSet(getIntersectionPointsDoubled45(ln));
     }
 
     public Set<Pt2Df> getIntersectionPointsIncludeParallel45(Line ln) {
         Set<Pt2Df> points = new HashSet<>();
-        // intersect all lines
-        for (int i = 0; i < getNumEdges(); i++) {
-            Line edge = getEdge(i);
-            Pt2Df p = edge.getIntersectionPoint45(ln);
-            if (p != null) {
-                if (edge.boundingBoxContains(p) &&
-                    ln.boundingBoxContains(p))
-                    points.add(p);
-            }
-            // make sure not to miss any intersecting vertices of collinear lines etc
-            if (ln.contains45(edge.start()))
-                points.add(edge.start().toFloat());
-            if (ln.contains45(edge.end()))
-                points.add(edge.end().toFloat());
-        }
+        forEachIntersectionPointDoubled45(ln, true, p -> points.add(undoubled(p)));
         return points;
     }
 
     public Set<Pt2Df> getIntersectionPoints45(Polygon s) {
-        Set<Pt2Df> points = new HashSet<>();
-        // intersect all lines
-        for (int i = 0; i < getNumEdges(); i++) {
-            Line e1 = getEdge(i);
-            for (int j = 0; j < s.getNumEdges(); j++) {
-                Line e2 = s.getEdge(j);
-                Pt2Df p = e1.getIntersectionPoint45(e2);
-                if (p != null) {
-                    if (e1.boundingBoxContains(p) &&
-                        e2.boundingBoxContains(p))
-                        points.add(p);
-                }
-            }
-            // make sure not to miss any intersecting vertices of collinear lines etc
-            for (Pt2D p : s)
-                if (e1.contains45(p))
-                    points.add(p.toFloat());
-        }
-        return points;
+        return toPointSet(getIntersectionPointsDoubled45(s));
+    }
+
+    /**
+     * <p>Intersection points of the edges of this polygon with {@code ln}, in
+     * doubled co-ordinates. Parallel edges are ignored.</p>
+     *
+     * @return Packed points (see {@link Line#getIntersectionPointDoubled45}),
+     * in ascending order of packed value and without duplicates.
+     */
+    public long[] getIntersectionPointsDoubled45(Line ln) {
+        PointBuffer points = new PointBuffer();
+        forEachIntersectionPointDoubled45(ln, false, points::add);
+        return points.toSortedUnique();
+    }
+
+    /**
+     * <p>Intersection points of the edges of this polygon with the edges of
+     * {@code s}, in doubled co-ordinates - including any vertices of {@code
+     * s} which lie on the edges of this polygon, so that collinear edges are
+     * not missed.</p>
+     *
+     * <p>COMPLEXITY: O(n log n) plus the number of pairs of edges whose
+     * bounding boxes overlap (see {@link SweepAndPrune}).</p>
+     *
+     * @return Packed points (see {@link Line#getIntersectionPointDoubled45}),
+     * in ascending order of packed value and without duplicates.
+     */
+    public long[] getIntersectionPointsDoubled45(Polygon s) {
+        PointBuffer points = new PointBuffer();
+        forEachIntersectionPointDoubled45(s, points::add);
+        return points.toSortedUnique();
     }
 
     public boolean intersectsIgnoreSharedVertices45(Line ln) {
-        Set<Pt2Df> ipts = getIntersectionPoints45(ln);
+        // any point which is not both a vertex and an end of the line
+        return !forEachIntersectionPointDoubled45(ln, false, p -> {
+                int x = Line.doubledX(p);
+                int y = Line.doubledY(p);
+                return hasVertexDoubled(x, y)
+                    && ((x == 2L * ln.startX() && y == 2L * ln.startY()) ||
+                        (x == 2L * ln.endX() && y == 2L * ln.endY()));
+            });
+    }
 
-        if (ipts.size() == 0)
-            return false;
+    public boolean intersectsIgnoreSharedVertices45(Polygon poly) {
+        // any point which is not a vertex of both
+        return !forEachIntersectionPointDoubled45(poly, p -> {
+                int x = Line.doubledX(p);
+                int y = Line.doubledY(p);
+                return hasVertexDoubled(x, y) && poly.hasVertexDoubled(x, y);
+            });
+    }
 
-        // check each intersection point against vertices
-        for (Pt2Df p : ipts) {
-            if (!hasVertex(p))
-                return true;
-            if (!ln.start().equalsValue(p) &&
-                !ln.end().equalsValue(p))
+    /**
+     * <p>Visits intersection points of the edges of this polygon with {@code
+     * ln}. A point may be visited more than once.</p>
+     *
+     * @param includeParallel If true, also visits edge end points which lie
+     * on {@code ln}.
+     * @return False, if the visitor stopped early by returning false.
+     */
+    private boolean forEachIntersectionPointDoubled45(Line ln, boolean includeParallel,
+                                                      LongPredicate visitor) {
+        if (!boundingBoxIntersects(ln))
+            return true;
+        int lx1 = ln.startX();
+        int ly1 = ln.startY();
+        int lx2 = ln.endX();
+        int ly2 = ln.endY();
+        int lowX = Math.min(lx1, lx2);
+        int highX = Math.max(lx1, lx2);
+        int lowY = Math.min(ly1, ly2);
+        int highY = Math.max(ly1, ly2);
+        for (int i = 0; i < xs.length; i++) {
+            int j = (i + 1 == xs.length ? 0 : i + 1);
+            // skip edges whose bounding box misses the line's
+            if (Math.max(xs[i], xs[j]) < lowX || Math.min(xs[i], xs[j]) > highX ||
+                Math.max(ys[i], ys[j]) < lowY || Math.min(ys[i], ys[j]) > highY)
+                continue;
+            long p = Line.intersectionPointDoubled45(xs[i], ys[i], xs[j], ys[j],
+                                                     lx1, ly1, lx2, ly2);
+            if (p != Line.NO_INTERSECTION_POINT && !visitor.test(p))
+                return false;
+            // make sure not to miss any intersecting vertices of collinear lines etc
+            if (includeParallel) {
+                if (ln.contains45(xs[i], ys[i]) &&
+                    !visitor.test(Line.packDoubled(xs[i] * 2, ys[i] * 2)))
+                    return false;
+                if (ln.contains45(xs[j], ys[j]) &&
+                    !visitor.test(Line.packDoubled(xs[j] * 2, ys[j] * 2)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>Visits intersection points of the edges of this polygon with the
+     * edges of {@code s}, plus vertices of {@code s} which lie on the edges of
+     * this polygon. A point may be visited more than once.</p>
+     *
+     * @return False, if the visitor stopped early by returning false.
+     */
+    private boolean forEachIntersectionPointDoubled45(Polygon s, LongPredicate visitor) {
+        if (!boundingBoxIntersects(s))
+            return true;
+        int n = xs.length;
+        int m = s.xs.length;
+        int[] minX = new int[n + m];
+        int[] minY = new int[n + m];
+        int[] maxX = new int[n + m];
+        int[] maxY = new int[n + m];
+        edgeBounds(this, minX, minY, maxX, maxY, 0);
+        edgeBounds(s, minX, minY, maxX, maxY, n);
+        return SweepAndPrune.forEachOverlappingPair(minX, minY, maxX, maxY, (a, b) -> {
+                if ((a < n) == (b < n))
+                    return true;
+                int i = Math.min(a, b);
+                int j = Math.max(a, b) - n;
+                int i2 = (i + 1 == n ? 0 : i + 1);
+                int j2 = (j + 1 == m ? 0 : j + 1);
+                long p = Line.intersectionPointDoubled45(xs[i], ys[i], xs[i2], ys[i2],
+                                                         s.xs[j], s.ys[j], s.xs[j2], s.ys[j2]);
+                if (p != Line.NO_INTERSECTION_POINT && !visitor.test(p))
+                    return false;
+                // each vertex of s is the start of one of its edges
+                if (onEdge45(xs[i], ys[i], xs[i2], ys[i2], s.xs[j], s.ys[j]) &&
+                    !visitor.test(Line.packDoubled(s.xs[j] * 2, s.ys[j] * 2)))
+                    return false;
                 return true;
+            });
+    }
+
+    private static void edgeBounds(Polygon poly, int[] minX, int[] minY,
+                                   int[] maxX, int[] maxY, int offset) {
+        int n = poly.xs.length;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1 == n ? 0 : i + 1);
+            minX[offset + i] = Math.min(poly.xs[i], poly.xs[j]);
+            minY[offset + i] = Math.min(poly.ys[i], poly.ys[j]);
+            maxX[offset + i] = Math.max(poly.xs[i], poly.xs[j]);
+            maxY[offset + i] = Math.max(poly.ys[i], poly.ys[j]);
         }
+    }
 
-        return false;
+    /**
+     * <p>As {@link Line#contains45(int, int)}, for the edge from {@code
+     * x1/y1} to {@code x2/y2}.</p>
+     */
+    private static boolean onEdge45(int x1, int y1, int x2, int y2, int x, int y) {
+        if (x < Math.min(x1, x2) || x > Math.max(x1, x2) ||
+            y < Math.min(y1, y2) || y > Math.max(y1, y2))
+            return false;
+        if (x1 == x2 || y1 == y2)
+            return true;
+        return Math.abs((long) x - x1) == Math.abs((long) y - y1);
     }
 
-    public boolean intersectsIgnoreSharedVertices45(Polygon poly) {
-        Set<Pt2Df> ipts = getIntersectionPoints45(poly);
+    private boolean hasVertexDoubled(int x, int y) {
+        return (x & 1) == 0 && (y & 1) == 0 && hasVertex(x >> 1, y >> 1);
+    }
 
-        if (ipts.size() == 0)
-            return false;
+    private static Pt2Df undoubled(long p) {
+        return new Pt2Df(Line.doubledX(p) / 2.0f, Line.doubledY(p) / 2.0f);
+    }
 
-        // check each intersection point against vertices
-        for (Pt2Df p : ipts) {
-            if (!hasVertex(p)) return true;
-            if (!poly.hasVertex(p)) return true;
+    private static Set<Pt2Df> toPointSet(long[] points) {
+        Set<Pt2Df> set = new HashSet<>();
+        for (long p : points)
+            set.add(undoubled(p));
+        return set;
+    }
+
+    /**
+     * <p>Growable list of packed points.</p>
+     */
+    private static final class PointBuffer {
+        private long[] points = new long[8];
+        private int size = 0;
+
+        boolean add(long p) {
+            if (size == points.length)
+                points = Arrays.copyOf(points, size * 2);
+            points[size++] = p;
+            return true;
         }
 
-        return false;
+        long[] toSortedUnique() {
+            Arrays.sort(points, 0, size);
+            int count = 0;
+            for (int i = 0; i < size; i++)
+                if (count == 0 || points[i] != points[count - 1])
+                    points[count++] = points[i];
+            return Arrays.copyOf(points, count);
+        }
     }
 
 
@@ -280,23 +549,34 @@ public class Polygon implements Iterable<Pt2D> {
     }
 
     public WindingDir getWindingDir() {
-        if (winding == null)
-            countTurns();
-        return winding;
+        return getTurns().winding;
+    }
+
+    private Turns getTurns() {
+        Turns t = turns;
+        if (t == null) {
+            synchronized (this) {
+                t = turns;
+                if (t == null)
+                    turns = t = countTurns();
+            }
+        }
+        return t;
     }
 
     /**
      * <p>Counts number of left and right turns and uses the results to find the
      * winding direction of the polygon and whether or not it is convex.</p>
      */
-    private void countTurns() {
-        numLeftTurns = 0;
-        numRightTurns = 0;
+    private Turns countTurns() {
+        int numLeftTurns = 0;
+        int numRightTurns = 0;
         int numZero = 0;
-        for (int i = 0; i < getNumVertices(); i++) {
-            int dir = Geom2D.turnDirection(getVertexWrapped(i - 1),
-                                           getVertexWrapped(i),
-                                           getVertexWrapped(i + 1));
+        int n = xs.length;
+        for (int i = 0; i < n; i++) {
+            int h = (i == 0 ? n - 1 : i - 1);
+            int j = (i + 1 == n ? 0 : i + 1);
+            int dir = Geom2D.turnDirection(xs[h], ys[h], xs[i], ys[i], xs[j], ys[j]);
             if (dir < 0)
                 numLeftTurns++;
             else if (dir > 0)
@@ -305,13 +585,14 @@ public class Polygon implements Iterable<Pt2D> {
                 numZero++;
         }
         // analyse results
-        winding = WindingDir.INDETERMINATE;
+        WindingDir winding = WindingDir.INDETERMINATE;
         if (numLeftTurns > numRightTurns)
             winding = WindingDir.CCW;
         if (numRightTurns > numLeftTurns)
             winding = WindingDir.CW;
-        convex = numZero == 0 &&
+        boolean convex = numZero == 0 &&
             (numLeftTurns == 0 || numRightTurns == 0);
+        return new Turns(winding, convex);
     }
 
     public boolean isCWWinding() {
@@ -333,18 +614,31 @@ public class Polygon implements Iterable<Pt2D> {
      * triangulateConvex}.</p>
      */
     public boolean isConvex() {
-        if (convex == null)
-            countTurns();
-        return convex;
+        return getTurns().convex;
     }
 
+    /**
+     * <p>Each vertex is counted once for every other vertex it duplicates -
+     * so a pair of equal vertices counts as two.</p>
+     *
+     * <p>COMPLEXITY: O(n log n) - the vertices are packed into {@code long}s
+     * and sorted, so that equal vertices are adjacent.</p>
+     */
     public int getNumDuplicateVertices() {
+        long[] packed = new long[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            packed[i] = ((long) xs[i] << 32) | (ys[i] & 0xFFFFFFFFL);
+        Arrays.sort(packed);
         int n = 0;
-        for (Pt2D v1 : this)
-            for (Pt2D v2 : this)
-                if (v1 != v2)
-                    if (v1.equals(v2))
-                        n++;
+        int run = 1;
+        for (int i = 1; i <= packed.length; i++) {
+            if (i < packed.length && packed[i] == packed[i - 1]) {
+                run++;
+            } else {
+                n += run * (run - 1);
+                run = 1;
+            }
+        }
         return n;
     }
 
@@ -360,11 +654,13 @@ public class Polygon implements Iterable<Pt2D> {
         private int i = 0;
         @Override
         public Pt2D next() {
-            return vertices[i++];
+            if (i >= xs.length)
+                throw new NoSuchElementException();
+            return getVertex(i++);
         }
         @Override
         public boolean hasNext() {
-            return i < vertices.length;
+            return i < xs.length;
         }
     }
 
@@ -373,59 +669,105 @@ public class Polygon implements Iterable<Pt2D> {
     /*-------------- TRANSFORMATIONS (return new Polygon) --------------*/
 
     public Polygon shift(int x, int y) {
-        Pt2D[] newVertices = new Pt2D[vertices.length];
-        for (int i = 0; i < vertices.length; i++)
-            newVertices[i] = vertices[i].transpose(x, y);
-        return new Polygon(newVertices);
+        int n = xs.length;
+        int[] newXs = new int[n];
+        int[] newYs = new int[n];
+        for (int i = 0; i < n; i++) {
+            newXs[i] = xs[i] + x;
+            newYs[i] = ys[i] + y;
+        }
+        return new Polygon(newXs, newYs, false);
     }
 
     public Polygon reverseWinding() {
-        Pt2D[] newVertices = new Pt2D[vertices.length];
-        for (int i = 0; i < vertices.length; i++)
-            newVertices[i] = vertices[vertices.length - 1 - i];
-        return new Polygon(newVertices);
+        int n = xs.length;
+        int[] newXs = new int[n];
+        int[] newYs = new int[n];
+        for (int i = 0; i < n; i++) {
+            newXs[i] = xs[n - 1 - i];
+            newYs[i] = ys[n - 1 - i];
+        }
+        return new Polygon(newXs, newYs, false);
     }
 
     public Polygon reflectX(int center) {
-        Pt2D[] newVertices = new Pt2D[vertices.length];
-        for (int i = 0; i < vertices.length; i++)
-            newVertices[i] = vertices[i].reflectX(center);
-        return new Polygon(newVertices);
+        int[] newXs = new int[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            newXs[i] = center - (xs[i] - center);
+        // y co-ordinates are unchanged, so the array can be shared
+        return new Polygon(newXs, ys, false);
     }
 
     public Polygon reflectY(int center) {
-        Pt2D[] newVertices = new Pt2D[vertices.length];
-        for (int i = 0; i < vertices.length; i++)
-            newVertices[i] = vertices[i].reflectY(center);
-        return new Polygon(newVertices);
+        int[] newYs = new int[ys.length];
+        for (int i = 0; i < ys.length; i++)
+            newYs[i] = center - (ys[i] - center);
+        // x co-ordinates are unchanged, so the array can be shared
+        return new Polygon(xs, newYs, false);
     }
 
     public Polygon rotate90(int centerX, int centerY) {
-        Pt2D[] newVertices = new Pt2D[vertices.length];
-        for (int i = 0; i < vertices.length; i++)
-            newVertices[i] = vertices[i].rotate90(centerX, centerY);
-        return new Polygon(newVertices);
+        int n = xs.length;
+        int[] newXs = new int[n];
+        int[] newYs = new int[n];
+        for (int i = 0; i < n; i++) {
+            newXs[i] = centerX +  (ys[i] - centerY);
+            newYs[i] = centerY + -(xs[i] - centerX);
+        }
+        return new Polygon(newXs, newYs, false);
     }
 
     public Polygon rotateVertexOrder(int amt) {
-        Pt2D[] newVertices = new Pt2D[vertices.length];
-        for (int i = 0; i < vertices.length; i++)
-            newVertices[i] = getVertexWrapped(i + amt);
-        return new Polygon(newVertices);
+        int n = xs.length;
+        int[] newXs = new int[n];
+        int[] newYs = new int[n];
+        for (int i = 0; i < n; i++) {
+            int j = wrapIndex(i + amt);
+            newXs[i] = xs[j];
+            newYs[i] = ys[j];
+        }
+        return new Polygon(newXs, newYs, false);
     }
 
 
 
     /*------------------------- TRIANGULATION --------------------------*/
 
+    private static volatile TriangulationListener triangulationListener = null;
+
+    /**
+     * <p>Sets the listener which receives diagnostic events from all
+     * triangulation which isn't passed a listener explicitly - including the
+     * lazy triangulation done by {@link Shape45} and {@link ShapeGroup}.</p>
+     *
+     * @param listener Null to disable (the default).
+     */
+    public static void setTriangulationListener(TriangulationListener listener) {
+        triangulationListener = listener;
+    }
+
+    /**
+     * @return The listener set by {@link #setTriangulationListener}, or null.
+     */
+    public static TriangulationListener getTriangulationListener() {
+        return triangulationListener;
+    }
+
     /**
      * <p>NOTE: Only works for polygon with CCW winding!</p>
      */
     public static Triangle[] triangulate(Polygon poly) {
+        return triangulate(poly, triangulationListener);
+    }
+
+    /**
+     * @param listener Receives diagnostic events. May be null.
+     */
+    public static Triangle[] triangulate(Polygon poly, TriangulationListener listener) {
         if (poly.isConvex())
-            return triangulateConvex(poly);
+            return triangulateConvex(poly, listener);
         else
-            return triangulateEarClipping(poly);
+            return triangulateEarClipping(poly, listener);
     }
 
     /**
@@ -433,150 +775,46 @@ public class Polygon implements Iterable<Pt2D> {
      * angles.</p>
      */
     public static Triangle[] triangulateConvex(Polygon poly) {
-        Triangle[] tris = new Triangle[poly.getNumVertices() - 2];
-        System.out.println("Polygon.triangulateConvex() --> "
-                           + tris.length + " triangles");
+        return triangulateConvex(poly, triangulationListener);
+    }
+
+    /**
+     * @param listener Receives diagnostic events. May be null.
+     */
+    public static Triangle[] triangulateConvex(Polygon poly, TriangulationListener listener) {
+        long startTime = 0;
+        if (listener != null) {
+            listener.started(poly.getNumVertices());
+            startTime = System.nanoTime();
+        }
+        Triangle[] tris = new Triangle[Math.max(0, poly.getNumVertices() - 2)];
         for (int i = 0; i < tris.length; i++) {
-            tris[i] = new Triangle(poly.getVertex(0),
-                                   poly.getVertex(i + 1),
-                                   poly.getVertex(i + 2));
+            tris[i] = new Triangle(poly.xs[0], poly.ys[0],
+                                   poly.xs[i + 1], poly.ys[i + 1],
+                                   poly.xs[i + 2], poly.ys[i + 2]);
         }
+        if (listener != null)
+            listener.finished(tris.length, System.nanoTime() - startTime);
         return tris;
     }
 
     /**
-     * <p>Works for any valid polygon with CCW winding.</p>
+     * <p>Works for any simple polygon, of either winding direction. Output
+     * triangles always have CCW winding.</p>
+     *
+     * <p>COMPLEXITY: close to linear for typical outlines; O(n<sup>2</sup>)
+     * in the worst case. See {@link EarClippingTriangulator}.</p>
      */
     public static Triangle[] triangulateEarClipping(Polygon poly) {
-        return new EarClippingTriangulator(poly).getTriangles();
-    }
-
-    private static class EarClippingTriangulator {
-
-        private Polygon poly;
-        private boolean[] used;
-        private int numRemaining;
-        private int a = 0;
-        private int b = 0;
-        private int c = 0;
-
-        private int countSinceLast = 0;
-        private boolean failed = false;
-
-        private List<Triangle> tris = new ArrayList<>();
-
-        public EarClippingTriangulator(Polygon p) {
-            poly = p;
-            used = new boolean[poly.getNumVertices()];
-            numRemaining = used.length;
-
-            // reduce vertices until only 3 remain (the final triangle)
-            while (numRemaining >= 3
-                   && !failed) {
-
-                // get next triangle
-                b = nextIndex(a);
-                c = nextIndex(b);
-                Triangle t = new Triangle(poly.getVertex(a),
-                                          poly.getVertex(b),
-                                          poly.getVertex(c));
-
-                if (!triangleIntersects() &&
-                    t.isCCWWinding() &&
-                    angleIsInside()) {
-                    // tests passed: add triangle and eliminate vertex b
-                    tris.add(t);
-                    used[b] = true;
-                    numRemaining--;
-                    countSinceLast = 0;
-                } else {
-                    // failed: move start point to next index
-                    a = b;
-                }
-
-                System.out.format("a=%s, b=%s, c=%s --- %s triangles --- remaining: %s\n",
-                                  a, b, c, tris.size(), remainString());
-            }
-
-            System.out.println("made " + tris.size() + " triangles... "
-                               + (failed ? "FAILED!" : "SUCCEEDED"));
-        }
-
-        public Triangle[] getTriangles() {
-            return tris.toArray(new Triangle[tris.size()]);
-        }
-
-        private int nextIndex(int i) {
-            i++;
-            countSinceLast++;
-            if (i >= used.length) {
-                i = 0;
-            }
-            while (used[i]) {
-                i++;
-                if (i >= used.length) {
-                    i = 0;
-                }
-            }
-            // prevent infinite loop on failure
-            if (countSinceLast > used.length * 5)
-                failed = true;
-
-            return i;
-        }
-
-        private boolean triangleIntersects() {
-            return edgeIntersects(a, b) ||
-                   edgeIntersects(b, c) ||
-                   edgeIntersects(c, a);
-        }
-
-        private boolean edgeIntersects(int i1, int i2) {
-            if (contingentIndices(i1, i2))
-                return false;
-            if (poly.intersectsIgnoreSharedVerticesIncludeParallel(new Line(poly.getVertex(i1),
-                                                                            poly.getVertex(i2))))
-                return true;
-            return false;
-        }
-
-        private boolean contingentIndices(int i1, int i2) {
-            if (i1 < i2 && i1 == i2 - 1)
-                return true;
-           if (i1 == poly.getNumVertices() - 1 &&
-                i2 == 0)
-                return true;
-            return false;
-        }
-
-        /**
-         * <p>Checks that the third edge of the current triangle is inside the
-         * outline of the polygon by checking that the angle-turned is greater
-         * than the angle-turned of the outline at that point.</p>
-         */
-        private boolean angleIsInside() {
-            if (numRemaining < 4)
-                return true;
-            int d = nextIndex(c);
-            return Geom2D.angleTurned(poly.getVertex(b),
-                                      poly.getVertex(c),
-                                      poly.getVertex(a))
-                 > Geom2D.angleTurned(poly.getVertex(b),
-                                      poly.getVertex(c),
-                                      poly.getVertex(d));
-        }
-
-        private String remainString() {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < used.length; i++) {
-                if (used[i])
-                    sb.append(". |");
-                else
-                    sb.append(i + " |");
-            }
-            return sb.toString();
-        }
+        return triangulateEarClipping(poly, triangulationListener);
+    }
 
+    /**
+     * @param listener Receives diagnostic events. May be null.
+     */
+    public static Triangle[] triangulateEarClipping(Polygon poly,
+                                                    TriangulationListener listener) {
+        return new EarClippingTriangulator(poly, listener).triangulate();
     }
 
 }
@@ -0,0 +1,341 @@
+package info.bstancham.gridgeom;
+
+import java.util.Arrays;
+
+/**
+ * <p>Updates a triangulation after a single-vertex edit, re-triangulating only
+ * the region around the edited vertex.</p>
+ *
+ * <p>An edit replaces the chain {@code a -> oldV -> b} of one outline with
+ * {@code a -> newV -> b}, where {@code a} and {@code b} are the neighbours of
+ * the edited vertex. Moving a vertex has both {@code oldV} and {@code newV};
+ * deleting a vertex has no {@code newV}; inserting a vertex has no {@code
+ * oldV}.</p>
+ *
+ * <p>Every old triangle which has {@code oldV} as a corner (or, for an
+ * insertion, which owns edge {@code a-b}) is removed, along with every old
+ * triangle overlapping the bounding box of the edited points - the area of
+ * the shape can only change inside that box. If the removed triangles form a
+ * single cavity bounded by a simple loop which runs through {@code a -> oldV
+ * -> b}, the edited chain is substituted into that loop, and the loop is
+ * triangulated by ear-clipping. The remaining triangles are kept as they
+ * are.</p>
+ *
+ * <p>Otherwise (e.g. the cavity would be large, is not simply connected, or
+ * the edit makes the loop self-intersect) {@link #apply} returns null, and
+ * the caller should triangulate from scratch.</p>
+ *
+ * <p>COMPLEXITY: O(n) to find the cavity, where n is the number of old
+ * triangles, plus O(k<sup>2</sup>) to trace and check the cavity loop, where
+ * k is its number of vertices. k is capped at {@value
+ * #MAX_CAVITY_TRIANGLES} triangles.</p>
+ */
+final class Retriangulation {
+
+    /** A larger cavity is re-triangulated from scratch. */
+    private static final int MAX_CAVITY_TRIANGLES = 128;
+
+    private final Triangle[] oldTris;
+    private final Pt2D a;
+    private final Pt2D oldV;
+    private final Pt2D newV;
+    private final Pt2D b;
+
+    /**
+     * @param oldTris The triangles before the edit, all with counter-clockwise
+     * winding.
+     * @param oldV May be null, if a vertex was inserted.
+     * @param newV May be null, if a vertex was deleted.
+     */
+    Retriangulation(Triangle[] oldTris, Pt2D a, Pt2D oldV, Pt2D newV, Pt2D b) {
+        this.oldTris = oldTris;
+        this.a = a;
+        this.oldV = oldV;
+        this.newV = newV;
+        this.b = b;
+    }
+
+    /**
+     * @param listener Receives diagnostic events for triangulation of the
+     * cavity. May be null.
+     * @return The new triangles, or null if the edit can't be handled
+     * locally.
+     */
+    Triangle[] apply(TriangulationListener listener) {
+
+        // FIND CAVITY
+
+        int x0 = Math.min(a.x(), b.x());
+        int y0 = Math.min(a.y(), b.y());
+        int x1 = Math.max(a.x(), b.x());
+        int y1 = Math.max(a.y(), b.y());
+        for (Pt2D p : new Pt2D[] { oldV, newV }) {
+            if (p != null) {
+                x0 = Math.min(x0, p.x());
+                y0 = Math.min(y0, p.y());
+                x1 = Math.max(x1, p.x());
+                y1 = Math.max(y1, p.y());
+            }
+        }
+
+        boolean[] removed = new boolean[oldTris.length];
+        int numRemoved = 0;
+        for (int i = 0; i < oldTris.length; i++) {
+            Triangle t = oldTris[i];
+            boolean remove;
+            if (oldV != null)
+                remove = corner(t, oldV) >= 0;
+            else
+                remove = corner(t, a) >= 0 && corner(t, b) >= 0;
+            if (remove || overlapsBox(t, x0, y0, x1, y1)) {
+                removed[i] = true;
+                if (++numRemoved > MAX_CAVITY_TRIANGLES)
+                    return null;
+            }
+        }
+        if (numRemoved == 0)
+            return null;
+
+        // TRACE CAVITY LOOP
+
+        long[] loop = traceLoop(removed, numRemoved);
+        if (loop == null)
+            return null;
+        loop = substitute(loop);
+        if (loop == null || !isSimpleCCW(loop))
+            return null;
+
+        // RE-TRIANGULATE
+
+        int k = loop.length;
+        int[] xs = new int[k];
+        int[] ys = new int[k];
+        for (int i = 0; i < k; i++) {
+            xs[i] = unpackX(loop[i]);
+            ys[i] = unpackY(loop[i]);
+        }
+        Triangle[] fill = new EarClippingTriangulator(new Polygon(xs, ys),
+                                                      listener).triangulate();
+        long fillArea = 0;
+        for (Triangle t : fill)
+            fillArea += orient(t, 0, 1, 2);
+        if (fillArea != doubleArea(xs, ys))
+            return null;
+
+        Triangle[] out = new Triangle[oldTris.length - numRemoved + fill.length];
+        int n = 0;
+        for (int i = 0; i < oldTris.length; i++)
+            if (!removed[i])
+                out[n++] = oldTris[i];
+        System.arraycopy(fill, 0, out, n, fill.length);
+        return out;
+    }
+
+    /**
+     * <p>The boundary of the removed triangles is made of the directed edges
+     * whose reverse is not also an edge of a removed triangle.</p>
+     *
+     * @return The boundary as a loop of packed points, in counter-clockwise
+     * order, or null if it is not a single loop visiting each vertex once.
+     */
+    private long[] traceLoop(boolean[] removed, int numRemoved) {
+        long[] from = new long[numRemoved * 3];
+        long[] to = new long[numRemoved * 3];
+        int m = 0;
+        for (int i = 0; i < oldTris.length; i++) {
+            if (removed[i]) {
+                Triangle t = oldTris[i];
+                for (int j = 0; j < 3; j++) {
+                    from[m] = pack(t.getVertexX(j), t.getVertexY(j));
+                    to[m] = pack(t.getVertexXWrapped(j + 1), t.getVertexYWrapped(j + 1));
+                    m++;
+                }
+            }
+        }
+
+        boolean[] boundary = new boolean[m];
+        int numBoundary = 0;
+        for (int i = 0; i < m; i++) {
+            boundary[i] = true;
+            for (int j = 0; j < m; j++) {
+                if (from[j] == to[i] && to[j] == from[i]) {
+                    boundary[i] = false;
+                    break;
+                }
+            }
+            if (boundary[i])
+                numBoundary++;
+        }
+        if (numBoundary < 3)
+            return null;
+
+        // every boundary vertex must start exactly one boundary edge
+        int first = -1;
+        for (int i = 0; i < m; i++) {
+            if (!boundary[i])
+                continue;
+            if (first < 0)
+                first = i;
+            for (int j = i + 1; j < m; j++)
+                if (boundary[j] && from[j] == from[i])
+                    return null;
+        }
+
+        long[] loop = new long[numBoundary];
+        int e = first;
+        for (int n = 0; n < numBoundary; n++) {
+            loop[n] = from[e];
+            int next = -1;
+            for (int j = 0; j < m; j++) {
+                if (boundary[j] && from[j] == to[e]) {
+                    next = j;
+                    break;
+                }
+            }
+            if (next < 0)
+                return null;
+            e = next;
+        }
+        // must close up, having used every boundary edge
+        return (e == first ? loop : null);
+    }
+
+    /**
+     * @return A copy of {@code loop} with the edited chain substituted, or
+     * null if the loop doesn't contain the old chain.
+     */
+    private long[] substitute(long[] loop) {
+        int k = loop.length;
+        long pa = pack(a.x(), a.y());
+        long pb = pack(b.x(), b.y());
+
+        // index at which the old chain runs a -> (oldV ->) b
+        int ia = -1;
+        int span = (oldV == null ? 1 : 2);
+        for (int i = 0; i < k; i++) {
+            if (loop[i] == pa &&
+                loop[(i + span) % k] == pb &&
+                (oldV == null || loop[(i + 1) % k] == pack(oldV.x(), oldV.y()))) {
+                ia = i;
+                break;
+            }
+        }
+        if (ia < 0)
+            return null;
+
+        // rotate so that a comes last, then append the new chain
+        long[] out = new long[k - (span - 1) + (newV == null ? 0 : 1)];
+        int n = 0;
+        for (int i = ia + span; n < k - span + 1; i++)
+            out[n++] = loop[i % k];
+        if (newV != null)
+            out[n++] = pack(newV.x(), newV.y());
+        return out;
+    }
+
+    /**
+     * @return True, if no two edges of {@code loop} intersect (other than
+     * adjacent edges at their shared vertex), and it has counter-clockwise
+     * winding.
+     */
+    private static boolean isSimpleCCW(long[] loop) {
+        int k = loop.length;
+        if (k < 3)
+            return false;
+        int[] xs = new int[k];
+        int[] ys = new int[k];
+        for (int i = 0; i < k; i++) {
+            xs[i] = unpackX(loop[i]);
+            ys[i] = unpackY(loop[i]);
+        }
+        if (doubleArea(xs, ys) <= 0)
+            return false;
+
+        for (int i = 0; i < k; i++) {
+            int i2 = (i + 1) % k;
+            // adjacent edge must not double back along this one
+            int i3 = (i2 + 1) % k;
+            if (Geom2D.orient(xs[i], ys[i], xs[i2], ys[i2], xs[i3], ys[i3]) == 0 &&
+                ((long) xs[i2] - xs[i]) * ((long) xs[i3] - xs[i2]) +
+                ((long) ys[i2] - ys[i]) * ((long) ys[i3] - ys[i2]) <= 0)
+                return false;
+            for (int j = i + 2; j < k; j++) {
+                int j2 = (j + 1) % k;
+                if (j2 == i)
+                    continue; // adjacent
+                if (segmentsIntersect(xs[i], ys[i], xs[i2], ys[i2],
+                                      xs[j], ys[j], xs[j2], ys[j2]))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True, if segments {@code p1-q1} and {@code p2-q2} intersect
+     * (including touching).
+     */
+    private static boolean segmentsIntersect(int p1x, int p1y, int q1x, int q1y,
+                                             int p2x, int p2y, int q2x, int q2y) {
+        if (Math.max(p1x, q1x) < Math.min(p2x, q2x) ||
+            Math.max(p2x, q2x) < Math.min(p1x, q1x) ||
+            Math.max(p1y, q1y) < Math.min(p2y, q2y) ||
+            Math.max(p2y, q2y) < Math.min(p1y, q1y))
+            return false;
+        long o1 = Long.signum(Geom2D.orient(p1x, p1y, q1x, q1y, p2x, p2y));
+        long o2 = Long.signum(Geom2D.orient(p1x, p1y, q1x, q1y, q2x, q2y));
+        long o3 = Long.signum(Geom2D.orient(p2x, p2y, q2x, q2y, p1x, p1y));
+        long o4 = Long.signum(Geom2D.orient(p2x, p2y, q2x, q2y, q1x, q1y));
+        // boxes overlap, so collinear cases always touch
+        return (o1 * o2 <= 0 && o3 * o4 <= 0);
+    }
+
+    private static boolean overlapsBox(Triangle t, int x0, int y0, int x1, int y1) {
+        int tx0 = Math.min(t.getVertexX(0), Math.min(t.getVertexX(1), t.getVertexX(2)));
+        int tx1 = Math.max(t.getVertexX(0), Math.max(t.getVertexX(1), t.getVertexX(2)));
+        if (tx1 <= x0 || tx0 >= x1)
+            return false;
+        int ty0 = Math.min(t.getVertexY(0), Math.min(t.getVertexY(1), t.getVertexY(2)));
+        int ty1 = Math.max(t.getVertexY(0), Math.max(t.getVertexY(1), t.getVertexY(2)));
+        return ty1 > y0 && ty0 < y1;
+    }
+
+    /**
+     * @return Index of the corner of {@code t} at {@code p}, or -1.
+     */
+    private static int corner(Triangle t, Pt2D p) {
+        for (int i = 0; i < 3; i++)
+            if (t.getVertexX(i) == p.x() && t.getVertexY(i) == p.y())
+                return i;
+        return -1;
+    }
+
+    private static long orient(Triangle t, int i, int j, int k) {
+        return Geom2D.orient(t.getVertexX(i), t.getVertexY(i),
+                             t.getVertexX(j), t.getVertexY(j),
+                             t.getVertexX(k), t.getVertexY(k));
+    }
+
+    /**
+     * @return Twice the signed area - positive for counter-clockwise winding.
+     */
+    private static long doubleArea(int[] xs, int[] ys) {
+        long sum = 0;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++)
+            sum += (long) xs[j] * ys[i] - (long) xs[i] * ys[j];
+        return sum;
+    }
+
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static int unpackX(long p) {
+        return (int) (p >> 32);
+    }
+
+    private static int unpackY(long p) {
+        return (int) p;
+    }
+
+}
@@ -1,11 +1,15 @@
 package info.bstancham.gridgeom;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
-import java.util.HashSet;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.LongStream;
 import static info.bstancham.gridgeom.Geom2D.WindingDir;
 
 /**
@@ -33,15 +37,32 @@ import static info.bstancham.gridgeom.Geom2D.WindingDir;
  */
 public class Shape45 {
 
-    private WindingDir expectedWinding = WindingDir.CCW;
-    private Polygon outline;
-    private Shape45[] subShapes;
-    private Triangle[] triangles = null;
-    private Integer numEdges = null;
-    private Box2D boundingBox = null;
-    private Integer totalNumVertices = null;
-    private int nestedDepth;
-    private Boolean valid = null;
+    // The outline is held as a Polygon, or as a VertexList, or both - each
+    // is built from the other on demand, and neither is ever set back to
+    // null. Single-vertex edits work on the VertexList, so that they copy
+    // O(log n) vertices; geometry works on the Polygon.
+    private volatile Polygon outline;
+    private volatile VertexList vertexList;
+    private final Shape45[] subShapes;
+    private final int nestedDepth;
+
+    // Set on construction. Changed by the constructor of a new parent if it
+    // differs there (which resets the memoised validity) - but never for
+    // sub-shapes re-used by derive.
+    private volatile WindingDir expectedWinding;
+
+    // memoised - see thread-safety notes in Polygon
+    private volatile Triangle[] triangles = null;
+    private volatile Polygon bridgedOutline = null;
+
+    // Set by single-vertex edits, if the shape they were made from had
+    // already been triangulated. Cleared once used.
+    private volatile Retriangulation retriangulation = null;
+    // memoised - see hasExactTriangles
+    private volatile Boolean exactTriangles = null;
+    private volatile Integer numEdges = null;
+    private volatile Integer totalNumVertices = null;
+    private volatile Boolean valid = null;
 
     public Shape45(Pt2D ... vertices) {
         this(new Shape45[0], vertices);
@@ -56,8 +77,19 @@ public class Shape45 {
     }
     
     public Shape45(Shape45[] subShapes, Polygon outline) {
+        this(subShapes, outline, null, WindingDir.CCW);
+    }
+
+    /**
+     * @param outline May be null if {@code vertexList} is not.
+     * @param vertexList May be null if {@code outline} is not.
+     */
+    private Shape45(Shape45[] subShapes, Polygon outline, VertexList vertexList,
+                    WindingDir expectedWinding) {
         this.subShapes = subShapes;
         this.outline = outline;
+        this.vertexList = vertexList;
+        this.expectedWinding = expectedWinding;
 
         for (Shape45 sub : subShapes)
             sub.setExpectedWinding(expectedWinding);
@@ -70,16 +102,50 @@ public class Shape45 {
         nestedDepth = n + 1;
     }
 
+    /**
+     * <p>A shape may be re-used as a sub-shape of a new parent, so its
+     * expected winding can change after construction. Validity depends on
+     * expected winding, so the memoised value is discarded if it changes.</p>
+     */
     private void setExpectedWinding(WindingDir parentWinding) {
+        WindingDir w = expectedWinding;
 
         if (parentWinding == WindingDir.CCW)
-            expectedWinding = WindingDir.CW;
-        
+            w = WindingDir.CW;
+
         if (parentWinding == WindingDir.CW)
-            expectedWinding = WindingDir.CCW;
-        
+            w = WindingDir.CCW;
+
+        // Unchanged, so the sub-shapes are already consistent. Always the
+        // case for shapes re-used by derive, which never touches them.
+        if (w == expectedWinding)
+            return;
+
+        synchronized (this) {
+            if (w != expectedWinding) {
+                expectedWinding = w;
+                valid = null;
+            }
+        }
         for (Shape45 sub : subShapes)
-            sub.setExpectedWinding(expectedWinding);
+            sub.setExpectedWinding(w);
+    }
+
+    /**
+     * <p>Makes a shape derived from this one, to take its place in the tree -
+     * so it has the same expected winding. Sub-shapes re-used from this one
+     * then keep their expected winding, and their memoised validity, and are
+     * not modified in any way.</p>
+     *
+     * @param outline May be null if {@code vertexList} is not.
+     * @param vertexList May be null if {@code outline} is not.
+     */
+    private Shape45 derive(Shape45[] subs, Polygon outline, VertexList vertexList) {
+        return new Shape45(subs, outline, vertexList, expectedWinding);
+    }
+
+    private Shape45 derive(Shape45[] subs, Polygon outline) {
+        return derive(subs, outline, null);
     }
 
     /**
@@ -93,7 +159,48 @@ public class Shape45 {
     }
 
     public Polygon getOutline() {
-        return outline;
+        Polygon p = outline;
+        if (p == null) {
+            synchronized (this) {
+                p = outline;
+                if (p == null) {
+                    VertexList list = vertexList;
+                    int[] xs = new int[list.size()];
+                    int[] ys = new int[list.size()];
+                    list.copyTo(xs, ys);
+                    outline = p = new Polygon(xs, ys, false);
+                }
+            }
+        }
+        return p;
+    }
+
+    private VertexList getVertexList() {
+        VertexList list = vertexList;
+        if (list == null) {
+            synchronized (this) {
+                list = vertexList;
+                if (list == null)
+                    vertexList = list = VertexList.of(outline);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return Outline vertex {@code index}, without needing to build the
+     * outline polygon.
+     */
+    private Pt2D getOutlineVertex(int index) {
+        Polygon p = outline;
+        if (p != null)
+            return p.getVertex(index);
+        VertexList list = vertexList;
+        return new Pt2D(list.getX(index), list.getY(index));
+    }
+
+    private Pt2D getOutlineVertexWrapped(int index) {
+        return getOutlineVertex(Math.floorMod(index, getNumOutlineVertices()));
     }
 
     /**
@@ -160,19 +267,27 @@ public class Shape45 {
     }
 
     public int getNumOutlineVertices() {
-        return outline.getNumVertices();
+        Polygon p = outline;
+        return (p != null ? p.getNumVertices() : vertexList.size());
     }
     
     /**
      * @return Total combined number of vertices of outline and all sub-shapes.
      */
     public int getTotalNumVertices() {
-        if (totalNumVertices == null) {
-            totalNumVertices = getNumOutlineVertices();
-            for (Shape45 sub : subShapes)
-                totalNumVertices += sub.getTotalNumVertices();
+        Integer n = totalNumVertices;
+        if (n == null) {
+            synchronized (this) {
+                n = totalNumVertices;
+                if (n == null) {
+                    int count = getNumOutlineVertices();
+                    for (Shape45 sub : subShapes)
+                        count += sub.getTotalNumVertices();
+                    totalNumVertices = n = count;
+                }
+            }
         }
-        return totalNumVertices;
+        return n;
     }
 
     /**
@@ -192,7 +307,7 @@ public class Shape45 {
     public Pt2D getVertexRecursive(int index) {
         // index in outline
         if (index < getNumOutlineVertices())
-            return outline.getVertex(index);
+            return getOutlineVertex(index);
         // index in sub-shape
         int count = getNumOutlineVertices();
         for (int i = 0; i < subShapes.length; i++) {
@@ -268,9 +383,15 @@ public class Shape45 {
     }
 
     public int getNumEdges() {
-        if (numEdges == null)
-            buildEdges();
-        return numEdges;
+        Integer n = numEdges;
+        if (n == null) {
+            synchronized (this) {
+                n = numEdges;
+                if (n == null)
+                    numEdges = n = countEdges();
+            }
+        }
+        return n;
     }
 
     /**
@@ -278,14 +399,11 @@ public class Shape45 {
      * @throws ArrayIndexOutOfBoundsException If {@code index} is out of range;
      */
     public Line getEdge(int index) {
-        if (numEdges == null)
-            buildEdges();
-        
-        if (index < outline.getNumEdges())
-            return outline.getEdge(index);
+        if (index < getOutline().getNumEdges())
+            return getOutline().getEdge(index);
 
         // get edge recursively
-        int i = index - outline.getNumEdges();
+        int i = index - getOutline().getNumEdges();
         for (Shape45 sub : subShapes) {
             if (i < sub.getNumEdges())
                 return sub.getEdge(i);
@@ -297,47 +415,30 @@ public class Shape45 {
                                                  + " out of range (" + getNumEdges() + " edges)");
     }
     
-    private void buildEdges() {
+    private int countEdges() {
         // NOTE: Polygon.getNumEdges() triggers edges to be built
-        numEdges = outline.getNumEdges();
+        int count = getOutline().getNumEdges();
         for (Shape45 sub : subShapes)
-            numEdges += sub.getNumEdges();
+            count += sub.getNumEdges();
+        return count;
     }
 
     
     
+    /**
+     * <p>The bounding box of the outline (memoised by the outline) - sub-shapes
+     * lie inside it.</p>
+     */
     public Box2D getBoundingBox() {
-        if (boundingBox == null)
-            makeBoundingBox();
-        return boundingBox;
+        return getOutline().getBoundingBox();
     }
 
     public int getCenterX() {
-        if (boundingBox == null)
-            makeBoundingBox();
-        return boundingBox.centerX;
+        return getBoundingBox().centerX;
     }
 
     public int getCenterY() {
-        if (boundingBox == null)
-            makeBoundingBox();
-        return boundingBox.centerY;
-    }
-
-    private void makeBoundingBox() {
-        Pt2D v = getOutline().getVertex(0);
-        int lowX  = v.x();
-        int highX = v.x();
-        int lowY  = v.y();
-        int highY = v.y();
-        for (int i = 1; i < getNumOutlineVertices(); i++) {
-            v = getOutline().getVertex(i);
-            if (v.x() < lowX)  lowX  = v.x();
-            if (v.x() > highX) highX = v.x();
-            if (v.y() < lowY)  lowY  = v.y();
-            if (v.y() > highY) highY = v.y();
-        }
-        boundingBox = new Box2D(lowX, lowY, highX, highY);
+        return getBoundingBox().centerY;
     }
 
     
@@ -361,50 +462,260 @@ public class Shape45 {
      * @return True, if shape is valid. False otherwise.
      */
     public boolean isValid() {
-        if (valid == null)
-            valid = testIsValid();
-        return valid;
+        Boolean v = valid;
+        if (v == null) {
+            synchronized (this) {
+                v = valid;
+                if (v == null)
+                    valid = v = testIsValid();
+            }
+        }
+        return v;
     }
 
     /**
-     * <p>Called only once - the first time isValid is called.</p>
+     * <p>Called only once - the first time isValid is called - unless the
+     * expected winding changes.</p>
      */
     private boolean testIsValid() {
-            
+
         // OUTLINE
-        
+        if (!testOutlineIsValid(expectedWinding)) return false;
+
+        // SUB-SHAPES
+
+        for (Shape45 sub : subShapes) {
+            
+            // SUB-SHAPE: ALL EDGES MUST BE INSIDE OUTLINE
+            
+            if (!sub.isValid()) return false;
+
+        }
+
+        // SUB-SHAPES MAY NOT INTERSECT ONE-ANOTHER
+        return !outlinesIntersect(subShapes);
+    }
+
+    /**
+     * <p>The checks which concern the outline alone.</p>
+     */
+    private boolean testOutlineIsValid(WindingDir expected) {
+            
         // OUTLINE: AT LEAST THREE VERTICES
         if (getNumOutlineVertices() < 3) return false;
 
         // OUTLINE: ALL ANGLES MUST BE DIVISIBLE BY 45 DEGREES
-        if (!outline.is45Compliant()) return false;
+        if (!getOutline().is45Compliant()) return false;
         
         // OUTLINE: WINDING DIRECTION MUST BE CCW
-        if (outline.getWindingDir() != expectedWinding) return false;
+        if (getOutline().getWindingDir() != expected) return false;
         
         // OUTLINE: NO DUPLICATE VERTICES
-        if (outline.getNumDuplicateVertices() != 0) return false;
+        if (getOutline().getNumDuplicateVertices() != 0) return false;
         
         // OUTLINE: NO INTERSECTING EDGES
-        if (getNumOutlineSelfIntersections45() !=0) return false;
+        if (hasOutlineSelfIntersection45()) return false;
 
-        // SUB-SHAPES
+        return true;
+    }
 
-        for (Shape45 sub : subShapes) {
-            
-            // SUB-SHAPE: ALL EDGES MUST BE INSIDE OUTLINE
-            
-            // SUB-SHAPES MAY NOT INTERSECT ONE-ANOTHER
-            for (Shape45 sub2 : subShapes)
-                if (sub != sub2)
-                    if (sub.getOutline().intersectsIgnoreSharedVertices45(sub2.getOutline()))
-                        return false;
+    /**
+     * <p>True, if the outlines of any two of {@code shapes} intersect, other
+     * than at shared vertices.</p>
+     *
+     * <p>COMPLEXITY: the shapes' bounding boxes are swept (see {@link
+     * SweepAndPrune}), so only shapes whose boxes overlap or touch are
+     * given the exact edge test - near-linear in the number of shapes, unless
+     * many of them overlap.</p>
+     */
+    static boolean outlinesIntersect(Shape45[] shapes) {
+        return !SweepAndPrune.forEachOverlappingShapePair(shapes,
+                (i, j) -> !outlinesIntersect(shapes, i, j));
+    }
 
-            if (!sub.isValid()) return false;
+    /**
+     * <p>True, if the outlines of {@code shapes[i]} and {@code shapes[j]}
+     * intersect other than at shared vertices - see {@link
+     * #outlinesIntersect}.</p>
+     */
+    private static boolean outlinesIntersect(Shape45[] shapes, int i, int j) {
+        if (shapes[i] == shapes[j])
+            return false;
+        Polygon p1 = shapes[i].getOutline();
+        Polygon p2 = shapes[j].getOutline();
+        // the test is not symmetric (each checks the other's vertices
+        // against its own edges) so do both ways round
+        return p1.intersectsIgnoreSharedVertices45(p2)
+            || p2.intersectsIgnoreSharedVertices45(p1);
+    }
+
+    /**
+     * <p>Parallel version of {@link #isValid}, using the common {@link
+     * ForkJoinPool}.</p>
+     */
+    public boolean isValidParallel() {
+        return isValidParallel(ForkJoinPool.commonPool());
+    }
 
+    /**
+     * <p>Parallel version of {@link #isValid}: sub-shapes, and the checks
+     * between each pair of sibling sub-shapes, are validated concurrently by
+     * {@code pool}. Blocks until done. Worth using for large shape trees -
+     * for small shapes the overhead outweighs the gain.</p>
+     *
+     * <p>As soon as any check fails, all outstanding work is abandoned. The
+     * result is memoised for this shape, and for every sub-shape whose
+     * validation ran to completion, exactly as if {@link #isValid} had been
+     * called - a sub-shape whose validation was abandoned is left untested.
+     * Results are published under each shape's own lock, so may be read
+     * safely from any thread.</p>
+     */
+    public boolean isValidParallel(ForkJoinPool pool) {
+        Boolean v = valid;
+        if (v != null)
+            return v;
+        AtomicBoolean failed = new AtomicBoolean(false);
+        v = pool.invoke(new ValidateTask(this, failed));
+        if (v == null) {
+            // abandoned because something below this shape failed
+            v = Boolean.FALSE;
+            publishValid(expectedWinding, v);
         }
+        return v;
+    }
 
-        return true;
+    /**
+     * <p>Memoises a validity result, unless the expected winding has changed
+     * since validation started (in which case the result is stale).</p>
+     */
+    private void publishValid(WindingDir expected, Boolean v) {
+        synchronized (this) {
+            if (valid == null && expectedWinding == expected)
+                valid = v;
+        }
+    }
+
+    /**
+     * <p>Validates one shape. Returns null if abandoned because a check
+     * failed elsewhere in the tree.</p>
+     */
+    private static final class ValidateTask extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Shape45 shape;
+        private final AtomicBoolean failed;
+
+        ValidateTask(Shape45 shape, AtomicBoolean failed) {
+            this.shape = shape;
+            this.failed = failed;
+        }
+
+        @Override
+        protected Boolean compute() {
+            Boolean v = shape.valid;
+            if (v != null) {
+                if (!v)
+                    failed.set(true);
+                return v;
+            }
+            if (failed.get())
+                return null;
+
+            WindingDir expected = shape.expectedWinding;
+            v = validate(expected);
+            if (v == null)
+                return null;
+            if (!v)
+                failed.set(true);
+            shape.publishValid(expected, v);
+            return v;
+        }
+
+        private Boolean validate(WindingDir expected) {
+            if (!shape.testOutlineIsValid(expected))
+                return Boolean.FALSE;
+
+            Shape45[] subs = shape.subShapes;
+            List<RecursiveTask<Boolean>> tasks = new ArrayList<>();
+            for (Shape45 sub : subs)
+                tasks.add(new ValidateTask(sub, failed));
+
+            // sibling pairs: candidates from the bounding box sweep, checked
+            // in chunks
+            if (subs.length > 1) {
+                LongStream.Builder pairs = LongStream.builder();
+                SweepAndPrune.forEachOverlappingShapePair(subs, (i, j) -> {
+                        pairs.add(((long) i << 32) | j);
+                        return true;
+                    });
+                long[] arr = pairs.build().toArray();
+                if (arr.length > 0)
+                    tasks.add(new PairsTask(subs, arr, 0, arr.length, failed));
+            }
+
+            invokeAll(tasks);
+            boolean abandoned = false;
+            for (RecursiveTask<Boolean> t : tasks) {
+                Boolean r = t.join();
+                if (r == null)
+                    abandoned = true;
+                else if (!r)
+                    return Boolean.FALSE;
+            }
+            return (abandoned ? null : Boolean.TRUE);
+        }
+    }
+
+    /**
+     * <p>Checks a range of candidate sibling pairs, each packed into a
+     * {@code long} as {@code i << 32 | j}. Returns null if abandoned.</p>
+     */
+    private static final class PairsTask extends RecursiveTask<Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Ranges smaller than this are not split further. */
+        private static final int THRESHOLD = 64;
+
+        private final Shape45[] shapes;
+        private final long[] pairs;
+        private final int from;
+        private final int to;
+        private final AtomicBoolean failed;
+
+        PairsTask(Shape45[] shapes, long[] pairs, int from, int to,
+                  AtomicBoolean failed) {
+            this.shapes = shapes;
+            this.pairs = pairs;
+            this.from = from;
+            this.to = to;
+            this.failed = failed;
+        }
+
+        @Override
+        protected Boolean compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                PairsTask left = new PairsTask(shapes, pairs, from, mid, failed);
+                PairsTask right = new PairsTask(shapes, pairs, mid, to, failed);
+                invokeAll(left, right);
+                Boolean l = left.join();
+                Boolean r = right.join();
+                if (Boolean.FALSE.equals(l) || Boolean.FALSE.equals(r))
+                    return Boolean.FALSE;
+                return (l == null || r == null ? null : Boolean.TRUE);
+            }
+            for (int k = from; k < to; k++) {
+                if (failed.get())
+                    return null;
+                if (outlinesIntersect(shapes, (int) (pairs[k] >>> 32), (int) pairs[k])) {
+                    failed.set(true);
+                    return Boolean.FALSE;
+                }
+            }
+            return Boolean.TRUE;
+        }
     }
 
     /**
@@ -412,7 +723,7 @@ public class Shape45 {
      * i.e. every angle is either divisible by 45 degrees or is zero.
      */
     public boolean is45Compliant() {
-        if (!outline.is45Compliant())
+        if (!getOutline().is45Compliant())
             return false;
         for (Shape45 sub : subShapes)
             if (!sub.is45Compliant())
@@ -421,21 +732,39 @@ public class Shape45 {
     }
     
     /**
+     * <p>Each intersecting pair of edges is counted twice (once from each
+     * edge). Edges which only meet at a shared end point, and parallel edges,
+     * are not counted.</p>
+     *
+     * <p>COMPLEXITY: sweeps the edges in x order, so only edges with
+     * overlapping bounding boxes are compared - see {@link
+     * SweepAndPrune}.</p>
+     *
      * <p>WARNING: Not guaranteed to work unless shape is 45-compliant.</p>
      */
     public int getNumOutlineSelfIntersections45() {
-        int num = 0;
-        for (int i = 0; i < outline.getNumEdges(); i++) {
-            Line edge1 = outline.getEdge(i);
-            for (int j = 0; j < outline.getNumEdges(); j++) {
-                Line edge2 = outline.getEdge(j);
-                if (edge1 != edge2) {
-                    if (Line.linesIntersect45IgnoreSharedEnds(edge1, edge2))
-                        num++;
-                }
-            }
-        }
-        return num;
+        Polygon poly = getOutline();
+        int[] num = new int[1];
+        SweepAndPrune.forEachOverlappingEdgePair(poly, (i, j) -> {
+                if (Line.linesIntersect45IgnoreSharedEnds(poly.getEdge(i),
+                                                          poly.getEdge(j)))
+                    num[0] += 2;
+                return true;
+            });
+        return num[0];
+    }
+
+    /**
+     * <p>Same as {@code getNumOutlineSelfIntersections45() != 0}, but stops
+     * as soon as the first intersection is found.</p>
+     *
+     * <p>WARNING: Not guaranteed to work unless shape is 45-compliant.</p>
+     */
+    public boolean hasOutlineSelfIntersection45() {
+        Polygon poly = getOutline();
+        return !SweepAndPrune.forEachOverlappingEdgePair(poly, (i, j) ->
+                !Line.linesIntersect45IgnoreSharedEnds(poly.getEdge(i),
+                                                       poly.getEdge(j)));
     }
 
     public int getNestedDepth() {
@@ -454,7 +783,7 @@ public class Shape45 {
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++)
             newSubs[i] = subShapes[i].shift(x, y);
-        return new Shape45(newSubs, getOutline().shift(x, y));
+        return derive(newSubs, getOutline().shift(x, y));
     }
 
     /**
@@ -476,7 +805,7 @@ public class Shape45 {
             }
             index -= subShapes[i].getNumShapesRecursive();
         }
-        return new Shape45(newSubs, getOutline());
+        return derive(newSubs, getOutline());
     }
 
     /**
@@ -505,7 +834,7 @@ public class Shape45 {
             }
             index -= subShapes[i].getNumShapesRecursive();
         }
-        return new Shape45(newSubs.toArray(new Shape45[newSubs.size()]),
+        return derive(newSubs.toArray(new Shape45[newSubs.size()]),
                            getOutline());
     }
     
@@ -523,7 +852,7 @@ public class Shape45 {
                 newSubs[i] = subShapes[i];
             }
             newSubs[subShapes.length] = newSubShape;
-            return new Shape45(newSubs, getOutline());
+            return derive(newSubs, getOutline());
         }
 
         // find index in sub-shapes
@@ -539,14 +868,14 @@ public class Shape45 {
             index -= subShapes[i].getNumShapesRecursive();
         }
 
-        return new Shape45(newSubs, getOutline());
+        return derive(newSubs, getOutline());
     }
 
     public Shape45 reverseWinding() {
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++)
             newSubs[i] = subShapes[i].reverseWinding();
-        return new Shape45(newSubs, getOutline().reverseWinding());
+        return derive(newSubs, getOutline().reverseWinding());
     }
 
     public Shape45 reverseSubShapeWinding(int index) {
@@ -565,11 +894,11 @@ public class Shape45 {
             }
             index -= subShapes[i].getNumShapesRecursive();
         }
-        return new Shape45(newSubs, getOutline());
+        return derive(newSubs, getOutline());
     }
 
     public Shape45 rotateOutlineVertexOrder(int amt) {
-        return new Shape45(getSubShapes(),
+        return derive(getSubShapes(),
                            getOutline().rotateVertexOrder(amt));
     }
 
@@ -589,10 +918,19 @@ public class Shape45 {
             }
             index -= subShapes[i].getNumShapesRecursive();
         }
-        return new Shape45(newSubs, getOutline());
+        return derive(newSubs, getOutline());
     }
 
     /**
+     * <p>If this shape has already been triangulated, the new shape re-uses
+     * the triangles away from the edited vertex, and only re-triangulates its
+     * neighbourhood - see {@link Retriangulation}. The same goes for {@link
+     * #deleteVertex} and {@link #addVertexAfter}.</p>
+     *
+     * <p>The new shape shares everything the edit doesn't touch: sub-shapes
+     * (and their memoised analysis) are re-used as they are, and an edited
+     * outline copies O(log n) vertices - see {@link VertexList}.</p>
+     *
      * @return A new {@code Shape45} which is an identical copy of this one,
      * except with the vertex at index {@code i} set to the given {@code x/y}
      * co-ordinates.
@@ -600,19 +938,19 @@ public class Shape45 {
     public Shape45 setVertex(int index, int x, int y) {
         
         // OUTLINE
-        Pt2D[] newVertices = new Pt2D[getNumOutlineVertices()];
-        for (int i = 0; i < getNumOutlineVertices(); i++) {
-            if (i == index)
-                newVertices[i] = new Pt2D(x, y);
-            else
-                newVertices[i] = getOutline().getVertex(i);
+        Polygon newOutline = outline;
+        VertexList newList = vertexList;
+        if (index >= 0 && index < getNumOutlineVertices()) {
+            newOutline = null;
+            newList = getVertexList().set(index, x, y);
         }
 
         // SUB-SHAPES
         int count = getNumOutlineVertices();
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++) {
-            if (index - count < subShapes[i].getTotalNumVertices()) {
+            if (index >= count &&
+                index - count < subShapes[i].getTotalNumVertices()) {
                 newSubs[i] = subShapes[i].setVertex(index - count, x, y);
             } else {
                 newSubs[i] = subShapes[i];
@@ -620,100 +958,177 @@ public class Shape45 {
             count += subShapes[i].getTotalNumVertices();
         }
 
-        return new Shape45(newSubs, newVertices);
+        Shape45 edited = derive(newSubs, newOutline, newList);
+        retriangulateFrom(edited, index, new Pt2D(x, y), false);
+        return edited;
     }
 
     public Shape45 deleteVertex(int index) {
         
         // OUTLINE
-        int newLen = getNumOutlineVertices();
-        if (index < getNumOutlineVertices())
-            newLen--;
-        Pt2D[] newVertices = new Pt2D[newLen];
-        for (int i = 0; i < getNumOutlineVertices(); i++) {
-            if (i < index)
-                newVertices[i] = getOutline().getVertex(i);
-            else if (i > index)
-                newVertices[i - 1] = getOutline().getVertex(i);
+        Polygon newOutline = outline;
+        VertexList newList = vertexList;
+        if (index >= 0 && index < getNumOutlineVertices()) {
+            newOutline = null;
+            newList = getVertexList().remove(index);
         }
         
         // SUB-SHAPES
         int count = getNumOutlineVertices();
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++) {
-            if (count < index &&
+            if (count <= index &&
                 index - count < subShapes[i].getTotalNumVertices()) {
                 newSubs[i] = subShapes[i].deleteVertex(index - count);
-                count--;
             } else {
                 newSubs[i] = subShapes[i];
             }                
             count += subShapes[i].getTotalNumVertices();
         }
 
-        return new Shape45(newSubs, newVertices);
+        Shape45 edited = derive(newSubs, newOutline, newList);
+        retriangulateFrom(edited, index, null, false);
+        return edited;
     }
 
     public Shape45 addVertexAfter(int index) {
         
         // OUTLINE
-        int len = (index < getNumOutlineVertices() ?
-                   getNumOutlineVertices() + 1 :
-                   getNumOutlineVertices());
-        Pt2D[] newVertices = new Pt2D[len];
-        for (int i = 0; i < getNumOutlineVertices(); i++) {
-            if (i <= index) {
-                newVertices[i] = getOutline().getVertex(i);
-                if (i == index) {
-                    // new point equidistant between
-                    Pt2D v = Geom2D.midPointInt(getOutline().getVertex(i),
-                                                getOutline().getVertexWrapped(i + 1));
-                    // make sure not duplicate vertex before adding it
-                    while (getOutline().hasVertex(v))
-                        v = v.transpose(0, 1);
-                    newVertices[i + 1] = v;
-                }
-            } else {
-                newVertices[i + 1] = getOutline().getVertex(i);
-            }
+        Polygon newOutline = outline;
+        VertexList newList = vertexList;
+        if (index >= 0 && index < getNumOutlineVertices()) {
+            VertexList list = getVertexList();
+            // new point equidistant between
+            Pt2D v = Geom2D.midPointInt(getOutlineVertex(index),
+                                        getOutlineVertexWrapped(index + 1));
+            // make sure not duplicate vertex before adding it
+            while (list.contains(v.x(), v.y()))
+                v = v.transpose(0, 1);
+            newOutline = null;
+            newList = list.insert(index + 1, v.x(), v.y());
         }
 
         // SUB-SHAPES
         int count = getNumOutlineVertices();
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++) {
-            if (count < index &&
+            if (count <= index &&
                 index - count < subShapes[i].getTotalNumVertices()) {
                 newSubs[i] = subShapes[i].addVertexAfter(index - count);
-                count++;
             } else {
                 newSubs[i] = subShapes[i];
             }                
             count += subShapes[i].getTotalNumVertices();
         }
 
-        return new Shape45(newSubs, newVertices);
+        Shape45 edited = derive(newSubs, newOutline, newList);
+        if (triangles != null)
+            retriangulateFrom(edited, index, edited.getVertexRecursive(index + 1), true);
+        return edited;
+    }
+
+    /**
+     * <p>If this shape has already been triangulated, lets {@code edited}
+     * re-use the triangles away from the edit to vertex {@code index}. See
+     * {@link Retriangulation}.</p>
+     *
+     * <p>Only done if the triangles are known to be right - otherwise (e.g.
+     * if this shape is self-intersecting, as it may be part-way through
+     * dragging a vertex) they would be carried over into {@code edited},
+     * even if the edit makes it valid again.</p>
+     *
+     * @param newV The moved or inserted vertex, or null if it was deleted.
+     * @param inserted True, if {@code newV} was inserted after vertex {@code
+     * index}.
+     */
+    private void retriangulateFrom(Shape45 edited, int index, Pt2D newV, boolean inserted) {
+        Triangle[] tris = triangles;
+        Shape45 s = (tris != null && index >= 0 ? getSubShapeForVertexIndex(index) : null);
+        if (s == null || !hasExactTriangles(tris))
+            return;
+        int i = index - getVertexIndexForSubShapeIndex(getSubShapeIndexForVertexIndex(index));
+        Pt2D v = s.getOutlineVertex(i);
+        Pt2D next = s.getOutlineVertexWrapped(i + 1);
+        if (inserted)
+            edited.retriangulation = new Retriangulation(tris, v, null, newV, next);
+        else
+            edited.retriangulation = new Retriangulation(tris, s.getOutlineVertexWrapped(i - 1),
+                                                         v, newV, next);
+    }
+
+    /**
+     * <p>True, if the shape is known to be valid, or if the triangles cover
+     * exactly the area of the shape. Memoised, as every edit of this shape
+     * asks.</p>
+     */
+    private boolean hasExactTriangles(Triangle[] tris) {
+        if (valid == Boolean.TRUE)
+            return true;
+        Boolean e = exactTriangles;
+        if (e == null) {
+            synchronized (this) {
+                e = exactTriangles;
+                if (e == null)
+                    exactTriangles = e = (doubleTriangleArea(tris) == doubleRingArea());
+            }
+        }
+        return e;
+    }
+
+    /**
+     * @return Twice the total area of {@code tris}, each counted as
+     * positive.
+     */
+    private static long doubleTriangleArea(Triangle[] tris) {
+        long sum = 0;
+        for (Triangle t : tris)
+            sum += Math.abs(Geom2D.orient(t.getVertexX(0), t.getVertexY(0),
+                                          t.getVertexX(1), t.getVertexY(1),
+                                          t.getVertexX(2), t.getVertexY(2)));
+        return sum;
+    }
+
+    /**
+     * @return Twice the signed area enclosed by the outline of this shape
+     * and of every sub-shape - which is twice the area of the shape, if it is
+     * valid.
+     */
+    private long doubleRingArea() {
+        Polygon p = outline;
+        long sum;
+        if (p != null) {
+            sum = 0;
+            int n = p.getNumVertices();
+            for (int i = 0, j = n - 1; i < n; j = i++)
+                sum += (long) p.getVertexX(j) * p.getVertexY(i)
+                     - (long) p.getVertexX(i) * p.getVertexY(j);
+        } else {
+            sum = vertexList.doubleArea();
+        }
+        for (Shape45 sub : subShapes)
+            sum += sub.doubleRingArea();
+        return sum;
     }
 
     public Shape45 reflectX(int center) {
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++)
             newSubs[i] = subShapes[i].reflectX(center);
-        return new Shape45(newSubs, getOutline().reflectX(center));
+        return derive(newSubs, getOutline().reflectX(center));
     }
 
     public Shape45 reflectY(int center) {
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++)
             newSubs[i] = subShapes[i].reflectY(center);
-        return new Shape45(newSubs, getOutline().reflectY(center));
+        return derive(newSubs, getOutline().reflectY(center));
     }
 
     public Shape45 rotate90(int centerX, int centerY) {
         Shape45[] newSubs = new Shape45[subShapes.length];
         for (int i = 0; i < subShapes.length; i++)
             newSubs[i] = subShapes[i].rotate90(centerX, centerY);
-        return new Shape45(newSubs, outline.rotate90(centerX, centerY));
+        return derive(newSubs, getOutline().rotate90(centerX, centerY));
     }
 
 
@@ -721,278 +1136,322 @@ public class Shape45 {
     /*------------------------- TRIANGULATION --------------------------*/
 
     public int getNumTriangles() {
-        if (triangles == null)
-            triangulate();
-        return triangles.length;
+        return getTriangles().length;
     }
 
     public Triangle getTriangle(int index) {
-        if (triangles == null)
-            triangulate();
-        return triangles[index];
+        return getTriangles()[index];
+    }
+
+    private Triangle[] getTriangles() {
+        Triangle[] tris = triangles;
+        if (tris == null) {
+            synchronized (this) {
+                tris = triangles;
+                if (tris == null)
+                    triangles = tris = triangulate();
+            }
+        }
+        return tris;
     }
     
-    private void triangulate() {
+    private Triangle[] triangulate() {
+        TriangulationListener listener = Polygon.getTriangulationListener();
+        Retriangulation r = retriangulation;
+        if (r != null) {
+            // release the previous version's triangles either way
+            retriangulation = null;
+            Triangle[] tris = r.apply(listener);
+            if (tris != null)
+                return tris;
+        }
         if (subShapes.length == 0)
-            triangles = Polygon.triangulate(getOutline());
-        else
-            triangles = triangulateDivideAndConquer(this);
+            return Polygon.triangulate(getOutline(), listener);
+        List<Triangle> tris = new ArrayList<>();
+        triangulateBridged(this, listener, tris);
+        return tris.toArray(new Triangle[tris.size()]);
     }
 
     /**
-     * <p>Works for any valid shape.</p>
+     * <p>Works for any valid shape. Triangulates the bridged outline of
+     * {@code s}, then the islands inside each hole, recursively.</p>
+     *
+     * @param listener Receives diagnostic events. May be null.
      */
-    private Triangle[] triangulateDivideAndConquer(Shape45 s) {
-        return new DivideAndConquerTriangulator(s).getTriangles();
-    }
-
-    private class DivideAndConquerTriangulator {
-
-        private List<Triangle> tris = new ArrayList<>();
-
-        public DivideAndConquerTriangulator(Shape45 shape) {
-            System.out.println("DivideAndConquerTriangulator");
-            Shape45[] workingSubShapes = shape.subShapes;
-
-            // TOP-LEVEL
-            
-            for (int i = 0; i < workingSubShapes.length; i++) {
-                Shape45 sub = workingSubShapes[i];
-                System.out.println("make bridge to subshape " + i);
-                shape = makeBridge(shape, sub);
-            }
-
-            System.out.println("outline after division:");
-            for (Pt2D p : shape.getOutline())
-                System.out.println(p);
-            
-            for (Triangle t : Polygon.triangulateEarClipping(shape.getOutline()))
-                tris.add(t);
-
-            // NESTED SHAPES
-
-            for (Shape45 hole : workingSubShapes)
-                for (Shape45 nested : hole.subShapes)
-                    for (Triangle t : triangulateDivideAndConquer(nested))
-                        tris.add(t);
-        }
+    private static void triangulateBridged(Shape45 s,
+                                           TriangulationListener listener,
+                                           List<Triangle> tris) {
+        Triangle[] local;
+        if (s.subShapes.length == 0)
+            local = Polygon.triangulate(s.getOutline(), listener);
+        else
+            local = Polygon.triangulateEarClipping(s.getBridgedOutline(), listener);
+        for (Triangle t : local)
+            tris.add(t);
 
-        public Triangle[] getTriangles() {
-            return tris.toArray(new Triangle[tris.size()]);
-        }
+        for (Shape45 hole : s.subShapes)
+            for (Shape45 island : hole.subShapes)
+                triangulateBridged(island, listener, tris);
+    }
 
-        /**
-         * <p>Incorporates sub-shape {@code sub} in to the outline of {@code
-         * shape} by making a bridge between them.</p>
-         *
-         * <p>The bridge is made by finding a quadrilateral which incorporates
-         * an edge from both shapes, without intersecting any other edges. The
-         * quadrilateral is split into two triangles, which are added to the
-         * triangles list, then {@code shape} and {@code sub} are stitched
-         * together along the connecting edges into a single outline. Any
-         * remaining sub-shapes are added to the new resulting shape.</p>
-         *
-         * @return A new version of {@code shape}, with sub-shape {@code sub}
-         * merged into outline.
-         */
-        private Shape45 makeBridge(Shape45 shape, Shape45 sub) {
-
-            finding:
-            for (int oi = 0; oi < shape.getNumOutlineVertices(); oi++) {
-                for (int si = 0; si < sub.getNumOutlineVertices(); si++) {
-
-                    // two vertices in outline
-                    Pt2D vo1 = shape.getOutline().getVertex(oi);
-                    Pt2D vo2 = shape.getOutline().getVertexWrapped(oi + 1);
-                    // two vertices in subshape
-                    Pt2D vs1 = sub.getOutline().getVertex(si);
-                    Pt2D vs2 = sub.getOutline().getVertexWrapped(si + 1);
-
-                    // To be safe, there must be no intersecting edges, bridge-triangles
-                    // must have counter-clockwise winding, and there must be no vertices
-                    // contained inside the area of the bridge-shape...
-                    Triangle t1 = new Triangle(vo1, vo2, vs1);
-                    Triangle t2 = new Triangle(vo1, vs1, vs2);
-                    if (t1.isCCWWinding() &&
-                        t2.isCCWWinding() &&
-                        !bridgeLinesIntersect(shape, vo1, vo2, vs1, vs2)) {
-
-                        // add two new triangles
-                        tris.add(t1);
-                        tris.add(t2);
-                        
-                        // bridge gap and merge subshape
-
-                        // outline vertices
-                        Pt2D[] newVerts = new Pt2D[shape.getNumOutlineVertices() +
-                                                   sub.getNumOutlineVertices()];
-                        int index = 0;
-                        for (int i = 0; i < shape.getNumOutlineVertices(); i++) {
-                            newVerts[index++] = shape.getOutline().getVertexWrapped(oi + 1 + i);
-                        }
-                        for (int i = 0; i < sub.getNumOutlineVertices(); i++) {
-                            newVerts[index++] = sub.getOutline().getVertexWrapped(si + 1 + i);
-                        }
-                        
-                        // subshapes
-                        Shape45[] newSubs = new Shape45[shape.getNumSubShapes() - 1];
-                        index = 0;
-                        for (Shape45 ss : shape.subShapes)
-                            if (ss != sub)
-                                newSubs[index++] = ss;
-
-                        shape = new Shape45(newSubs, newVerts);
-                        break finding;
-                    }
-                }
+    /**
+     * <p>The outline with all holes merged into it, giving a single polygon
+     * which has no holes. Each hole is joined to the outline by a bridge: a
+     * pair of coincident edges running in opposite directions. See {@link
+     * EarClippingTriangulator#bridgeHoles}.</p>
+     *
+     * <p>The result covers this shape's own area only - islands inside the
+     * holes are separate shapes, each with its own bridged outline. If there
+     * are no holes, this is just the outline.</p>
+     *
+     * <p>Computed on first request and memoised. Triangulation uses it, so
+     * the bridging is only ever done once. The shape should be valid, and
+     * have counter-clockwise winding.</p>
+     */
+    public Polygon getBridgedOutline() {
+        if (subShapes.length == 0)
+            return getOutline();
+        Polygon b = bridgedOutline;
+        if (b == null) {
+            synchronized (this) {
+                b = bridgedOutline;
+                if (b == null)
+                    bridgedOutline = b = bridgeHoles();
             }
-
-            return shape;
-        }
-
-        private boolean bridgeLinesIntersect(Shape45 shape,
-                                             Pt2D o1, Pt2D o2, Pt2D s1, Pt2D s2) {
-            return bridgeLineIntersects(shape, o2, s1) ||
-                   bridgeLineIntersects(shape, s1, o1) ||
-                   bridgeLineIntersects(shape, s2, o1);
         }
+        return b;
+    }
 
-        private boolean bridgeLineIntersects(Shape45 shape, Pt2D a, Pt2D b) {
-            Line ln = new Line(a, b);
-            if (shape.getOutline().intersectsIgnoreSharedVertices(ln))
-                return true;
-            for (Shape45 sub : shape.subShapes)
-                if (sub.getOutline().intersectsIgnoreSharedVertices(ln))
-                    return true;
-            return false;
-        }
-        
+    private Polygon bridgeHoles() {
+        Polygon[] holes = new Polygon[subShapes.length];
+        for (int i = 0; i < holes.length; i++)
+            holes[i] = subShapes[i].getOutline();
+        return new EarClippingTriangulator(getOutline(), holes,
+                                           Polygon.getTriangulationListener()).bridgeHoles();
     }
 
 
     
     /*----------------------- BOOLEAN MODELLING ------------------------*/
 
+    /**
+     * <p>Subtracts shape {@code s} from this shape.</p>
+     *
+     * <p>Both shapes should be valid. The result may be empty, or may contain
+     * several shapes, each of which may have holes (and islands within
+     * holes etc). See {@link BooleanOp45} for details of the algorithm.</p>
+     *
+     * <p>COMPLEXITY: O(n log n) for typical shapes, where n is the total
+     * number of edges.</p>
+     *
+     * @return The area covered by this shape but not by {@code s}.
+     * @throws ArithmeticException If the result would have a vertex at a
+     * half-unit position - this happens where two diagonal edges cross at a
+     * half unit, e.g. for two diamonds an odd distance apart. {@link
+     * #subtract45Doubled} gives the exact result in that case.
+     * @throws IllegalArgumentException If any co-ordinate exceeds {@code +/-
+     * 2^22}.
+     */
     public List<Shape45> subtract45(Shape45 s) {
+        return boolean45(BooleanOp45.Operation.DIFFERENCE, s);
+    }
 
-        // get edges
-        List<Line> homeLines = new ArrayList<>();
-        List<Line> awayLines = new ArrayList<>();
-        for (int i = 0; i < getOutline().getNumEdges(); i++)
-            homeLines.add(getOutline().getEdge(i));
-        for (int i = 0; i < s.getOutline().getNumEdges(); i++)
-            awayLines.add(s.getOutline().getEdge(i));
-
-        // get intersection points
-        Set<IPt> iPoints = new HashSet<>();
-        for (int hi = 0; hi < homeLines.size(); hi++) {
-            Line l1 = homeLines.get(hi);
-            // collect all intersection for current line, so we can sort them
-            // before adding to the main set
-            List<IPt> linePoints = new ArrayList<>();
-            for (int ai = 0; ai < awayLines.size(); ai++) {
-                Line l2 = awayLines.get(ai);
-                Pt2Df p = l1.getIntersectionPoint45(l2);
-                if (p != null) {
-                    if (l1.boundingBoxContains(p) &&
-                        l2.boundingBoxContains(p))
-                        iPoints.add(new IPt(p, hi, ai));
-                } else {
-                    // line has failed to make an intersection point...
-                    // ... probably means that it's paralell...
-                    // ... so, check that neither end is situated on home-line
-                    if (l1.contains45(l2.start())) {
-                        iPoints.add(new IPt(l2.start().toFloat(), hi, ai));
-                    }
-                }
-            }
-            // sort intersections closest to start point of home-line first
-            Collections.sort(linePoints, new PtDistComparator(l1.start()));
-            iPoints.addAll(linePoints);
-        }
-        
-        // if no intersection points? return early
+    /**
+     * <p>Combines this shape with shape {@code s}. Exceptions and complexity
+     * as for {@link #subtract45}.</p>
+     *
+     * @return The area covered by either shape.
+     */
+    public List<Shape45> union45(Shape45 s) {
+        return boolean45(BooleanOp45.Operation.UNION, s);
+    }
 
-        // split all lines
+    /**
+     * <p>Intersects this shape with shape {@code s}. Exceptions and complexity
+     * as for {@link #subtract45}.</p>
+     *
+     * @return The area covered by both shapes.
+     */
+    public List<Shape45> intersect45(Shape45 s) {
+        return boolean45(BooleanOp45.Operation.INTERSECTION, s);
+    }
 
-        // if no splits made? return early
+    /**
+     * <p>Exclusive-or of this shape and shape {@code s}. Exceptions and
+     * complexity as for {@link #subtract45}.</p>
+     *
+     * @return The area covered by exactly one of the shapes.
+     */
+    public List<Shape45> xor45(Shape45 s) {
+        return boolean45(BooleanOp45.Operation.XOR, s);
+    }
 
+    /**
+     * <p>As {@link #subtract45}, but the result is at twice the scale of
+     * the operands. It therefore has all of its vertices at whole-unit
+     * positions, and is always exact.</p>
+     *
+     * @throws IllegalArgumentException If any co-ordinate exceeds {@code +/-
+     * 2^22}.
+     */
+    public List<Shape45> subtract45Doubled(Shape45 s) {
+        return boolean45Doubled(BooleanOp45.Operation.DIFFERENCE, s);
+    }
 
+    /**
+     * <p>As {@link #union45}, at twice the scale - see {@link
+     * #subtract45Doubled}.</p>
+     */
+    public List<Shape45> union45Doubled(Shape45 s) {
+        return boolean45Doubled(BooleanOp45.Operation.UNION, s);
+    }
 
-        // traverse outline...
+    /**
+     * <p>As {@link #intersect45}, at twice the scale - see {@link
+     * #subtract45Doubled}.</p>
+     */
+    public List<Shape45> intersect45Doubled(Shape45 s) {
+        return boolean45Doubled(BooleanOp45.Operation.INTERSECTION, s);
+    }
 
-        // at junction?
+    /**
+     * <p>As {@link #xor45}, at twice the scale - see {@link
+     * #subtract45Doubled}.</p>
+     */
+    public List<Shape45> xor45Doubled(Shape45 s) {
+        return boolean45Doubled(BooleanOp45.Operation.XOR, s);
+    }
 
+    private List<Shape45> boolean45(BooleanOp45.Operation op, Shape45 s) {
+        return BooleanOp45.apply(op, new Shape45[] { this }, new Shape45[] { s });
+    }
 
-        
-        List<Shape45> output = new ArrayList<>();
-        return output;
-        
+    private List<Shape45> boolean45Doubled(BooleanOp45.Operation op, Shape45 s) {
+        return BooleanOp45.applyDoubled(op, new Shape45[] { this }, new Shape45[] { s });
     }
 
-    /**
-     * <p>Stores information about an intersection point.</p>
-     */
-    private class IPt {
 
-        Pt2Df p;
-        int homeIndex;
-        int awayIndex;
 
-        public IPt(Pt2Df p, int homeIndex, int awayIndex) {
-            this.p = p;
-            this.homeIndex = homeIndex;
-            this.awayIndex = awayIndex;
+    /*----------------------------- BUILDER ----------------------------*/
+
+    /**
+     * <p>Mutable builder, for assembling a large shape (e.g. from an
+     * importer) in one pass. Building up a shape by repeated calls to {@link
+     * #addVertexAfter} or {@link #addSubShapeRecursive} makes a new shape at
+     * every step.</p>
+     *
+     * <p>Vertices are gathered in growable {@code int} arrays, which are
+     * trimmed to become the arrays of the outline polygon. Sub-shapes may be
+     * given as finished shapes, or as builders - which are built along with
+     * this one.</p>
+     *
+     * <p>Not thread-safe. The builder is unchanged by {@link #build}, and
+     * may go on to build more shapes.</p>
+     */
+    public static final class Builder {
+
+        private int[] xs = new int[16];
+        private int[] ys = new int[16];
+        private int numVertices = 0;
+        // sub-shapes in order - null where the next of subBuilders goes
+        private final List<Shape45> subShapes = new ArrayList<>();
+        private final List<Builder> subBuilders = new ArrayList<>();
+
+        public Builder addVertex(int x, int y) {
+            if (numVertices == xs.length) {
+                xs = Arrays.copyOf(xs, numVertices * 2);
+                ys = Arrays.copyOf(ys, numVertices * 2);
+            }
+            xs[numVertices] = x;
+            ys[numVertices] = y;
+            numVertices++;
+            return this;
         }
 
-        public Pt2Df getPoint() { return p; }
+        public Builder addVertex(Pt2D v) {
+            return addVertex(v.x(), v.y());
+        }
 
-        @Override
-        public boolean equals(Object obj) {
-        
-            // some safe optimizations
-            if (obj == this) return true;
-            if (obj == null) return false;
-            if (obj.getClass() != this.getClass()) return false;
-
-            // cast guaranteed to succeed here
-            IPt that = (IPt) obj;
-
-            // test for equality in all significant fields
-            if (!that.p.equals(p)) return false;
-            if (that.homeIndex != homeIndex) return false;
-            if (that.awayIndex != awayIndex) return false;
-            return true;
+        /**
+         * @throws NullPointerException If {@code sub} is null.
+         */
+        public Builder addSubShape(Shape45 sub) {
+            if (sub == null)
+                throw new NullPointerException("sub-shape is null");
+            subShapes.add(sub);
+            return this;
         }
 
-        @Override
-        public int hashCode() {
-            return (int) p.hashCode() + homeIndex + awayIndex;
+        /**
+         * <p>{@code sub} is built when this builder is - changes made to it
+         * before then are included.</p>
+         *
+         * @throws IllegalArgumentException If {@code sub} is this builder.
+         */
+        public Builder addSubShape(Builder sub) {
+            if (sub == this)
+                throw new IllegalArgumentException("builder can't be its own sub-shape");
+            subBuilders.add(sub);
+            subShapes.add(null);
+            return this;
         }
-        
-    }
 
-    public class PtDistComparator implements Comparator<IPt> {
+        public int getNumVertices() {
+            return numVertices;
+        }
 
-        private Pt2D homePt;
+        /**
+         * <p>Builds the shape, and checks that it is valid (see {@link
+         * Shape45#isValid}). Validity of sub-shapes is checked as part of the
+         * whole, not separately - a hole would not be valid on its own.</p>
+         *
+         * @throws IllegalStateException If the shape is not valid, or a
+         * builder is (indirectly) its own sub-shape.
+         */
+        public Shape45 build() {
+            Shape45 s = buildUnchecked();
+            boolean valid;
+            try {
+                valid = s.isValid();
+            } catch (IllegalArgumentException e) {
+                // degenerate geometry, e.g. repeated vertices
+                throw new IllegalStateException("invalid shape: " + e.getMessage(), e);
+            }
+            if (!valid)
+                throw new IllegalStateException("invalid shape");
+            return s;
+        }
 
-        public PtDistComparator(Pt2D homePt) {
-            this.homePt = homePt;
+        /**
+         * <p>Builds the shape without checking it.</p>
+         *
+         * @throws IllegalStateException If a builder is (indirectly) its
+         * own sub-shape.
+         */
+        Shape45 buildUnchecked() {
+            return buildUnchecked(Collections.newSetFromMap(new IdentityHashMap<>()));
         }
-        
+
         /**
-         * @return Negative num = less than, zero = equal, positive num =
-         * greater than.  Returns a negative integer, zero, or a positive
-         * integer as the first argument is less than, equal to, or greater than
-         * the second.
+         * @param building The builders whose shapes are being built, from
+         * the top-level builder down to this one's parent.
          */
-        @Override
-        public int compare(IPt p1, IPt p2) {
-            double dist1 = Geom2D.distSquared(p1.getPoint(), homePt.toFloat());
-            double dist2 = Geom2D.distSquared(p2.getPoint(), homePt.toFloat());
-            if (dist1 < dist2) return -1;
-            if (dist1 > dist2) return 1;
-            else return 0;
+        private Shape45 buildUnchecked(Set<Builder> building) {
+            if (!building.add(this))
+                throw new IllegalStateException("builder is (indirectly) its own sub-shape");
+            Shape45[] subs = new Shape45[subShapes.size()];
+            int nextBuilder = 0;
+            for (int i = 0; i < subs.length; i++) {
+                subs[i] = subShapes.get(i);
+                if (subs[i] == null)
+                    subs[i] = subBuilders.get(nextBuilder++).buildUnchecked(building);
+            }
+            // the same builder may still be used on another branch
+            building.remove(this);
+            Polygon outline = new Polygon(Arrays.copyOf(xs, numVertices),
+                                          Arrays.copyOf(ys, numVertices),
+                                          false);
+            return new Shape45(subs, outline);
         }
     }
 
@@ -1020,10 +1479,10 @@ public class Shape45 {
         }
 
         // OUTLINE
-        for (int i = 0; i < outline.getNumVertices(); i++) {
-            Pt2D v = outline.getVertex(i);
+        for (int i = 0; i < getNumOutlineVertices(); i++) {
+            Pt2D v = getOutlineVertex(i);
             sb.append("new Pt2D(" + v.x() + ", " + v.y() + ")");
-            if (i < outline.getNumVertices() - 1)
+            if (i < getNumOutlineVertices() - 1)
                 sb.append(",\n");
         }
         
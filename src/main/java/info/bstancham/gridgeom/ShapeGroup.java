@@ -1,9 +1,12 @@
 package info.bstancham.gridgeom;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.HashSet;
 
 /**
@@ -20,13 +23,16 @@ import java.util.HashSet;
  */
 public class ShapeGroup implements Iterable<Shape45> {
 
-    private Shape45[] shapes;
-    private Integer numVertices = null;
-    private Box2D boundingBox = null;
-    private Triangle[] triangles = null;
-    private Integer numEdges = null;
-    private int nestedDepth;
-    private Boolean valid = null;
+    private final Shape45[] shapes;
+    private final int nestedDepth;
+
+    // memoised - see thread-safety notes in Polygon
+    private volatile Integer numVertices = null;
+    private volatile Box2D boundingBox = null;
+    private volatile Triangle[] triangles = null;
+    private volatile Integer numEdges = null;
+    private volatile Boolean valid = null;
+    private volatile ContainmentIndex containmentIndex = null;
 
     public ShapeGroup(Shape45 s) {
         this(new Shape45[] { s });
@@ -34,10 +40,11 @@ public class ShapeGroup implements Iterable<Shape45> {
 
     public ShapeGroup(Shape45 ... shapes) {
         this.shapes = shapes;
-        nestedDepth = 0;
+        int depth = 0;
         for (Shape45 s : shapes)
-            if (s.getNestedDepth() > nestedDepth)
-                nestedDepth = s.getNestedDepth();
+            if (s.getNestedDepth() > depth)
+                depth = s.getNestedDepth();
+        nestedDepth = depth;
     }
 
     /**
@@ -50,27 +57,32 @@ public class ShapeGroup implements Iterable<Shape45> {
      * </ul>
      */
     public boolean isValid() {
-        if (valid == null) {
-            
-            valid = true;
-            for (Shape45 s : shapes)
-                if (!s.isValid())
-                    valid = false;
+        Boolean v = valid;
+        if (v == null) {
+            synchronized (this) {
+                v = valid;
+                if (v == null)
+                    valid = v = testIsValid();
+            }
+        }
+        return v;
+    }
 
-            // shapes must not intersect ... test outlines only -
-            // Shape45.isValid() will have taken care of other potential
-            // conditions
-            for (Shape45 s1 : shapes)
-                for (Shape45 s2 : shapes)
-                    if (s1 != s2)
-                        if (s1.getOutline().intersectsIgnoreSharedVertices45(s2.getOutline()))
-                            valid = false;
+    private boolean testIsValid() {
+        for (Shape45 s : shapes)
+            if (!s.isValid())
+                return false;
 
-            // top-level shapes must not be illegally nested
-            // TODO...
+        // shapes must not intersect ... test outlines only -
+        // Shape45.isValid() will have taken care of other potential
+        // conditions
+        if (Shape45.outlinesIntersect(shapes))
+            return false;
 
-        }
-        return valid;
+        // top-level shapes must not be illegally nested
+        // TODO...
+
+        return true;
     }
 
     public int getNumShapes() {
@@ -103,12 +115,19 @@ public class ShapeGroup implements Iterable<Shape45> {
      * @return Total combined number of vertices of all shapes.
      */
     public int getNumVertices() {
-        if (numVertices == null) {
-            numVertices = 0;
-            for (Shape45 s : shapes)
-                numVertices += s.getTotalNumVertices();
+        Integer n = numVertices;
+        if (n == null) {
+            synchronized (this) {
+                n = numVertices;
+                if (n == null) {
+                    int count = 0;
+                    for (Shape45 s : shapes)
+                        count += s.getTotalNumVertices();
+                    numVertices = n = count;
+                }
+            }
         }
-        return numVertices;
+        return n;
     }
 
     /**
@@ -184,21 +203,35 @@ public class ShapeGroup implements Iterable<Shape45> {
     }
     
     public int getNumTriangles() {
-        if (triangles == null)
-            triangulate();
-        return triangles.length;
+        return getTriangles().length;
     }
 
     public Triangle getTriangle(int index) {
-        if (triangles == null)
-            triangulate();
-        return triangles[index];
+        return getTriangles()[index];
+    }
+
+    private Triangle[] getTriangles() {
+        Triangle[] tris = triangles;
+        if (tris == null) {
+            synchronized (this) {
+                tris = triangles;
+                if (tris == null)
+                    triangles = tris = triangulate();
+            }
+        }
+        return tris;
     }
 
     public int getNumEdges() {
-        if (numEdges == null)
-            buildEdges();
-        return numEdges;
+        Integer n = numEdges;
+        if (n == null) {
+            synchronized (this) {
+                n = numEdges;
+                if (n == null)
+                    numEdges = n = countEdges();
+            }
+        }
+        return n;
     }
 
     /**
@@ -206,9 +239,6 @@ public class ShapeGroup implements Iterable<Shape45> {
      * @throws ArrayIndexOutOfBoundsException If {@code index} is out of range;
      */
     public Line getEdge(int index) {
-        if (numEdges == null)
-            buildEdges();
-
         // get edge recursively
         int i = index;
         for (Shape45 s : shapes) {
@@ -222,11 +252,12 @@ public class ShapeGroup implements Iterable<Shape45> {
                                                  + " out of range (" + getNumEdges() + " edges)");
     }
     
-    private void buildEdges() {
+    private int countEdges() {
         // NOTE: Shape45.getNumEdges() triggers edges to be built
-        numEdges = 0;
+        int count = 0;
         for (Shape45 s : shapes)
-            numEdges += s.getNumEdges();
+            count += s.getNumEdges();
+        return count;
     }
 
     
@@ -234,6 +265,10 @@ public class ShapeGroup implements Iterable<Shape45> {
     /*------------ TRANSFORMATIONS (return new ShapeGroup) -------------*/
 
     /**
+     * <p>The shapes not containing the vertex are re-used as they are, and
+     * the edited shape re-uses its triangulation away from the vertex - see
+     * {@link Shape45#setVertex}.</p>
+     *
      * @return A new {@code ShapeGroup} which is an identical copy of this one,
      * except with the vertex at index {@code i} set to the given {@code x/y}
      * co-ordinates.
@@ -242,7 +277,8 @@ public class ShapeGroup implements Iterable<Shape45> {
         int count = 0;
         Shape45[] newShapes = new Shape45[shapes.length];
         for (int i = 0; i < shapes.length; i++) {
-            if (index - count < shapes[i].getTotalNumVertices()) {
+            if (index >= count &&
+                index - count < shapes[i].getTotalNumVertices()) {
                 newShapes[i] = shapes[i].setVertex(index - count, x, y);
             } else {
                 newShapes[i] = shapes[i];
@@ -268,7 +304,8 @@ public class ShapeGroup implements Iterable<Shape45> {
         int count = 0;
         Shape45[] newShapes = new Shape45[shapes.length];
         for (int i = 0; i < shapes.length; i++) {
-            if (index - count < shapes[i].getTotalNumVertices()) {
+            if (index >= count &&
+                index - count < shapes[i].getTotalNumVertices()) {
                 newShapes[i] = shapes[i].deleteVertex(index - count);
             } else {
                 newShapes[i] = shapes[i];
@@ -282,7 +319,8 @@ public class ShapeGroup implements Iterable<Shape45> {
         int count = 0;
         Shape45[] newShapes = new Shape45[shapes.length];
         for (int i = 0; i < shapes.length; i++) {
-            if (index - count < shapes[i].getTotalNumVertices()) {
+            if (index >= count &&
+                index - count < shapes[i].getTotalNumVertices()) {
                 newShapes[i] = shapes[i].addVertexAfter(index - count);
             } else {
                 newShapes[i] = shapes[i];
@@ -498,17 +536,107 @@ public class ShapeGroup implements Iterable<Shape45> {
         return new Shape45(subs, s.getOutline());
     }
     
+    /**
+     * <p>Subtracts all shapes in {@code sg} from all shapes in this group, in
+     * a single pass. See {@link Shape45#subtract45}.</p>
+     */
     public ShapeGroup subtract45(ShapeGroup sg) {
-        ShapeGroup output = this;
-        for (Shape45 s : sg)
-            output = output.subtract45(s);
-        return output;
+        return boolean45(BooleanOp45.Operation.DIFFERENCE, sg.shapes);
     }
 
+    /**
+     * <p>See {@link Shape45#subtract45}.</p>
+     */
     public ShapeGroup subtract45(Shape45 s) {
-        List<Shape45> output = new ArrayList<>();
-        for (Shape45 sub : shapes)
-            output.addAll(sub.subtract45(s));
+        return boolean45(BooleanOp45.Operation.DIFFERENCE, new Shape45[] { s });
+    }
+
+    /**
+     * <p>Union of all shapes in this group with all shapes in {@code sg}, in
+     * a single pass. Shapes which overlap or touch along an edge are merged.
+     * See {@link Shape45#union45}.</p>
+     */
+    public ShapeGroup union45(ShapeGroup sg) {
+        return boolean45(BooleanOp45.Operation.UNION, sg.shapes);
+    }
+
+    /**
+     * <p>See {@link Shape45#union45}.</p>
+     */
+    public ShapeGroup union45(Shape45 s) {
+        return boolean45(BooleanOp45.Operation.UNION, new Shape45[] { s });
+    }
+
+    /**
+     * <p>Intersection of all shapes in this group with all shapes in {@code
+     * sg}, in a single pass. See {@link Shape45#intersect45}.</p>
+     */
+    public ShapeGroup intersect45(ShapeGroup sg) {
+        return boolean45(BooleanOp45.Operation.INTERSECTION, sg.shapes);
+    }
+
+    /**
+     * <p>See {@link Shape45#intersect45}.</p>
+     */
+    public ShapeGroup intersect45(Shape45 s) {
+        return boolean45(BooleanOp45.Operation.INTERSECTION, new Shape45[] { s });
+    }
+
+    /**
+     * <p>Exclusive-or of all shapes in this group with all shapes in {@code
+     * sg}, in a single pass. See {@link Shape45#xor45}.</p>
+     */
+    public ShapeGroup xor45(ShapeGroup sg) {
+        return boolean45(BooleanOp45.Operation.XOR, sg.shapes);
+    }
+
+    /**
+     * <p>See {@link Shape45#xor45}.</p>
+     */
+    public ShapeGroup xor45(Shape45 s) {
+        return boolean45(BooleanOp45.Operation.XOR, new Shape45[] { s });
+    }
+
+    /**
+     * <p>As {@link #subtract45(ShapeGroup)}, but the result is at twice the
+     * scale of the operands - so it is always exact. See {@link
+     * Shape45#subtract45Doubled}.</p>
+     */
+    public ShapeGroup subtract45Doubled(ShapeGroup sg) {
+        return boolean45Doubled(BooleanOp45.Operation.DIFFERENCE, sg.shapes);
+    }
+
+    /**
+     * <p>As {@link #union45(ShapeGroup)}, at twice the scale - see {@link
+     * #subtract45Doubled}.</p>
+     */
+    public ShapeGroup union45Doubled(ShapeGroup sg) {
+        return boolean45Doubled(BooleanOp45.Operation.UNION, sg.shapes);
+    }
+
+    /**
+     * <p>As {@link #intersect45(ShapeGroup)}, at twice the scale - see {@link
+     * #subtract45Doubled}.</p>
+     */
+    public ShapeGroup intersect45Doubled(ShapeGroup sg) {
+        return boolean45Doubled(BooleanOp45.Operation.INTERSECTION, sg.shapes);
+    }
+
+    /**
+     * <p>As {@link #xor45(ShapeGroup)}, at twice the scale - see {@link
+     * #subtract45Doubled}.</p>
+     */
+    public ShapeGroup xor45Doubled(ShapeGroup sg) {
+        return boolean45Doubled(BooleanOp45.Operation.XOR, sg.shapes);
+    }
+
+    private ShapeGroup boolean45(BooleanOp45.Operation op, Shape45[] other) {
+        List<Shape45> output = BooleanOp45.apply(op, shapes, other);
+        return new ShapeGroup(output.toArray(new Shape45[output.size()]));
+    }
+
+    private ShapeGroup boolean45Doubled(BooleanOp45.Operation op, Shape45[] other) {
+        List<Shape45> output = BooleanOp45.applyDoubled(op, shapes, other);
         return new ShapeGroup(output.toArray(new Shape45[output.size()]));
     }
 
@@ -516,34 +644,52 @@ public class ShapeGroup implements Iterable<Shape45> {
     
     /*---------------------------- GEOMETRY ----------------------------*/
 
-    private void triangulate() {
+    private Triangle[] triangulate() {
 
         int count = 0;
         for (Shape45 s : this)
             count += s.getNumTriangles();
         
-        triangles = new Triangle[count];
+        Triangle[] tris = new Triangle[count];
         int i = 0;
         for (Shape45 s : this) {
             for (int n = 0; n < s.getNumTriangles(); n++) {
-                triangles[i] = s.getTriangle(n);
+                tris[i] = s.getTriangle(n);
                 i++;
             }
         }
+        return tris;
     }
 
 
     
+    /**
+     * <p>Uses a spatial index over the edges (built on first use), so that
+     * only the edges near to {@code p} are tested. Does not require
+     * triangulation.</p>
+     */
     public boolean contains(Pt2D p) {
         return contains(p, true);
     }
     
+    /**
+     * <p>As {@link #contains}, but points which lie on any edge are not
+     * contained.</p>
+     */
     public boolean containsExcludeEdges(Pt2D p) {
         return contains(p, false);
     }
     
     private boolean contains(Pt2D p, boolean includeEdges) {
 
+        if (getNumEdges() == 0 || !getBoundingBox().contains(p))
+            return false;
+
+        ContainmentIndex index = getContainmentIndex();
+        if (index != null)
+            return index.contains(p.x(), p.y(), includeEdges);
+
+        // too large to index - test every triangle
         if (!includeEdges) {
             for (int i = 0; i < getNumEdges(); i++) {
                 if (getEdge(i).contains(p)) {
@@ -553,14 +699,125 @@ public class ShapeGroup implements Iterable<Shape45> {
         }
         
         for (int i = 0; i < getNumTriangles(); i++) {
-            Triangle t = getTriangle(i);
-            if (t.contains(p)) {
+            if (getTriangle(i).contains(p.x(), p.y())) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * <p>Batch version of {@link #contains}: tests every point {@code xs[i],
+     * ys[i]} and writes the result to {@code out[i]}.</p>
+     *
+     * <p>Nothing is allocated per point, and points are bucketed by location
+     * internally, so this is much faster than calling {@link #contains} for
+     * each point of a large point cloud or raster.</p>
+     *
+     * @throws IllegalArgumentException If {@code xs} and {@code ys} are not
+     * the same length, or {@code out} is shorter.
+     */
+    public void containsAll(int[] xs, int[] ys, boolean[] out) {
+        containsAll(xs, ys, out, true);
+    }
+
+    /**
+     * <p>As {@link #containsAll(int[], int[], boolean[])}, but sets bit
+     * {@code i} of {@code out} for each contained point, and clears it
+     * otherwise.</p>
+     */
+    public void containsAll(int[] xs, int[] ys, BitSet out) {
+        boolean[] result = new boolean[xs.length];
+        containsAll(xs, ys, result, true);
+        for (int i = 0; i < result.length; i++)
+            out.set(i, result[i]);
+    }
+
+    /**
+     * <p>Batch version of {@link #containsExcludeEdges}.</p>
+     *
+     * @see #containsAll(int[], int[], boolean[])
+     */
+    public void containsAllExcludeEdges(int[] xs, int[] ys, boolean[] out) {
+        containsAll(xs, ys, out, false);
+    }
+
+    private void containsAll(int[] xs, int[] ys, boolean[] out, boolean includeEdges) {
+        checkBatchArgs(xs, ys, out);
+        if (getNumEdges() == 0) {
+            Arrays.fill(out, 0, xs.length, false);
+            return;
+        }
+        ContainmentIndex index = getContainmentIndex();
+        if (index != null) {
+            index.containsAll(xs, ys, 0, xs.length, includeEdges, out);
+        } else {
+            for (int i = 0; i < xs.length; i++)
+                out[i] = contains(new Pt2D(xs[i], ys[i]), includeEdges);
+        }
+    }
+
+    private static void checkBatchArgs(int[] xs, int[] ys, boolean[] out) {
+        if (xs.length != ys.length)
+            throw new IllegalArgumentException("xs and ys have different lengths: "
+                                               + xs.length + ", " + ys.length);
+        if (out.length < xs.length)
+            throw new IllegalArgumentException("output array too short: "
+                                               + out.length + " < " + xs.length);
+    }
+
+    /**
+     * <p>Parallel version of {@link #containsAll(int[], int[], boolean[])},
+     * using the common {@link ForkJoinPool}.</p>
+     */
+    public void containsAllParallel(int[] xs, int[] ys, boolean[] out) {
+        containsAllParallel(xs, ys, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * <p>Parallel version of {@link #containsAll(int[], int[], boolean[])}:
+     * the points are split into chunks which are classified concurrently by
+     * {@code pool}. Blocks until all points are done.</p>
+     *
+     * <p>The spatial index is built (and memoised) on the calling thread
+     * before any work is handed to the pool, so worker threads only ever read
+     * immutable data.</p>
+     */
+    public void containsAllParallel(int[] xs, int[] ys, boolean[] out,
+                                    ForkJoinPool pool) {
+        checkBatchArgs(xs, ys, out);
+        ContainmentIndex index = getNumEdges() == 0 ? null : getContainmentIndex();
+        if (index != null)
+            index.containsAllParallel(xs, ys, true, out, pool);
+        else
+            containsAll(xs, ys, out, true);
+    }
+
+    /**
+     * @return The containment index, or null if the group is too large to
+     * index.
+     */
+    private ContainmentIndex getContainmentIndex() {
+        ContainmentIndex index = containmentIndex;
+        if (index == null) {
+            Box2D box = getBoundingBox();
+            if (!ContainmentIndex.canIndex(box.sizeX, box.sizeY))
+                return null;
+            synchronized (this) {
+                index = containmentIndex;
+                if (index == null) {
+                    Line[] edges = new Line[getNumEdges()];
+                    int i = 0;
+                    for (Shape45 s : shapes)
+                        for (int n = 0; n < s.getNumEdges(); n++)
+                            edges[i++] = s.getEdge(n);
+                    containmentIndex = index = new ContainmentIndex(edges);
+                }
+            }
+        }
+        return index;
+    }
+
     // public boolean contains(Pt2D p) {
     //     for (int i = 0; i < getNumTriangles(); i++) {
     //         Triangle t = getTriangle(i);
@@ -576,6 +833,9 @@ public class ShapeGroup implements Iterable<Shape45> {
      */
     public Set<Pt2Df> getIntersectionPoints45(ShapeGroup gs) {
         Set<Pt2Df> points = new HashSet<>();
+        if (shapes.length == 0 || gs.shapes.length == 0 ||
+            !getBoundingBox().intersects(gs.getBoundingBox()))
+            return points;
         for (Shape45 s1 : shapes) {
             for (Shape45 s2 : gs.shapes) {
                 points.addAll(s1.getOutline().getIntersectionPoints45(s2.getOutline()));
@@ -585,37 +845,47 @@ public class ShapeGroup implements Iterable<Shape45> {
     }
 
     public Box2D getBoundingBox() {
-        if (boundingBox == null)
-            makeBoundingBox();
-        return boundingBox;
+        Box2D box = boundingBox;
+        if (box == null) {
+            synchronized (this) {
+                box = boundingBox;
+                if (box == null)
+                    boundingBox = box = findBoundingBox();
+            }
+        }
+        return box;
     }
 
     public int getCenterX() {
-        if (boundingBox == null)
-            makeBoundingBox();
-        return boundingBox.centerX;
+        return getBoundingBox().centerX;
     }
 
     public int getCenterY() {
-        if (boundingBox == null)
-            makeBoundingBox();
-        return boundingBox.centerY;
+        return getBoundingBox().centerY;
     }
 
+    /**
+     * <p>Builds the bounding box now, if it has not been built already.</p>
+     */
     public void makeBoundingBox() {
-        Pt2D v = getVertex(0);
-        int lowX  = v.x();
-        int highX = v.x();
-        int lowY  = v.y();
-        int highY = v.y();
-        for (int i = 1; i < getNumVertices(); i++) {
-            v = getVertex(i);
-            if (v.x() < lowX)  lowX  = v.x();
-            if (v.x() > highX) highX = v.x();
-            if (v.y() < lowY)  lowY  = v.y();
-            if (v.y() > highY) highY = v.y();
-        }
-        boundingBox = new Box2D(lowX, lowY, highX, highY);
+        getBoundingBox();
+    }
+
+    private Box2D findBoundingBox() {
+        // merge the shapes' own (memoised) boxes
+        Box2D b = shapes[0].getBoundingBox();
+        int lowX  = b.lowX;
+        int highX = b.highX;
+        int lowY  = b.lowY;
+        int highY = b.highY;
+        for (int i = 1; i < shapes.length; i++) {
+            b = shapes[i].getBoundingBox();
+            if (b.lowX < lowX)   lowX  = b.lowX;
+            if (b.highX > highX) highX = b.highX;
+            if (b.lowY < lowY)   lowY  = b.lowY;
+            if (b.highY > highY) highY = b.highY;
+        }
+        return new Box2D(lowX, lowY, highX, highY);
     }
     
     
@@ -658,6 +928,79 @@ public class ShapeGroup implements Iterable<Shape45> {
 
 
     
+    /*----------------------------- BUILDER ----------------------------*/
+
+    /**
+     * <p>Mutable builder, for assembling a large group in one pass, without
+     * making a new group for each shape added. Shapes may be given as
+     * finished shapes, or as {@link Shape45.Builder builders} - which are
+     * built along with the group.</p>
+     *
+     * <p>Not thread-safe. The builder is unchanged by {@link #build}, and
+     * may go on to build more groups.</p>
+     */
+    public static final class Builder {
+
+        // shapes in order - null where the next of builders goes
+        private final List<Shape45> shapes = new ArrayList<>();
+        private final List<Shape45.Builder> builders = new ArrayList<>();
+
+        /**
+         * @throws NullPointerException If {@code s} is null.
+         */
+        public Builder addShape(Shape45 s) {
+            if (s == null)
+                throw new NullPointerException("shape is null");
+            shapes.add(s);
+            return this;
+        }
+
+        /**
+         * <p>{@code s} is built when this builder is - changes made to it
+         * before then are included.</p>
+         */
+        public Builder addShape(Shape45.Builder s) {
+            builders.add(s);
+            shapes.add(null);
+            return this;
+        }
+
+        public int getNumShapes() {
+            return shapes.size();
+        }
+
+        /**
+         * <p>Builds the group, and checks that it is valid (see {@link
+         * ShapeGroup#isValid}). Each shape is checked once, as part of the
+         * group.</p>
+         *
+         * @throws IllegalStateException If the group is not valid, or a
+         * shape builder is (indirectly) its own sub-shape.
+         */
+        public ShapeGroup build() {
+            Shape45[] built = new Shape45[shapes.size()];
+            int nextBuilder = 0;
+            for (int i = 0; i < built.length; i++) {
+                built[i] = shapes.get(i);
+                if (built[i] == null)
+                    built[i] = builders.get(nextBuilder++).buildUnchecked();
+            }
+            ShapeGroup group = new ShapeGroup(built);
+            boolean valid;
+            try {
+                valid = group.isValid();
+            } catch (IllegalArgumentException e) {
+                // degenerate geometry, e.g. repeated vertices
+                throw new IllegalStateException("invalid shape group: " + e.getMessage(), e);
+            }
+            if (!valid)
+                throw new IllegalStateException("invalid shape group");
+            return group;
+        }
+    }
+
+
+
     /*------------------------------ MISC ------------------------------*/
 
     /**
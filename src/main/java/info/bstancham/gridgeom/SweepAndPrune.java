@@ -0,0 +1,302 @@
+package info.bstancham.gridgeom;
+
+import java.util.Arrays;
+
+/**
+ * <p>Finds all pairs of overlapping axis-aligned boxes by "sort and sweep":
+ * the boxes are sorted by their low x co-ordinate, and swept from left to
+ * right, keeping a set of the boxes whose x-range spans the sweep
+ * position. Each new box need only be compared with the boxes in that active
+ * set.</p>
+ *
+ * <p>For small inputs the active set is a plain list, and each new box is
+ * compared with all of it. Otherwise it is held in a segment tree over the
+ * (distinct) y co-ordinates, so that each new box finds only the active boxes
+ * whose y-range overlaps its own - many long horizontal edges spanning the
+ * same x-range are no longer all compared with one another.</p>
+ *
+ * <p>Used as the broad phase for intersection tests - the boxes are the
+ * bounding boxes of line segments (or of whole shapes), and the caller does
+ * the exact test on each candidate pair.</p>
+ *
+ * <p>COMPLEXITY: O(n log n + k), where k is the number of pairs of boxes
+ * which overlap.</p>
+ */
+final class SweepAndPrune {
+
+    /**
+     * <p>Inputs up to this size are swept with a plain active list, which
+     * avoids building the tree.</p>
+     */
+    private static final int LIST_SWEEP_MAX = 64;
+
+    /**
+     * <p>Receives candidate pairs from the sweep.</p>
+     */
+    interface PairVisitor {
+        /**
+         * @param i Index of the box which entered the sweep first.
+         * @param j Index of the box which entered the sweep second.
+         * @return False, to stop the sweep immediately.
+         */
+        boolean visit(int i, int j);
+    }
+
+    private SweepAndPrune() {}
+
+    /**
+     * <p>Visits every pair of boxes which overlap or touch. Each pair is
+     * visited once only.</p>
+     *
+     * <p>All four arrays must be the same length.</p>
+     *
+     * @return False, if the visitor stopped the sweep early.
+     */
+    static boolean forEachOverlappingPair(int[] minX, int[] minY,
+                                          int[] maxX, int[] maxY,
+                                          PairVisitor visitor) {
+        int n = minX.length;
+        long[] order = sortedByKey(minX);
+        if (n <= LIST_SWEEP_MAX)
+            return listSweep(order, minX, minY, maxX, maxY, visitor);
+        return treeSweep(order, minX, minY, maxX, maxY, visitor);
+    }
+
+    /**
+     * @return Sort keys: the value in the high 32 bits, index in the low 32
+     * bits - so that a single primitive sort orders by value (ties by index).
+     */
+    private static long[] sortedByKey(int[] values) {
+        long[] order = new long[values.length];
+        for (int i = 0; i < values.length; i++)
+            order[i] = ((long) values[i] << 32) | i;
+        Arrays.sort(order);
+        return order;
+    }
+
+    private static boolean listSweep(long[] order, int[] minX, int[] minY,
+                                     int[] maxX, int[] maxY, PairVisitor visitor) {
+        int n = order.length;
+        int[] active = new int[n];
+        int numActive = 0;
+        for (int k = 0; k < n; k++) {
+            int j = (int) order[k];
+            int x = minX[j];
+
+            // drop boxes which end before the sweep position, comparing the
+            // new box with those which remain
+            int keep = 0;
+            for (int a = 0; a < numActive; a++) {
+                int i = active[a];
+                if (maxX[i] < x)
+                    continue;
+                active[keep++] = i;
+                if (minY[j] <= maxY[i] && minY[i] <= maxY[j])
+                    if (!visitor.visit(i, j))
+                        return false;
+            }
+            numActive = keep;
+            active[numActive++] = j;
+        }
+        return true;
+    }
+
+    private static boolean treeSweep(long[] order, int[] minX, int[] minY,
+                                     int[] maxX, int[] maxY, PairVisitor visitor) {
+        int n = order.length;
+        long[] ends = sortedByKey(maxX);
+        ActiveTree tree = new ActiveTree(minY, maxY);
+        int e = 0;
+        for (int k = 0; k < n; k++) {
+            int j = (int) order[k];
+            int x = minX[j];
+            // drop boxes which end before the sweep position
+            while (e < n && (int) (ends[e] >> 32) < x)
+                tree.remove((int) ends[e++]);
+            if (!tree.forEachOverlap(j, visitor))
+                return false;
+            tree.add(j);
+        }
+        return true;
+    }
+
+    /**
+     * <p>The active boxes, as a segment tree over the ranks of the distinct
+     * y co-ordinates. An active box {@code i} is listed:</p>
+     *
+     * <ul>
+     * <li>in the <i>cover</i> list of each node in the canonical
+     * decomposition of its y-range - so that the boxes spanning a given y are
+     * found on the path from that leaf to the root.</li>
+     * <li>in the <i>start</i> list of each node on the path from the leaf of
+     * its low y to the root - so that the boxes whose low y lies in a given
+     * range are found at the nodes of that range's decomposition.</li>
+     * </ul>
+     *
+     * <p>A box overlaps range {@code lo-hi} if it either spans {@code lo}, or
+     * starts in {@code lo+1 - hi} - never both - so each overlap is found
+     * exactly once.
+     * Removed boxes are dropped from a list when it is next read.</p>
+     */
+    private static final class ActiveTree {
+
+        private final int[] lowRank;
+        private final int[] highRank;
+        private final int numLeaves;
+        private final boolean[] active;
+
+        private final int[][] cover;
+        private final int[] coverSize;
+        private final int[][] start;
+        private final int[] startSize;
+
+        ActiveTree(int[] minY, int[] maxY) {
+            int n = minY.length;
+            int[] ys = new int[n * 2];
+            System.arraycopy(minY, 0, ys, 0, n);
+            System.arraycopy(maxY, 0, ys, n, n);
+            Arrays.sort(ys);
+            int m = 0;
+            for (int i = 0; i < ys.length; i++)
+                if (m == 0 || ys[i] != ys[m - 1])
+                    ys[m++] = ys[i];
+            lowRank = new int[n];
+            highRank = new int[n];
+            for (int i = 0; i < n; i++) {
+                lowRank[i] = Arrays.binarySearch(ys, 0, m, minY[i]);
+                highRank[i] = Arrays.binarySearch(ys, 0, m, maxY[i]);
+            }
+            numLeaves = Integer.highestOneBit(Math.max(1, m - 1)) * 2;
+            active = new boolean[n];
+            cover = new int[numLeaves * 2][];
+            coverSize = new int[numLeaves * 2];
+            start = new int[numLeaves * 2][];
+            startSize = new int[numLeaves * 2];
+        }
+
+        void add(int i) {
+            active[i] = true;
+            for (int node = numLeaves + lowRank[i]; node > 0; node >>= 1)
+                append(start, startSize, node, i);
+            int l = numLeaves + lowRank[i];
+            int r = numLeaves + highRank[i] + 1;
+            for (; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1)
+                    append(cover, coverSize, l++, i);
+                if ((r & 1) == 1)
+                    append(cover, coverSize, --r, i);
+            }
+        }
+
+        void remove(int i) {
+            active[i] = false;
+        }
+
+        /**
+         * <p>Visits {@code (i, j)} for each active box {@code i} whose
+         * y-range overlaps that of box {@code j}.</p>
+         *
+         * @return False, if the visitor stopped early.
+         */
+        boolean forEachOverlap(int j, PairVisitor visitor) {
+            int lo = lowRank[j];
+            int hi = highRank[j];
+            // boxes spanning lo
+            for (int node = numLeaves + lo; node > 0; node >>= 1)
+                if (!visit(cover, coverSize, node, j, visitor))
+                    return false;
+            // boxes starting in lo+1 - hi
+            int l = numLeaves + lo + 1;
+            int r = numLeaves + hi + 1;
+            for (; l < r; l >>= 1, r >>= 1) {
+                if ((l & 1) == 1 && !visit(start, startSize, l++, j, visitor))
+                    return false;
+                if ((r & 1) == 1 && !visit(start, startSize, --r, j, visitor))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * <p>Visits the active boxes listed at {@code node}, compacting out
+         * removed boxes as it goes.</p>
+         */
+        private boolean visit(int[][] lists, int[] sizes, int node, int j,
+                              PairVisitor visitor) {
+            int[] list = lists[node];
+            int keep = 0;
+            for (int a = 0; a < sizes[node]; a++) {
+                int i = list[a];
+                if (!active[i])
+                    continue;
+                list[keep++] = i;
+                // stopping abandons the whole sweep, so the list needn't
+                // be left tidy
+                if (!visitor.visit(i, j))
+                    return false;
+            }
+            sizes[node] = keep;
+            return true;
+        }
+
+        private static void append(int[][] lists, int[] sizes, int node, int i) {
+            int[] list = lists[node];
+            if (list == null)
+                lists[node] = list = new int[4];
+            else if (sizes[node] == list.length)
+                lists[node] = list = Arrays.copyOf(list, list.length * 2);
+            list[sizes[node]++] = i;
+        }
+    }
+
+    /**
+     * <p>Visits every pair of shapes whose bounding boxes overlap or touch
+     * (see {@link Shape45#getBoundingBox}). Indices are into {@code
+     * shapes}.</p>
+     *
+     * @return False, if the visitor stopped the sweep early.
+     */
+    static boolean forEachOverlappingShapePair(Shape45[] shapes, PairVisitor visitor) {
+        int n = shapes.length;
+        int[] minX = new int[n];
+        int[] minY = new int[n];
+        int[] maxX = new int[n];
+        int[] maxY = new int[n];
+        for (int i = 0; i < n; i++) {
+            Box2D b = shapes[i].getBoundingBox();
+            minX[i] = b.lowX;
+            minY[i] = b.lowY;
+            maxX[i] = b.highX;
+            maxY[i] = b.highY;
+        }
+        return forEachOverlappingPair(minX, minY, maxX, maxY, visitor);
+    }
+
+    /**
+     * <p>Visits every pair of edges of {@code poly} whose bounding boxes
+     * overlap or touch. Edge {@code i} runs from vertex {@code i} to vertex
+     * {@code i + 1}, as for {@link Polygon#getEdge}.</p>
+     *
+     * @return False, if the visitor stopped the sweep early.
+     */
+    static boolean forEachOverlappingEdgePair(Polygon poly, PairVisitor visitor) {
+        int n = poly.getNumVertices();
+        int[] minX = new int[n];
+        int[] minY = new int[n];
+        int[] maxX = new int[n];
+        int[] maxY = new int[n];
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1 == n ? 0 : i + 1);
+            int x1 = poly.getVertexX(i);
+            int y1 = poly.getVertexY(i);
+            int x2 = poly.getVertexX(j);
+            int y2 = poly.getVertexY(j);
+            minX[i] = Math.min(x1, x2);
+            minY[i] = Math.min(y1, y2);
+            maxX[i] = Math.max(x1, x2);
+            maxY[i] = Math.max(y1, y2);
+        }
+        return forEachOverlappingPair(minX, minY, maxX, maxY, visitor);
+    }
+
+}
@@ -7,10 +7,32 @@ import static info.bstancham.gridgeom.Geom2D.WindingDir;
  */
 public class Triangle extends Polygon {
 
-    private Boolean degenerate = null;
+    // 1 if counter-clockwise, -1 if clockwise, or 0 if degenerate
+    private final int side;
+
+    // half-plane coefficients of each edge, so that {@code nx * x + ny * y +
+    // k} is positive on the inside of the edge, zero on the edge's line, and
+    // negative on the outside (all zero if degenerate)
+    private final long nx0, ny0, k0;
+    private final long nx1, ny1, k1;
+    private final long nx2, ny2, k2;
 
     public Triangle(Pt2D v1, Pt2D v2, Pt2D v3) {
-        super(new Pt2D[] { v1, v2, v3 });
+        this(v1.x(), v1.y(), v2.x(), v2.y(), v3.x(), v3.y());
+    }
+
+    public Triangle(int x1, int y1, int x2, int y2, int x3, int y3) {
+        super(new int[] { x1, x2, x3 }, new int[] { y1, y2, y3 }, false);
+        side = Long.signum(Geom2D.orient(x1, y1, x2, y2, x3, y3));
+        nx0 = side * ((long) y1 - y2);
+        ny0 = side * ((long) x2 - x1);
+        k0 = -(nx0 * x1 + ny0 * y1);
+        nx1 = side * ((long) y2 - y3);
+        ny1 = side * ((long) x3 - x2);
+        k1 = -(nx1 * x2 + ny1 * y2);
+        nx2 = side * ((long) y3 - y1);
+        ny2 = side * ((long) x1 - x3);
+        k2 = -(nx2 * x3 + ny2 * y3);
     }
 
     public Pt2D a() {
@@ -35,23 +57,15 @@ public class Triangle extends Polygon {
     public Pt2Df centroid() {
         // The coordinates of the centroid are simply the average of
         // the coordinates of the vertices.
-        return new Pt2Df((a().x() + b().x() + c().x()) / 3.0f,
-                         (a().y() + b().y() + c().y()) / 3.0f);
+        return new Pt2Df((getVertexX(0) + getVertexX(1) + getVertexX(2)) / 3.0f,
+                         (getVertexY(0) + getVertexY(1) + getVertexY(2)) / 3.0f);
     }
 
     @Override
     public WindingDir getWindingDir() {
-        if (winding == null) {
-            if (isDegenerate()) {
-                winding = WindingDir.INDETERMINATE;
-            } else {
-                int dir = Geom2D.turnDirection(a(), b(), c());
-                if      (dir < 0) winding = WindingDir.CCW;
-                else if (dir > 0) winding = WindingDir.CW;
-                else              winding = WindingDir.INDETERMINATE;
-            }
-        }
-        return winding;
+        if      (side > 0) return WindingDir.CCW;
+        else if (side < 0) return WindingDir.CW;
+        else               return WindingDir.INDETERMINATE;
     }
 
     @Override
@@ -60,40 +74,44 @@ public class Triangle extends Polygon {
     }
 
     public boolean isDegenerate() {
-        if (degenerate == null)
-            degenerate = Geom2D.collinear(a(), b(), c());
-        return degenerate;
+        return side == 0;
     }
 
     public boolean contains(Pt2D p) {
-        return contains(p, true);
+        return contains(p.x(), p.y(), true);
     }
 
     public boolean containsExcludeEdges(Pt2D p) {
-        return contains(p, false);
+        return contains(p.x(), p.y(), false);
     }
 
-    private boolean contains(Pt2D p, boolean includeEdges) {
-        if (isDegenerate() ||
-            (!isCCWWinding() && !isCWWinding()))
-            return false;
+    public boolean contains(int x, int y) {
+        return contains(x, y, true);
+    }
+
+    public boolean containsExcludeEdges(int x, int y) {
+        return contains(x, y, false);
+    }
 
-        for (int i = 0; i < getNumEdges(); i++) {
-            Line edge = getEdge(i);
-
-            // can exit early if point is on edge
-            if (edge.contains(p))
-                return includeEdges;
-
-            if (isCCWWinding()) {
-                if (!Geom2D.onRelativeLeftSide(edge.toFloat(), p.toFloat()))
-                    return false;
-            } else {
-                if (!Geom2D.onRelativeRightSide(edge.toFloat(), p.toFloat()))
-                    return false;
-            }
-        }
-        return true;
+    /**
+     * <p>Exact, using the edge coefficients computed on construction, and
+     * allocates nothing. Co-ordinates must be in the range supported by
+     * {@link Geom2D#orient}.</p>
+     */
+    private boolean contains(int x, int y, boolean includeEdges) {
+        if (side == 0)
+            return false;
+        long d0 = nx0 * x + ny0 * y + k0;
+        if (d0 < 0)
+            return false;
+        long d1 = nx1 * x + ny1 * y + k1;
+        if (d1 < 0)
+            return false;
+        long d2 = nx2 * x + ny2 * y + k2;
+        if (d2 < 0)
+            return false;
+        // inside or on all three edges - on the boundary if on any of them
+        return includeEdges || (d0 != 0 && d1 != 0 && d2 != 0);
     }
 
 }
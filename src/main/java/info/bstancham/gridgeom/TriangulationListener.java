@@ -0,0 +1,57 @@
+package info.bstancham.gridgeom;
+
+/**
+ * <p>Optional receiver for diagnostic events from triangulation.</p>
+ *
+ * <p>All methods have empty default implementations, so a listener need only
+ * override the events it is interested in. When no listener is attached, the
+ * triangulators skip all event reporting - including the calls to {@link
+ * System#nanoTime} - so there is no cost by default.</p>
+ *
+ * <p>A listener can be passed directly to the static triangulation methods in
+ * {@link Polygon}, or installed for ALL triangulation (including the lazy
+ * triangulation done by {@link Shape45} and {@link ShapeGroup}) with {@link
+ * Polygon#setTriangulationListener}. In the latter case the listener may be
+ * called from several threads at once, so it must be thread-safe.</p>
+ */
+public interface TriangulationListener {
+
+    /**
+     * <p>Called once before triangulation of each polygon begins.</p>
+     */
+    default void started(int numVertices) {}
+
+    /**
+     * <p>Called each time an ear is clipped (i.e. a triangle is output by the
+     * ear-clipping triangulator).</p>
+     */
+    default void earClipped() {}
+
+    /**
+     * <p>Called when a full circuit of the remaining vertices finds no ear,
+     * and the triangulator falls back to a more expensive pass.</p>
+     *
+     * @param pass The pass being started: {@code 1} = filter out duplicate
+     * and collinear vertices; {@code 2} = cure local self-intersections;
+     * {@code 3} = split the polygon along a diagonal.
+     * @param numRemaining Number of vertices not yet clipped.
+     */
+    default void retry(int pass, int numRemaining) {}
+
+    /**
+     * <p>Called each time an attempt is made to bridge a hole into the
+     * outline of a shape.</p>
+     *
+     * @param success False, if no valid bridge could be found.
+     */
+    default void bridgeAttempt(boolean success) {}
+
+    /**
+     * <p>Called once when triangulation of each polygon is complete.</p>
+     *
+     * @param numTriangles Number of triangles produced.
+     * @param elapsedNanos Wall-clock time taken, in nanoseconds.
+     */
+    default void finished(int numTriangles, long elapsedNanos) {}
+
+}
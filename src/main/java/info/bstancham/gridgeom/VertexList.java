@@ -0,0 +1,358 @@
+package info.bstancham.gridgeom;
+
+import java.util.Arrays;
+
+/**
+ * <p>Immutable, persistent list of {@code int} co-ordinate vertices.</p>
+ *
+ * <p>Held as a tree: the leaves are small arrays of up to {@value #MAX_LEAF}
+ * vertices, and each branch has up to {@value #MAX_BRANCH} children. An edit
+ * copies only the leaf containing the vertex and the branches on the path
+ * down to it, and shares every other node with the original list - so
+ * {@link #set}, {@link #insert} and {@link #remove} each copy O(log n)
+ * data.</p>
+ *
+ * <p>Used by {@link Shape45} so that single-vertex edits don't copy the whole
+ * outline. Geometry is done on the flat arrays of a {@link Polygon}, built
+ * from the list with {@link #copyTo} when first needed.</p>
+ *
+ * <p>Branches may become under-full after removals (they are not merged), so
+ * the depth is bounded by the largest size the list has had, rather than its
+ * current size.</p>
+ */
+final class VertexList {
+
+    private static final int MAX_LEAF = 32;
+    private static final int MAX_BRANCH = 32;
+
+    private static final VertexList EMPTY = new VertexList(new Leaf(new int[0]));
+
+    private final Node root;
+
+    private VertexList(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @param xs Must be the same length as {@code ys}.
+     */
+    static VertexList of(int[] xs, int[] ys) {
+        int n = xs.length;
+        if (n == 0)
+            return EMPTY;
+
+        // full leaves...
+        Node[] level = new Node[(n + MAX_LEAF - 1) / MAX_LEAF];
+        for (int l = 0; l < level.length; l++) {
+            int start = l * MAX_LEAF;
+            int len = Math.min(MAX_LEAF, n - start);
+            int[] xy = new int[len * 2];
+            for (int i = 0; i < len; i++) {
+                xy[i * 2] = xs[start + i];
+                xy[i * 2 + 1] = ys[start + i];
+            }
+            level[l] = new Leaf(xy);
+        }
+        // ... then full branches, level by level
+        while (level.length > 1) {
+            Node[] up = new Node[(level.length + MAX_BRANCH - 1) / MAX_BRANCH];
+            for (int b = 0; b < up.length; b++) {
+                int start = b * MAX_BRANCH;
+                Node[] children = new Node[Math.min(MAX_BRANCH, level.length - start)];
+                System.arraycopy(level, start, children, 0, children.length);
+                up[b] = new Branch(children);
+            }
+            level = up;
+        }
+        return new VertexList(level[0]);
+    }
+
+    static VertexList of(Polygon poly) {
+        int n = poly.getNumVertices();
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = poly.getVertexX(i);
+            ys[i] = poly.getVertexY(i);
+        }
+        return of(xs, ys);
+    }
+
+    int size() {
+        return root.size;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException If {@code index} is out of range.
+     */
+    int getX(int index) {
+        return get(index, 0);
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException If {@code index} is out of range.
+     */
+    int getY(int index) {
+        return get(index, 1);
+    }
+
+    /**
+     * @param offset 0 for x, 1 for y.
+     */
+    private int get(int index, int offset) {
+        checkIndex(index, size());
+        Node n = root;
+        while (n instanceof Branch) {
+            Node[] children = ((Branch) n).children;
+            int c = 0;
+            while (index >= children[c].size)
+                index -= children[c++].size;
+            n = children[c];
+        }
+        return ((Leaf) n).xy[index * 2 + offset];
+    }
+
+    /**
+     * <p>COMPLEXITY: O(n) - but reads the leaves in place, without copying
+     * them.</p>
+     */
+    boolean contains(int x, int y) {
+        return contains(root, x, y);
+    }
+
+    /**
+     * @return A copy of this list, with vertex {@code index} set to {@code
+     * x, y}.
+     * @throws IndexOutOfBoundsException If {@code index} is out of range.
+     */
+    VertexList set(int index, int x, int y) {
+        checkIndex(index, size());
+        return new VertexList(set(root, index, x, y));
+    }
+
+    /**
+     * @return A copy of this list, with a new vertex inserted at {@code
+     * index} - so that it has that index in the new list.
+     * @throws IndexOutOfBoundsException If {@code index} is not in the range
+     * {@code 0} to {@code size()} inclusive.
+     */
+    VertexList insert(int index, int x, int y) {
+        checkIndex(index, size() + 1);
+        Node[] r = insert(root, index, x, y);
+        return new VertexList(r.length == 1 ? r[0] : new Branch(r));
+    }
+
+    /**
+     * @return A copy of this list, with vertex {@code index} removed.
+     * @throws IndexOutOfBoundsException If {@code index} is out of range.
+     */
+    VertexList remove(int index) {
+        checkIndex(index, size());
+        Node r = remove(root, index);
+        if (r == null)
+            return EMPTY;
+        // drop redundant levels
+        while (r instanceof Branch && ((Branch) r).children.length == 1)
+            r = ((Branch) r).children[0];
+        return new VertexList(r);
+    }
+
+    /**
+     * @return Twice the signed area enclosed by the vertices, taken as a
+     * closed ring - positive for counter-clockwise winding.
+     */
+    long doubleArea() {
+        if (root.size == 0)
+            return 0;
+        // start with the closing edge, from the last vertex to the first
+        int[] prev = { getX(root.size - 1), getY(root.size - 1) };
+        return doubleArea(root, prev);
+    }
+
+    /**
+     * <p>Copies the co-ordinates into {@code xs} and {@code ys}, which must
+     * have room for {@link #size} vertices.</p>
+     */
+    void copyTo(int[] xs, int[] ys) {
+        copyTo(root, xs, ys, 0);
+    }
+
+
+
+    /*------------------------------ NODES -----------------------------*/
+
+    private abstract static class Node {
+        final int size;
+        Node(int size) {
+            this.size = size;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        // x0, y0, x1, y1 ...
+        final int[] xy;
+        Leaf(int[] xy) {
+            super(xy.length / 2);
+            this.xy = xy;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node[] children;
+        Branch(Node[] children) {
+            super(totalSize(children));
+            this.children = children;
+        }
+        private static int totalSize(Node[] children) {
+            int n = 0;
+            for (Node c : children)
+                n += c.size;
+            return n;
+        }
+    }
+
+    private static Node set(Node n, int index, int x, int y) {
+        if (n instanceof Leaf) {
+            int[] xy = ((Leaf) n).xy.clone();
+            xy[index * 2] = x;
+            xy[index * 2 + 1] = y;
+            return new Leaf(xy);
+        }
+        Node[] children = ((Branch) n).children.clone();
+        int c = 0;
+        while (index >= children[c].size)
+            index -= children[c++].size;
+        children[c] = set(children[c], index, x, y);
+        return new Branch(children);
+    }
+
+    /**
+     * @return The replacement for {@code n}: one node, or two if it had to
+     * be split.
+     */
+    private static Node[] insert(Node n, int index, int x, int y) {
+        if (n instanceof Leaf) {
+            int[] old = ((Leaf) n).xy;
+            int[] xy = new int[old.length + 2];
+            System.arraycopy(old, 0, xy, 0, index * 2);
+            xy[index * 2] = x;
+            xy[index * 2 + 1] = y;
+            System.arraycopy(old, index * 2, xy, index * 2 + 2, old.length - index * 2);
+            if (xy.length / 2 <= MAX_LEAF)
+                return new Node[] { new Leaf(xy) };
+            int half = (xy.length / 4) * 2;
+            return new Node[] {
+                new Leaf(Arrays.copyOfRange(xy, 0, half)),
+                new Leaf(Arrays.copyOfRange(xy, half, xy.length))
+            };
+        }
+
+        Node[] old = ((Branch) n).children;
+        // appending goes into the last child
+        int c = 0;
+        while (c < old.length - 1 && index > old[c].size)
+            index -= old[c++].size;
+        if (index > old[c].size)
+            index = old[c].size;
+        Node[] r = insert(old[c], index, x, y);
+
+        Node[] children = new Node[old.length + r.length - 1];
+        System.arraycopy(old, 0, children, 0, c);
+        System.arraycopy(r, 0, children, c, r.length);
+        System.arraycopy(old, c + 1, children, c + r.length, old.length - c - 1);
+        if (children.length <= MAX_BRANCH)
+            return new Node[] { new Branch(children) };
+        int half = children.length / 2;
+        return new Node[] {
+            new Branch(Arrays.copyOfRange(children, 0, half)),
+            new Branch(Arrays.copyOfRange(children, half, children.length))
+        };
+    }
+
+    /**
+     * @return The replacement for {@code n}, or null if it is now empty.
+     */
+    private static Node remove(Node n, int index) {
+        if (n instanceof Leaf) {
+            int[] old = ((Leaf) n).xy;
+            if (old.length == 2)
+                return null;
+            int[] xy = new int[old.length - 2];
+            System.arraycopy(old, 0, xy, 0, index * 2);
+            System.arraycopy(old, index * 2 + 2, xy, index * 2, xy.length - index * 2);
+            return new Leaf(xy);
+        }
+
+        Node[] old = ((Branch) n).children;
+        int c = 0;
+        while (index >= old[c].size)
+            index -= old[c++].size;
+        Node r = remove(old[c], index);
+
+        if (r != null) {
+            Node[] children = old.clone();
+            children[c] = r;
+            return new Branch(children);
+        }
+        if (old.length == 1)
+            return null;
+        Node[] children = new Node[old.length - 1];
+        System.arraycopy(old, 0, children, 0, c);
+        System.arraycopy(old, c + 1, children, c, old.length - c - 1);
+        return new Branch(children);
+    }
+
+    private static boolean contains(Node n, int x, int y) {
+        if (n instanceof Leaf) {
+            int[] xy = ((Leaf) n).xy;
+            for (int i = 0; i < xy.length; i += 2)
+                if (xy[i] == x && xy[i + 1] == y)
+                    return true;
+            return false;
+        }
+        for (Node c : ((Branch) n).children)
+            if (contains(c, x, y))
+                return true;
+        return false;
+    }
+
+    /**
+     * @param prev The vertex before the first in {@code n} - updated to the
+     * last in {@code n}.
+     */
+    private static long doubleArea(Node n, int[] prev) {
+        long sum = 0;
+        if (n instanceof Leaf) {
+            int[] xy = ((Leaf) n).xy;
+            for (int i = 0; i < xy.length; i += 2) {
+                sum += (long) prev[0] * xy[i + 1] - (long) xy[i] * prev[1];
+                prev[0] = xy[i];
+                prev[1] = xy[i + 1];
+            }
+            return sum;
+        }
+        for (Node c : ((Branch) n).children)
+            sum += doubleArea(c, prev);
+        return sum;
+    }
+
+    private static int copyTo(Node n, int[] xs, int[] ys, int offset) {
+        if (n instanceof Leaf) {
+            int[] xy = ((Leaf) n).xy;
+            for (int i = 0; i < n.size; i++) {
+                xs[offset + i] = xy[i * 2];
+                ys[offset + i] = xy[i * 2 + 1];
+            }
+            return offset + n.size;
+        }
+        for (Node c : ((Branch) n).children)
+            offset = copyTo(c, xs, ys, offset);
+        return offset;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+    }
+
+}
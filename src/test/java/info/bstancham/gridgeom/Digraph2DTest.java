@@ -1,5 +1,11 @@
 package info.bstancham.gridgeom;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -118,6 +124,60 @@ public class Digraph2DTest {
         dg.addLine(a2, a3, idShapeA);
         assertTrue(dg.isConnected(a2, a3));
 
+        // lookup is by value, and treats -0.0 the same as 0.0
+        Digraph2D dg2 = new Digraph2D();
+        dg2.addLine(new Pt2Df(0, 0), new Pt2Df(1.5f, 2), idShapeA);
+        assertTrue(dg2.contains(new Pt2Df(-0.0f, 0)));
+        assertNotNull(dg2.getNode(new Pt2Df(1.5f, 2)));
+        assertNull(dg2.getNode(new Pt2Df(1.5f, 2.5f)));
+        assertFalse(dg2.addNode(dg2.new Node(new Pt2Df(0, -0.0f))));
+        assertTrue(dg2.addNode(dg2.new Node(new Pt2Df(7, 7))));
+        assertEquals(3, dg2.getNumNodes());
+        assertTrue(dg2.remove(new Pt2Df(7, 7)));
+        assertFalse(dg2.contains(new Pt2Df(7, 7)));
+        assertEquals(2, dg2.getNumNodes());
+    }
+
+    @Test
+    public void testAddLines() {
+
+        // random 45-compliant lines on a small grid, so that there are many
+        // crossings, T-junctions and collinear overlaps
+        Random rand = new Random(3);
+        int[][] dirs = { {1, 0}, {0, 1}, {1, 1}, {1, -1} };
+        for (int trial = 0; trial < 20; trial++) {
+            List<Line> lines1 = new ArrayList<>();
+            List<Line> lines2 = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                int[] d = dirs[rand.nextInt(dirs.length)];
+                int x = rand.nextInt(12);
+                int y = rand.nextInt(12);
+                int len = 1 + rand.nextInt(8);
+                Line ln = new Line(x, y, x + d[0] * len, y + d[1] * len);
+                (i % 2 == 0 ? lines1 : lines2).add(ln);
+            }
+
+            Digraph2D single = new Digraph2D();
+            for (Line ln : lines1) single.addLine(ln, idShapeA);
+            for (Line ln : lines2) single.addLine(ln, idShapeB);
+
+            Digraph2D batch = new Digraph2D();
+            batch.addLines(lines1, idShapeA);
+            batch.addLines(lines2, idShapeB);
+
+            assertEquals(connectionSet(single), connectionSet(batch));
+            assertEquals(single.getNumNodes(), batch.getNumNodes());
+        }
+    }
+
+    private static Set<String> connectionSet(Digraph2D dg) {
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i < dg.getNumNodes(); i++)
+            for (Digraph2D.Connection c : dg.getNode(i).getConnectionsForward())
+                set.add(c.getOrigin().getPoint() + "->"
+                        + c.getDestination().getPoint() + " "
+                        + new TreeSet<>(c.getIDs()));
+        return set;
     }
 
     @Test
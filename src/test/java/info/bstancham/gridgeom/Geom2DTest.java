@@ -35,6 +35,30 @@ public class Geom2DTest {
         assertEquals(-1, Geom2D.turnDirection(p1, p2, p3)); // LEFT/CCW
         assertEquals(1, Geom2D.turnDirection(p1, p3, p2)); // RIGHT/CW
         assertEquals(0, Geom2D.turnDirection(p1, p3, p4)); // NO TURN
+
+        // exact at large co-ordinates, where floats can't tell the points
+        // apart
+        int big = 1 << 29;
+        Pt2D q1 = new Pt2D(big, big);
+        Pt2D q2 = new Pt2D(big + 2, big + 1);
+        Pt2D q3 = new Pt2D(big + 4, big + 3);
+        assertEquals(-1, Geom2D.turnDirection(q1, q2, q3));
+        assertEquals(1, Geom2D.turnDirection(q3, q2, q1));
+        assertEquals(0, Geom2D.turnDirection(q1, q2, new Pt2D(big + 4, big + 2)));
+    }
+
+    @Test
+    public void testOrient() {
+        // twice the signed area
+        assertEquals(8, Geom2D.orient(0, 0, 4, 0, 0, 2));
+        assertEquals(-8, Geom2D.orient(0, 0, 0, 2, 4, 0));
+        assertEquals(0, Geom2D.orient(0, 0, 4, 2, -2, -1));
+        // no overflow at the extremes of the supported range
+        int m = (1 << 30) - 1;
+        assertEquals(4L * m * m, Geom2D.orient(-m, -m, m, -m, -m, m));
+        assertEquals(-4L * m * m, Geom2D.orient(-m, -m, -m, m, m, -m));
+        assertTrue(Geom2D.collinear(-m, -m, 0, 0, m, m));
+        assertFalse(Geom2D.collinear(-m, -m, 0, 0, m, m - 1));
     }
 
     @Test
@@ -14,6 +14,75 @@ public class LineTest {
 
         // vert/horiz
 
+        // every pairing of 45-compliant directions agrees with Linef
+        int[][] dirs = { {1, 0}, {0, 1}, {1, 1}, {1, -1}, {-1, 0}, {0, -1}, {-1, -1}, {-1, 1} };
+        for (int[] d1 : dirs) {
+            for (int[] d2 : dirs) {
+                Line l1 = new Line(2, 3, 2 + d1[0] * 6, 3 + d1[1] * 6);
+                Line l2 = new Line(5, -1, 5 + d2[0] * 4, -1 + d2[1] * 4);
+                assertEquals(l1.toFloat().getIntersectionPoint45(l2.toFloat()),
+                             l1.getIntersectionPoint45(l2));
+            }
+        }
+        // half-integer result
+        assertEquals(new Pt2Df(1.5f, 1.5f),
+                     new Line(0, 0, 4, 4).getIntersectionPoint45(new Line(0, 3, 3, 0)));
+    }
+
+    @Test
+    public void testGetIntersectionPointDoubled45() {
+
+        // every pairing of 45-compliant directions agrees with the float
+        // version, restricted to the segments
+        int[][] dirs = { {1, 0}, {0, 1}, {1, 1}, {1, -1}, {-1, 0}, {0, -1}, {-1, -1}, {-1, 1} };
+        for (int[] d1 : dirs) {
+            for (int[] d2 : dirs) {
+                for (int len = 1; len <= 6; len++) {
+                    Line l1 = new Line(2, 3, 2 + d1[0] * 6, 3 + d1[1] * 6);
+                    Line l2 = new Line(5, -1, 5 + d2[0] * len, -1 + d2[1] * len);
+                    Pt2Df expected = l1.getIntersectionPoint45(l2);
+                    if (expected != null && !(l1.boundingBoxContains(expected) &&
+                                              l2.boundingBoxContains(expected)))
+                        expected = null;
+                    long p = l1.getIntersectionPointDoubled45(l2);
+                    if (expected == null) {
+                        assertEquals(Line.NO_INTERSECTION_POINT, p);
+                    } else {
+                        assertEquals(expected.x() * 2, Line.doubledX(p));
+                        assertEquals(expected.y() * 2, Line.doubledY(p));
+                    }
+                }
+            }
+        }
+
+        // half-integer result
+        long p = new Line(0, 0, 4, 4).getIntersectionPointDoubled45(new Line(0, 3, 3, 0));
+        assertEquals(3, Line.doubledX(p));
+        assertEquals(3, Line.doubledY(p));
+
+        // negative co-ordinates survive packing
+        p = new Line(-10, -7, -4, -7).getIntersectionPointDoubled45(new Line(-6, -9, -6, 0));
+        assertEquals(-12, Line.doubledX(p));
+        assertEquals(-14, Line.doubledY(p));
+
+        // exact at large co-ordinates, where floats are not
+        int big = (1 << 30) - 3;
+        p = new Line(big - 4, big - 4, big, big).getIntersectionPointDoubled45(
+                new Line(big - 4, big - 1, big - 1, big - 4));
+        assertEquals(2L * big - 5, Line.doubledX(p));
+        assertEquals(2L * big - 5, Line.doubledY(p));
+
+        // parallel and collinear lines have no single point
+        assertEquals(Line.NO_INTERSECTION_POINT,
+                     new Line(0, 0, 4, 0).getIntersectionPointDoubled45(new Line(2, 0, 6, 0)));
+        assertEquals(Line.NO_INTERSECTION_POINT,
+                     new Line(0, 0, 4, 4).getIntersectionPointDoubled45(new Line(0, 1, 4, 5)));
+
+        // out of range
+        int huge = Integer.MAX_VALUE - 1;
+        assertThrows(ArithmeticException.class,
+                     () -> new Line(huge - 4, huge, huge, huge)
+                     .getIntersectionPointDoubled45(new Line(huge - 2, huge - 2, huge - 2, huge)));
     }
 
     @Test
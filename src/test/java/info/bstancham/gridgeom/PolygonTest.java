@@ -65,7 +65,55 @@ public class PolygonTest {
         expected.add(new Pt2Df(3, 6));
         expected.add(new Pt2Df(3, 7));
         assertEquals(expected, rect3.getIntersectionPoints45(rect4));
-        
+
+        // diamonds crossing at half units - exact in doubled co-ordinates
+        Polygon d1 = new Polygon(new Pt2D(0, -3), new Pt2D(3, 0),
+                                 new Pt2D(0, 3), new Pt2D(-3, 0));
+        Polygon d2 = d1.shift(1, 0);
+        long[] doubled = d1.getIntersectionPointsDoubled45(d2);
+        assertArrayEquals(new long[] { Line.packDoubled(1, 5), Line.packDoubled(1, -5) },
+                          doubled);
+        expected = new HashSet<>();
+        expected.add(new Pt2Df(0.5f, -2.5f));
+        expected.add(new Pt2Df(0.5f, 2.5f));
+        assertEquals(expected, d1.getIntersectionPoints45(d2));
+        assertTrue(d1.intersectsIgnoreSharedVertices45(d2));
+
+        // in packed order and without duplicates
+        Line ln = new Line(-4, 0, 4, 0);
+        assertArrayEquals(new long[] { Line.packDoubled(-6, 0), Line.packDoubled(6, 0) },
+                          d1.getIntersectionPointsDoubled45(ln));
+        assertFalse(d1.intersectsIgnoreSharedVertices45(new Line(3, 0, 5, 2)));
+        assertTrue(d1.intersectsIgnoreSharedVertices45(new Line(2, 0, 5, 0)));
+    }
+
+    @Test
+    public void testBoundingBox() {
+        Polygon poly = new Polygon(new Pt2D(4, -2), new Pt2D(10, 1),
+                                   new Pt2D(6, 3), new Pt2D(-1, 1));
+        Box2D box = poly.getBoundingBox();
+        assertSame(box, poly.getBoundingBox());
+        assertEquals(-1, box.lowX);
+        assertEquals(10, box.highX);
+        assertEquals(-2, box.lowY);
+        assertEquals(3, box.highY);
+
+        assertTrue(box.contains(10, 3));
+        assertFalse(box.contains(11, 3));
+        assertTrue(box.contains(new Box2D(0, 0, 10, 3)));
+        assertFalse(box.contains(new Box2D(0, 0, 11, 3)));
+        assertTrue(box.intersects(new Box2D(10, 3, 20, 20))); // touching
+        assertFalse(box.intersects(new Box2D(11, 3, 20, 20)));
+        assertTrue(box.intersectsBoundingBox(new Line(12, 5, 8, 3)));
+        assertFalse(box.intersectsBoundingBox(new Line(12, 5, 8, 4)));
+
+        // disjoint boxes are rejected without any edge tests - but the
+        // results must be the same
+        Polygon far = poly.shift(100, 0);
+        assertEquals(0, poly.getIntersectionPointsDoubled45(far).length);
+        assertTrue(poly.getIntersectionPoints(new Line(50, 0, 60, 0)).isEmpty());
+        Polygon touching = new Polygon(new Pt2D(10, 1), new Pt2D(14, 1), new Pt2D(14, 5));
+        assertEquals(1, poly.getIntersectionPoints45(touching).size());
     }
 
     @Test
@@ -119,4 +167,144 @@ public class PolygonTest {
         
     }
     
+    @Test
+    public void testTriangulateEarClipping() {
+
+        // comb-shaped outline: flat bottom edge, 45 degree zig-zag top
+        // (enough vertices to use the z-order index)
+        int teeth = 100;
+        Pt2D[] pts = new Pt2D[teeth * 2 + 2];
+        int n = 0;
+        pts[n++] = new Pt2D(0, 0);
+        pts[n++] = new Pt2D(teeth * 2, 0);
+        for (int i = teeth; i > 0; i--) {
+            pts[n++] = new Pt2D(i * 2, 2);
+            pts[n++] = new Pt2D(i * 2 - 1, 3);
+        }
+        Polygon comb = new Polygon(pts);
+        Triangle[] tris = Polygon.triangulateEarClipping(comb);
+        assertEquals(comb.getNumVertices() - 2, tris.length);
+        assertTriangulationCovers(comb, tris);
+
+        // CW input gives the same coverage, still with CCW triangles
+        tris = Polygon.triangulateEarClipping(comb.reverseWinding());
+        assertEquals(comb.getNumVertices() - 2, tris.length);
+        assertTriangulationCovers(comb, tris);
+
+        // collinear vertices produce no degenerate triangles
+        Polygon rect = new Polygon(new Pt2D(0, 0),
+                                   new Pt2D(2, 0),
+                                   new Pt2D(4, 0),
+                                   new Pt2D(4, 2),
+                                   new Pt2D(4, 4),
+                                   new Pt2D(0, 4));
+        assertTriangulationCovers(rect, Polygon.triangulateEarClipping(rect));
+
+        // too few vertices
+        assertEquals(0, Polygon.triangulateEarClipping(new Polygon(new Pt2D(0, 0),
+                                                                   new Pt2D(1, 1))).length);
+    }
+
+    @Test
+    public void testTriangulationListener() {
+
+        class Counter implements TriangulationListener {
+            int started = 0;
+            int ears = 0;
+            int finished = 0;
+            int numTriangles = -1;
+            public void started(int numVertices) { started++; }
+            public void earClipped() { ears++; }
+            public void finished(int numTriangles, long elapsedNanos) {
+                finished++;
+                this.numTriangles = numTriangles;
+                assertTrue(elapsedNanos >= 0);
+            }
+        }
+
+        Polygon poly = new Polygon(new Pt2D(0, 0),
+                                   new Pt2D(4, 0),
+                                   new Pt2D(4, 4),
+                                   new Pt2D(2, 2),
+                                   new Pt2D(0, 4));
+        Counter c = new Counter();
+        Triangle[] tris = Polygon.triangulate(poly, c);
+        assertEquals(1, c.started);
+        assertEquals(1, c.finished);
+        assertEquals(tris.length, c.ears);
+        assertEquals(tris.length, c.numTriangles);
+
+        // global listener is used when none is passed explicitly
+        Counter global = new Counter();
+        Polygon.setTriangulationListener(global);
+        try {
+            Polygon.triangulate(poly);
+        } finally {
+            Polygon.setTriangulationListener(null);
+        }
+        assertEquals(1, global.finished);
+        assertEquals(tris.length, global.ears);
+    }
+
+    @Test
+    public void testPrimitiveStorage() {
+
+        int[] xs = { 0, 4, 4, 2, 0 };
+        int[] ys = { 0, 0, 4, 2, 4 };
+        Polygon poly = new Polygon(xs, ys);
+        // arrays are copied
+        xs[0] = 99;
+        assertEquals(0, poly.getVertexX(0));
+        assertEquals(new Pt2D(2, 2), poly.getVertex(3));
+        assertEquals(new Pt2D(0, 4), poly.getVertexWrapped(-1));
+        assertEquals(new Pt2D(0, 0), poly.getVertexWrapped(-5));
+        assertEquals(new Pt2D(4, 0), poly.getVertexWrapped(11));
+        assertEquals(WindingDir.CCW, poly.getWindingDir());
+        assertEquals(0, poly.getNumDuplicateVertices());
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> new Polygon(new int[3], new int[2]));
+
+        // transformations agree with the per-point transformations
+        for (int i = 0; i < poly.getNumVertices(); i++) {
+            Pt2D v = poly.getVertex(i);
+            assertEquals(v.transpose(3, -2), poly.shift(3, -2).getVertex(i));
+            assertEquals(v.reflectX(1), poly.reflectX(1).getVertex(i));
+            assertEquals(v.reflectY(-3), poly.reflectY(-3).getVertex(i));
+            assertEquals(v.rotate90(2, 5), poly.rotate90(2, 5).getVertex(i));
+            assertEquals(poly.getVertexWrapped(i + 2),
+                         poly.rotateVertexOrder(2).getVertex(i));
+            assertEquals(poly.getVertex(4 - i),
+                         poly.reverseWinding().getVertex(i));
+        }
+        assertEquals(WindingDir.CW, poly.reflectX(0).getWindingDir());
+
+        Polygon dup = new Polygon(new Pt2D(0, 0), new Pt2D(2, 0),
+                                  new Pt2D(0, 0), new Pt2D(0, 2));
+        assertEquals(2, dup.getNumDuplicateVertices());
+        Polygon trip = new Polygon(new int[] { 1, 0, 1, -1, 1, 0 },
+                                   new int[] { 1, 0, 1, -1, 1, 0 });
+        assertEquals(3 * 2 + 2 * 1, trip.getNumDuplicateVertices());
+    }
+
+    private static void assertTriangulationCovers(Polygon poly, Triangle[] tris) {
+        long sum = 0;
+        for (Triangle t : tris) {
+            assertEquals(WindingDir.CCW, t.getWindingDir());
+            assertFalse(t.isDegenerate());
+            sum += doubleArea(t);
+        }
+        assertEquals(Math.abs(doubleArea(poly)), sum);
+    }
+
+    private static long doubleArea(Polygon poly) {
+        long sum = 0;
+        for (int i = 0; i < poly.getNumVertices(); i++) {
+            Pt2D a = poly.getVertex(i);
+            Pt2D b = poly.getVertexWrapped(i + 1);
+            sum += (long) a.x() * b.y() - (long) b.x() * a.y();
+        }
+        return sum;
+    }
+
 }
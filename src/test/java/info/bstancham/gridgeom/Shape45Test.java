@@ -1,9 +1,20 @@
 package info.bstancham.gridgeom;
 
+import java.lang.reflect.Field;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import static info.bstancham.gridgeom.Geom2D.WindingDir;
 
 public class Shape45Test {
 
@@ -30,4 +41,798 @@ public class Shape45Test {
 
     }
     
+    @Test
+    public void testOutlineSelfIntersections45() {
+
+        // figure-of-eight: a single crossing, counted from both edges
+        Shape45 bowtie = new Shape45(new Pt2D(0, 0),
+                                     new Pt2D(4, 4),
+                                     new Pt2D(4, 0),
+                                     new Pt2D(0, 4));
+        assertEquals(2, bowtie.getNumOutlineSelfIntersections45());
+        assertTrue(bowtie.hasOutlineSelfIntersection45());
+        assertFalse(bowtie.isValid());
+
+        // vertices touching at a shared point are not counted
+        Shape45 square = new Shape45(new Pt2D(0, 0),
+                                     new Pt2D(4, 0),
+                                     new Pt2D(4, 4),
+                                     new Pt2D(0, 4));
+        assertEquals(0, square.getNumOutlineSelfIntersections45());
+        assertFalse(square.hasOutlineSelfIntersection45());
+
+        // random 45-compliant walks, checked against the all-pairs count
+        Random rand = new Random(7);
+        int[][] dirs = { {1, 0}, {1, 1}, {0, 1}, {-1, 1},
+                         {-1, 0}, {-1, -1}, {0, -1}, {1, -1} };
+        for (int trial = 0; trial < 50; trial++) {
+            List<Pt2D> pts = new ArrayList<>();
+            int x = 0;
+            int y = 0;
+            pts.add(new Pt2D(x, y));
+            for (int i = 0; i < 30; i++) {
+                int[] d = dirs[rand.nextInt(dirs.length)];
+                int len = 1 + rand.nextInt(6);
+                x += d[0] * len;
+                y += d[1] * len;
+                pts.add(new Pt2D(x, y));
+            }
+            // close via a diagonal then an axis-aligned step
+            int diag = Math.min(Math.abs(x), Math.abs(y));
+            x -= Integer.signum(x) * diag;
+            y -= Integer.signum(y) * diag;
+            pts.add(new Pt2D(x, y));
+            Shape45 s = new Shape45(removeRepeats(pts));
+
+            int expected = bruteForceSelfIntersections45(s.getOutline());
+            assertEquals(expected, s.getNumOutlineSelfIntersections45());
+            assertEquals(expected != 0, s.hasOutlineSelfIntersection45());
+        }
+    }
+
+    private static Pt2D[] removeRepeats(List<Pt2D> pts) {
+        List<Pt2D> out = new ArrayList<>();
+        for (Pt2D p : pts)
+            if (out.isEmpty() || !out.get(out.size() - 1).equals(p))
+                out.add(p);
+        while (out.size() > 1 && out.get(0).equals(out.get(out.size() - 1)))
+            out.remove(out.size() - 1);
+        return out.toArray(new Pt2D[out.size()]);
+    }
+
+    /**
+     * <p>The original all-pairs count, using floating point intersection
+     * points.</p>
+     */
+    private static int bruteForceSelfIntersections45(Polygon poly) {
+        int num = 0;
+        for (int i = 0; i < poly.getNumEdges(); i++) {
+            for (int j = 0; j < poly.getNumEdges(); j++) {
+                if (i == j)
+                    continue;
+                Line l1 = poly.getEdge(i);
+                Line l2 = poly.getEdge(j);
+                Pt2Df p = l1.getIntersectionPoint45(l2);
+                if (p == null)
+                    continue;
+                boolean sharedEnd =
+                    (l1.startEqualsValue(p) || l1.endEqualsValue(p)) &&
+                    (l2.startEqualsValue(p) || l2.endEqualsValue(p));
+                if (!sharedEnd && l1.contains45(p) && l2.contains45(p))
+                    num++;
+            }
+        }
+        return num;
+    }
+
+    @Test
+    public void testSubtract45() {
+
+        Shape45 square = rect(0, 0, 8, 8);
+
+        // overlapping corner leaves an L-shape
+        List<Shape45> out = square.subtract45(rect(4, 4, 12, 12));
+        assertEquals(1, out.size());
+        assertEquals(6, out.get(0).getNumOutlineVertices());
+        assertEquals(0, out.get(0).getNumSubShapes());
+        assertTrue(out.get(0).isValid());
+
+        // inner square makes a hole
+        out = square.subtract45(rect(2, 2, 6, 6));
+        assertEquals(1, out.size());
+        assertEquals(1, out.get(0).getNumSubShapes());
+        assertTrue(out.get(0).isValid());
+
+        // bar through the middle splits it in two
+        out = square.subtract45(rect(3, -1, 5, 9));
+        assertEquals(2, out.size());
+        for (Shape45 s : out)
+            assertTrue(s.isValid());
+
+        // disjoint, and covering
+        out = square.subtract45(rect(10, 0, 12, 8));
+        assertEquals(1, out.size());
+        assertSame(square, out.get(0));
+        assertTrue(square.subtract45(rect(-1, -1, 9, 9)).isEmpty());
+        assertTrue(square.subtract45(square).isEmpty());
+
+        // diamond cut out of one side - diagonal edges
+        Shape45 diamond = new Shape45(new Pt2D(8, 1),
+                                      new Pt2D(11, 4),
+                                      new Pt2D(8, 7),
+                                      new Pt2D(5, 4));
+        out = square.subtract45(diamond);
+        assertEquals(1, out.size());
+        assertEquals(7, out.get(0).getNumOutlineVertices());
+        assertTrue(out.get(0).isValid());
+
+        // diagonals crossing at a half unit can't be represented
+        Shape45 diamond2 = new Shape45(new Pt2D(4, 0),
+                                       new Pt2D(8, 4),
+                                       new Pt2D(4, 8),
+                                       new Pt2D(0, 4));
+        Shape45 diamond3 = new Shape45(new Pt2D(5, 0),
+                                       new Pt2D(9, 4),
+                                       new Pt2D(5, 8),
+                                       new Pt2D(1, 4));
+        assertThrows(ArithmeticException.class, () -> diamond2.subtract45(diamond3));
+        // ... except at twice the scale
+        out = diamond2.subtract45Doubled(diamond3);
+        assertEquals(1, out.size());
+        assertTrue(out.get(0).isValid());
+        assertTrue(out.get(0).getOutline().hasVertex(9, 15));
+    }
+
+    @Test
+    public void testBoolean45HalfUnit() {
+        // two diamonds an odd distance apart - their diagonals cross at
+        // (4.5, 7.5) and (4.5, 0.5)
+        Shape45 a = new Shape45(new Pt2D(4, 0), new Pt2D(8, 4),
+                                new Pt2D(4, 8), new Pt2D(0, 4));
+        Shape45 b = a.shift(1, 0);
+        assertThrows(ArithmeticException.class, () -> a.union45(b));
+        assertThrows(ArithmeticException.class, () -> a.intersect45(b));
+        assertThrows(ArithmeticException.class, () -> a.xor45(b));
+
+        List<Shape45> union = a.union45Doubled(b);
+        List<Shape45> inter = a.intersect45Doubled(b);
+        List<Shape45> xor = a.xor45Doubled(b);
+        List<Shape45> diff = a.subtract45Doubled(b);
+        for (List<Shape45> out : List.of(union, inter, xor, diff)) {
+            assertFalse(out.isEmpty());
+            for (Shape45 s : out)
+                assertTrue(s.isValid());
+        }
+        assertTrue(union.get(0).getOutline().hasVertex(9, 15));
+        assertTrue(inter.get(0).getOutline().hasVertex(9, 1));
+
+        // areas, at four times the original
+        long areaA = signedArea(a) * 4;
+        long areaU = totalArea(union);
+        long areaI = totalArea(inter);
+        assertEquals(areaA * 2, areaU + areaI);
+        assertEquals(areaU - areaI, totalArea(xor));
+        assertEquals(areaA - areaI, totalArea(diff));
+
+        // whole groups - operands not overlapping one another are doubled
+        // unchanged
+        ShapeGroup ga = new ShapeGroup(a, rect(20, 0, 22, 2));
+        ShapeGroup gb = new ShapeGroup(b);
+        assertThrows(ArithmeticException.class, () -> ga.union45(gb));
+        ShapeGroup gu = ga.union45Doubled(gb);
+        assertTrue(gu.isValid());
+        assertEquals(2, gu.getNumShapes());
+        assertEquals(areaU + signedArea(rect(40, 0, 44, 4)), totalArea(gu));
+        assertEquals(areaI, totalArea(ga.intersect45Doubled(gb)));
+        assertEquals(totalArea(xor) + signedArea(rect(40, 0, 44, 4)),
+                     totalArea(ga.xor45Doubled(gb)));
+        assertEquals(totalArea(diff) + signedArea(rect(40, 0, 44, 4)),
+                     totalArea(ga.subtract45Doubled(gb)));
+        // trivial case: nothing to combine with
+        assertEquals(signedArea(rect(40, 0, 44, 4)),
+                     totalArea(new ShapeGroup(rect(20, 0, 22, 2))
+                               .union45Doubled(new ShapeGroup())));
+    }
+
+    private static long totalArea(Iterable<Shape45> shapes) {
+        long sum = 0;
+        for (Shape45 s : shapes)
+            sum += signedArea(s);
+        return sum;
+    }
+
+    private static Shape45 rect(int x1, int y1, int x2, int y2) {
+        return new Shape45(new Pt2D(x1, y1),
+                           new Pt2D(x2, y1),
+                           new Pt2D(x2, y2),
+                           new Pt2D(x1, y2));
+    }
+
+    @Test
+    public void testIsValidParallel() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // valid: many holes, each with an island
+            assertTrue(withHoles(20, -1, false).isValidParallel(pool));
+            assertTrue(withHoles(20, -1, false).isValid());
+
+            // two holes overlap
+            assertFalse(withHoles(20, 137, false).isValidParallel(pool));
+            assertFalse(withHoles(20, 137, false).isValid());
+
+            // one island deep in the tree has the wrong winding
+            Shape45 bad = withHoles(20, -1, true);
+            assertFalse(bad.isValidParallel(pool));
+            // memoised - agrees with the serial version
+            assertFalse(bad.isValid());
+            assertFalse(withHoles(20, -1, true).isValid());
+
+            // a sub-shape already validated is not re-tested
+            Shape45 hole = new Shape45(new Shape45[0], square(2, 2, 4, 4, false));
+            Shape45 parent = new Shape45(new Shape45[] { hole }, square(0, 0, 6, 6, true));
+            assertTrue(hole.isValid());
+            assertTrue(parent.isValidParallel(pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * <p>A square with an {@code n * n} grid of square holes, each with a
+     * square island inside it.</p>
+     *
+     * @param overlapAt Index of a hole to move so that it overlaps its
+     * neighbour, or -1.
+     * @param badIsland If true, the last island has the wrong winding.
+     */
+    private static Shape45 withHoles(int n, int overlapAt, boolean badIsland) {
+        Shape45[] holes = new Shape45[n * n];
+        for (int i = 0; i < holes.length; i++) {
+            int x = (i % n) * 8 + 2;
+            int y = (i / n) * 8 + 2;
+            if (i == overlapAt)
+                x += 5;
+            boolean islandCCW = !(badIsland && i == holes.length - 1);
+            Shape45 island = new Shape45(new Shape45[0],
+                                         square(x + 2, y + 2, x + 4, y + 4, islandCCW));
+            holes[i] = new Shape45(new Shape45[] { island },
+                                   square(x, y, x + 6, y + 6, false));
+        }
+        return new Shape45(holes, square(0, 0, n * 8 + 2, n * 8 + 2, true));
+    }
+
+    private static Polygon square(int x1, int y1, int x2, int y2, boolean ccw) {
+        if (ccw)
+            return new Polygon(new Pt2D(x1, y1), new Pt2D(x2, y1),
+                               new Pt2D(x2, y2), new Pt2D(x1, y2));
+        else
+            return new Polygon(new Pt2D(x1, y1), new Pt2D(x1, y2),
+                               new Pt2D(x2, y2), new Pt2D(x2, y1));
+    }
+
+    @Test
+    public void testTriangulateWithHoles() {
+
+        class BridgeCounter implements TriangulationListener {
+            int succeeded = 0;
+            int failed = 0;
+            public synchronized void bridgeAttempt(boolean success) {
+                if (success) succeeded++;
+                else failed++;
+            }
+        }
+
+        // many holes, each with an island
+        int n = 6;
+        Shape45 s = withHoles(n, -1, false);
+        BridgeCounter c = new BridgeCounter();
+        Polygon.setTriangulationListener(c);
+        try {
+            long expected = 2L * ((8 * n + 2) * (8 * n + 2) - 32 * n * n);
+            assertEquals(expected, triangleArea(s));
+        } finally {
+            Polygon.setTriangulationListener(null);
+        }
+        assertEquals(n * n, c.succeeded);
+        assertEquals(0, c.failed);
+
+        // diamond holes touching each other, and the outline, at vertices
+        Shape45[] diamonds = new Shape45[3];
+        for (int i = 0; i < diamonds.length; i++) {
+            int x = i * 4;
+            diamonds[i] = new Shape45(new Pt2D(x, 2), new Pt2D(x + 2, 4),
+                                      new Pt2D(x + 4, 2), new Pt2D(x + 2, 0));
+        }
+        Shape45 touching = new Shape45(diamonds, new Pt2D[] {
+                new Pt2D(0, 0), new Pt2D(12, 0), new Pt2D(12, 4), new Pt2D(0, 4) });
+        assertTrue(touching.isValid());
+        assertEquals(2L * (12 * 4 - 3 * 8), triangleArea(touching));
+
+        // holes touching the outline, and each other, away from their
+        // leftmost vertices
+        Shape45 upper = new Shape45(new Pt2D(6, 12), new Pt2D(8, 10),
+                                    new Pt2D(6, 8), new Pt2D(4, 10));
+        Shape45 lower = new Shape45(new Pt2D(6, 8), new Pt2D(8, 6),
+                                    new Pt2D(6, 4), new Pt2D(4, 6));
+        Shape45 chain = new Shape45(new Shape45[] { upper, lower }, new Pt2D[] {
+                new Pt2D(0, 0), new Pt2D(12, 0), new Pt2D(12, 12),
+                new Pt2D(6, 12), new Pt2D(0, 12) });
+        assertTrue(chain.isValid());
+        assertEquals(2L * (12 * 12 - 2 * 8), triangleArea(chain));
+    }
+
+    @Test
+    public void testBridgedOutline() {
+
+        // no holes - just the outline
+        assertSame(triangle.getOutline(), triangle.getBridgedOutline());
+
+        int n = 3;
+        Shape45 s = withHoles(n, -1, false);
+        Polygon bridged = s.getBridgedOutline();
+        assertSame(bridged, s.getBridgedOutline());
+
+        // bridges cancel out, so the area is that of the outline less the holes
+        assertEquals(2L * ((8 * n + 2) * (8 * n + 2) - 36 * n * n), doubleArea(bridged));
+        assertEquals(WindingDir.CCW, bridged.getWindingDir());
+
+        // no more than two extra vertices per hole
+        int numVerts = s.getOutline().getNumVertices();
+        for (int i = 0; i < s.getNumSubShapes(); i++)
+            numVerts += s.getSubShape(i).getOutline().getNumVertices() + 2;
+        assertTrue(bridged.getNumVertices() <= numVerts);
+
+        // triangulation is built from the bridged outline
+        assertEquals(2L * ((8 * n + 2) * (8 * n + 2) - 32 * n * n), triangleArea(s));
+        assertSame(bridged, s.getBridgedOutline());
+    }
+
+    private static long doubleArea(Polygon poly) {
+        long sum = 0;
+        for (int i = 0; i < poly.getNumVertices(); i++) {
+            Pt2D a = poly.getVertex(i);
+            Pt2D b = poly.getVertexWrapped(i + 1);
+            sum += (long) a.x() * b.y() - (long) b.x() * a.y();
+        }
+        return sum;
+    }
+
+    @Test
+    public void testIncrementalRetriangulation() {
+
+        // comb: flat bottom edge, 45 degree zig-zag top
+        int teeth = 200;
+        Pt2D[] pts = new Pt2D[teeth * 2 + 2];
+        int n = 0;
+        pts[n++] = new Pt2D(0, 0);
+        pts[n++] = new Pt2D(teeth * 2, 0);
+        for (int i = teeth; i > 0; i--) {
+            pts[n++] = new Pt2D(i * 2, 2);
+            pts[n++] = new Pt2D(i * 2 - 1, 3);
+        }
+        Shape45 comb = new Shape45(pts);
+        Set<Triangle> before = identitySet(comb);
+
+        // move a vertex - most triangles are re-used
+        Shape45 moved = comb.setVertex(201, pts[201].x(), 4);
+        assertEquals(signedArea(moved), triangleArea(moved));
+        assertTrue(countShared(before, moved) > moved.getNumTriangles() - 20);
+
+        // delete and insert vertices
+        Shape45 deleted = moved.deleteVertex(100);
+        assertEquals(signedArea(deleted), triangleArea(deleted));
+        assertTrue(countShared(identitySet(moved), deleted) > deleted.getNumTriangles() - 20);
+        Shape45 added = deleted.addVertexAfter(300);
+        assertEquals(n, added.getNumOutlineVertices());
+        assertEquals(signedArea(added), triangleArea(added));
+        assertTrue(countShared(identitySet(deleted), added) > added.getNumTriangles() - 20);
+
+        // an edit whose neighbourhood spans the shape can't be done locally,
+        // but still works
+        Shape45 far = comb.setVertex(1, pts[1].x(), -1);
+        assertEquals(signedArea(far), triangleArea(far));
+
+        // edits to the first vertex of a hole affect that hole only
+        Shape45 holes = withHoles(2, -1, false);
+        int first = holes.getNumOutlineVertices();
+        Shape45 fewer = holes.deleteVertex(first);
+        assertEquals(holes.getTotalNumVertices() - 1, fewer.getTotalNumVertices());
+        assertEquals(3, fewer.getSubShape(0).getNumOutlineVertices());
+        Shape45 more = holes.addVertexAfter(first);
+        assertEquals(holes.getTotalNumVertices() + 1, more.getTotalNumVertices());
+        assertEquals(5, more.getSubShape(0).getNumOutlineVertices());
+        assertSame(holes.getSubShape(1), more.getSubShape(1));
+
+        // random small edits to the outline and islands of a shape with holes
+        // (holes have nested depth 2)
+        Random rand = new Random(17);
+        Shape45 s = withHoles(4, -1, false);
+        s.getNumTriangles();
+        List<Integer> movable = new ArrayList<>();
+        for (int i = 0; i < s.getTotalNumVertices(); i++)
+            if (s.getSubShapeForVertexIndex(i).getNestedDepth() != 2)
+                movable.add(i);
+        Collections.shuffle(movable, rand);
+        for (int i : movable) {
+            Pt2D v = s.getVertexRecursive(i);
+            s = s.setVertex(i, v.x() + rand.nextInt(3) - 1, v.y() + rand.nextInt(3) - 1);
+            assertEquals(signedArea(s), triangleArea(s));
+        }
+    }
+
+    @Test
+    public void testRetriangulationAfterInvalidShape() {
+        // self-intersecting - its triangles don't cover it properly, so must
+        // not be carried over when deleting a vertex makes it simple again
+        Shape45 bad = new Shape45(new Pt2D(34, 41),
+                                  new Pt2D(34, 44),
+                                  new Pt2D(39, 43),
+                                  new Pt2D(33, 49),
+                                  new Pt2D(35, 43));
+        bad.getNumTriangles();
+        Shape45 fixed = bad.deleteVertex(2);
+        assertEquals(4, fixed.getNumOutlineVertices());
+        assertEquals(2, fixed.getNumTriangles());
+        // (clockwise, but triangles are always counter-clockwise)
+        assertEquals(-signedArea(fixed), triangleArea(fixed));
+    }
+
+    @Test
+    public void testStructuralSharing() {
+        // editing a hole shares the outline, and the other holes along with
+        // their memoised analysis
+        Shape45 s = withHoles(3, -1, false);
+        Shape45 other = s.getSubShape(1);
+        Box2D box = other.getBoundingBox();
+        int numTris = other.getNumTriangles();
+        int first = s.getNumOutlineVertices();
+        Pt2D v = s.getVertexRecursive(first);
+        Shape45 edited = s.setVertex(first, v.x() + 1, v.y());
+        assertSame(s.getOutline(), edited.getOutline());
+        assertNotSame(s.getSubShape(0), edited.getSubShape(0));
+        assertSame(other, edited.getSubShape(1));
+        assertSame(box, edited.getSubShape(1).getBoundingBox());
+        assertEquals(numTris, edited.getSubShape(1).getNumTriangles());
+        assertSame(s.getOutline(), s.deleteVertex(first).getOutline());
+        assertSame(s.getOutline(), s.addVertexAfter(first).getOutline());
+
+        // random edits to a long outline match a plain list
+        Random rand = new Random(5);
+        List<Pt2D> ref = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            ref.add(new Pt2D(i * 4, rand.nextInt(1000)));
+        s = new Shape45(ref.toArray(new Pt2D[0]));
+        for (int n = 0; n < 2000; n++) {
+            int i = rand.nextInt(ref.size());
+            switch (rand.nextInt(3)) {
+            case 0:
+                Pt2D p = new Pt2D(rand.nextInt(12000), -1 - n);
+                ref.set(i, p);
+                s = s.setVertex(i, p.x(), p.y());
+                break;
+            case 1:
+                ref.remove(i);
+                s = s.deleteVertex(i);
+                break;
+            default:
+                s = s.addVertexAfter(i);
+                ref.add(i + 1, s.getVertexRecursive(i + 1));
+                break;
+            }
+            assertEquals(ref.size(), s.getNumOutlineVertices());
+            assertEquals(ref.get(i % ref.size()), s.getVertexRecursive(i % ref.size()));
+            if (n % 250 == 0)
+                assertOutline(ref, s.getOutline());
+        }
+        assertOutline(ref, s.getOutline());
+    }
+
+    @Test
+    public void testBuilder() {
+        // long staircase outline, with a hole built by a nested builder
+        int n = 5000;
+        Shape45.Builder b = new Shape45.Builder();
+        List<Pt2D> ref = new ArrayList<>();
+        ref.add(new Pt2D(0, 0));
+        for (int i = 0; i < n; i++) {
+            ref.add(new Pt2D(i * 2 + 2, i * 2));
+            ref.add(new Pt2D(i * 2 + 2, i * 2 + 2));
+        }
+        ref.add(new Pt2D(0, n * 2));
+        for (Pt2D p : ref)
+            b.addVertex(p);
+        Shape45.Builder hole = new Shape45.Builder()
+            .addVertex(1, 1).addVertex(1, 3).addVertex(3, 3).addVertex(3, 1);
+        b.addSubShape(hole);
+        assertEquals(ref.size(), b.getNumVertices());
+
+        Shape45 s = b.build();
+        assertTrue(s.isValid());
+        assertOutline(ref, s.getOutline());
+        assertEquals(1, s.getNumSubShapes());
+        assertEquals(WindingDir.CW, s.getSubShape(0).getExpectedWinding());
+
+        // builder is unchanged, and can go on to build a different shape
+        b.addVertex(-1, n);
+        assertOutline(ref, s.getOutline());
+        assertThrows(IllegalStateException.class, () -> b.build());
+
+        // invalid: clockwise outline, and a repeated vertex
+        assertThrows(IllegalStateException.class, () ->
+                     new Shape45.Builder().addVertex(0, 0).addVertex(0, 2)
+                     .addVertex(2, 2).addVertex(2, 0).build());
+        assertThrows(IllegalStateException.class, () ->
+                     new Shape45.Builder().addVertex(0, 0).addVertex(2, 0)
+                     .addVertex(2, 0).addVertex(2, 2).build());
+        // ... and finished shapes as holes, which overlap
+        assertThrows(IllegalStateException.class, () ->
+                     new Shape45.Builder().addVertex(0, 0).addVertex(8, 0)
+                     .addVertex(8, 8).addVertex(0, 8)
+                     .addSubShape(new Shape45(new Shape45[0],
+                                              square(1, 1, 4, 4, false)))
+                     .addSubShape(new Shape45(new Shape45[0],
+                                              square(3, 3, 6, 6, false)))
+                     .build());
+    }
+
+    @Test
+    public void testBuilderCycle() {
+        Shape45.Builder a = new Shape45.Builder()
+            .addVertex(0, 0).addVertex(8, 0).addVertex(8, 8).addVertex(0, 8);
+        Shape45.Builder b = new Shape45.Builder()
+            .addVertex(1, 1).addVertex(1, 3).addVertex(3, 3).addVertex(3, 1);
+        assertThrows(IllegalArgumentException.class, () -> a.addSubShape(a));
+
+        // one builder used twice is not a cycle - and order is kept, with
+        // finished shapes and builders mixed
+        Shape45 hole = new Shape45(new Shape45[0], square(5, 5, 7, 7, false));
+        Shape45 s = new Shape45.Builder()
+            .addVertex(0, 0).addVertex(8, 0).addVertex(8, 8).addVertex(0, 8)
+            .addSubShape(b).addSubShape(hole).addSubShape(b.addVertex(2, 0))
+            .buildUnchecked();
+        assertEquals(5, s.getSubShape(0).getNumOutlineVertices());
+        assertSame(hole, s.getSubShape(1));
+        assertEquals(5, s.getSubShape(2).getNumOutlineVertices());
+
+        // indirect cycle
+        a.addSubShape(b);
+        b.addSubShape(a);
+        assertThrows(IllegalStateException.class, () -> a.build());
+        assertThrows(IllegalStateException.class, () -> b.build());
+        assertThrows(IllegalStateException.class,
+                     () -> new ShapeGroup.Builder().addShape(a).build());
+    }
+
+    @Test
+    public void testEditKeepsSubShapeAnalysis() throws Exception {
+        Shape45 s = withHoles(2, -1, false);
+        assertTrue(s.isValid());
+        Shape45 hole = s.getSubShape(0);
+        Shape45 island = hole.getSubShape(0);
+        Triangle tri = island.getTriangle(0);
+        Box2D box = island.getBoundingBox();
+
+        // edits to the hole re-use the island without touching it
+        int first = s.getNumOutlineVertices();
+        Pt2D v = s.getVertexRecursive(first);
+        for (Shape45 edited : new Shape45[] { s.setVertex(first, v.x() - 1, v.y()),
+                                              s.addVertexAfter(first),
+                                              s.deleteVertex(first) }) {
+            assertSame(island, edited.getSubShape(0).getSubShape(0));
+            assertEquals(WindingDir.CW, edited.getSubShape(0).getExpectedWinding());
+            assertEquals(WindingDir.CCW, island.getExpectedWinding());
+            assertEquals(Boolean.TRUE, memoisedValidity(island));
+            assertSame(tri, island.getTriangle(0));
+            assertSame(box, island.getBoundingBox());
+        }
+
+        // ... and the old version is unchanged
+        assertEquals(Boolean.TRUE, memoisedValidity(s));
+        assertEquals(Boolean.TRUE, memoisedValidity(hole));
+        assertSame(hole, s.getSubShape(0));
+    }
+
+    /**
+     * @return The memoised result of {@code isValid}, or null if it has not
+     * been computed (or has been discarded).
+     */
+    private static Boolean memoisedValidity(Shape45 s) throws Exception {
+        Field f = Shape45.class.getDeclaredField("valid");
+        f.setAccessible(true);
+        return (Boolean) f.get(s);
+    }
+
+    private static void assertOutline(List<Pt2D> expected, Polygon poly) {
+        assertEquals(expected.size(), poly.getNumVertices());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i), poly.getVertex(i));
+    }
+
+    private static Set<Triangle> identitySet(Shape45 s) {
+        Set<Triangle> set = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < s.getNumTriangles(); i++)
+            set.add(s.getTriangle(i));
+        return set;
+    }
+
+    private static int countShared(Set<Triangle> before, Shape45 s) {
+        int count = 0;
+        for (int i = 0; i < s.getNumTriangles(); i++)
+            if (before.contains(s.getTriangle(i)))
+                count++;
+        return count;
+    }
+
+    /**
+     * @return Twice the area of {@code s} - holes have clockwise winding, so
+     * they count as negative.
+     */
+    private static long signedArea(Shape45 s) {
+        long sum = doubleArea(s.getOutline());
+        for (int i = 0; i < s.getNumSubShapes(); i++)
+            sum += signedArea(s.getSubShape(i));
+        return sum;
+    }
+
+    /**
+     * @return Twice the total area of the triangles of {@code s}, having
+     * checked that none is degenerate or wound clockwise.
+     */
+    private static long triangleArea(Shape45 s) {
+        long sum = 0;
+        for (int i = 0; i < s.getNumTriangles(); i++) {
+            Triangle t = s.getTriangle(i);
+            assertEquals(WindingDir.CCW, t.getWindingDir());
+            assertFalse(t.isDegenerate());
+            Pt2D a = t.getVertex(0);
+            Pt2D b = t.getVertex(1);
+            Pt2D c = t.getVertex(2);
+            sum += (long) (b.x() - a.x()) * (c.y() - a.y())
+                 - (long) (c.x() - a.x()) * (b.y() - a.y());
+        }
+        return sum;
+    }
+
+    @Test
+    public void testValidityFollowsExpectedWinding() {
+
+        // CW square is not valid on its own...
+        Shape45 square = new Shape45(new Pt2D(2, 2),
+                                     new Pt2D(2, 4),
+                                     new Pt2D(4, 4),
+                                     new Pt2D(4, 2));
+        assertFalse(square.isValid());
+
+        // ... but is valid once it becomes a hole
+        new Shape45(new Shape45[] { square },
+                    new Pt2D[] { new Pt2D(0, 0),
+                                 new Pt2D(6, 0),
+                                 new Pt2D(6, 6),
+                                 new Pt2D(0, 6) });
+        assertTrue(square.isValid());
+    }
+
+    @Test
+    public void testConcurrentMemoisation() throws Exception {
+
+        Shape45 hole = new Shape45(new Pt2D(2, 2),
+                                   new Pt2D(2, 4),
+                                   new Pt2D(4, 4),
+                                   new Pt2D(4, 2));
+        Shape45 shape = new Shape45(new Shape45[] { hole },
+                                    new Pt2D[] { new Pt2D(0, 0),
+                                                 new Pt2D(6, 0),
+                                                 new Pt2D(6, 6),
+                                                 new Pt2D(0, 6) });
+
+        // every thread must see the same fully built triangle array
+        int numThreads = 8;
+        Triangle[] first = new Triangle[numThreads];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int n = t;
+            threads[t] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (shape.isValid() && shape.getNumTriangles() > 0)
+                        first[n] = shape.getTriangle(0);
+                });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread th : threads)
+            th.join();
+
+        for (Triangle t : first)
+            assertSame(first[0], t);
+        assertNotNull(first[0]);
+    }
+
+
+    @Test
+    public void testConcurrentMemoisationAllFields() throws Exception {
+        // fresh shapes, so that every thread races to compute each value
+        for (int trial = 0; trial < 20; trial++) {
+            Shape45 shape = withHoles(3, -1, false);
+            int numThreads = 8;
+            Object[][] seen = new Object[numThreads][];
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; t++) {
+                final int n = t;
+                threads[t] = new Thread(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        // each thread asks in a different order
+                        Object[] r = new Object[3];
+                        for (int k = 0; k < 3; k++) {
+                            int q = (k + n) % 3;
+                            if (q == 0)
+                                r[q] = shape.isValid();
+                            else if (q == 1)
+                                r[q] = shape.getBoundingBox();
+                            else
+                                r[q] = shape.getTriangle(shape.getNumTriangles() - 1);
+                        }
+                        seen[n] = r;
+                    });
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread th : threads)
+                th.join();
+
+            for (Object[] r : seen) {
+                assertEquals(Boolean.TRUE, r[0]);
+                assertSame(seen[0][1], r[1]);
+                assertSame(seen[0][2], r[2]);
+            }
+            assertEquals(signedArea(shape), triangleArea(shape));
+        }
+    }
+
+    @Test
+    public void testConcurrentValidityDuringEdits() throws Exception {
+        // edits to a hole re-use its island - which other threads are
+        // reading at the same time, and must always see as valid
+        Shape45 s = withHoles(2, -1, false);
+        assertTrue(s.isValid());
+        Shape45 island = s.getSubShape(0).getSubShape(0);
+        int first = s.getNumOutlineVertices();
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicInteger numInvalid = new AtomicInteger();
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                    while (!done.get())
+                        if (!island.isValid() || !s.getSubShape(0).isValid())
+                            numInvalid.incrementAndGet();
+                });
+            readers[t].start();
+        }
+        try {
+            Shape45 edited = s;
+            for (int n = 0; n < 2000; n++) {
+                edited = (n % 2 == 0 ?
+                          edited.addVertexAfter(first) :
+                          edited.deleteVertex(first + 1));
+                assertSame(island, edited.getSubShape(0).getSubShape(0));
+            }
+        } finally {
+            done.set(true);
+            for (Thread th : readers)
+                th.join();
+        }
+        assertEquals(0, numInvalid.get());
+        assertEquals(Boolean.TRUE, memoisedValidity(island));
+    }
+
 }
@@ -1,5 +1,11 @@
 package info.bstancham.gridgeom;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 import static info.bstancham.gridgeom.Geom2D.WindingDir;
@@ -32,4 +38,402 @@ public class ShapeGroupTest {
         
     }
 
+    @Test
+    public void testContainsIndexed() {
+
+        // outline with a hole, plus a separate shape - every point in and
+        // around them must agree with a brute-force test of all triangles
+        Shape45 hole = new Shape45(new Pt2D(3, 3),
+                                   new Pt2D(3, 6),
+                                   new Pt2D(6, 6),
+                                   new Pt2D(7, 5),
+                                   new Pt2D(7, 3));
+        Shape45 outer = new Shape45(new Shape45[] { hole },
+                                    new Pt2D[] { new Pt2D(0, 0),
+                                                 new Pt2D(10, 0),
+                                                 new Pt2D(10, 8),
+                                                 new Pt2D(8, 10),
+                                                 new Pt2D(0, 10) });
+        Shape45 other = new Shape45(new Pt2D(12, 2),
+                                    new Pt2D(14, 2),
+                                    new Pt2D(16, 4),
+                                    new Pt2D(12, 4));
+        ShapeGroup sg = new ShapeGroup(outer, other);
+        assertContainsMatchesTriangles(sg);
+        assertTrue(sg.containsExcludeEdges(new Pt2D(1, 1)));
+        assertFalse(sg.contains(new Pt2D(5, 4)));
+        assertTrue(sg.contains(new Pt2D(5, 3)));
+        assertFalse(sg.containsExcludeEdges(new Pt2D(5, 3)));
+
+        // comb shape with 45 degree teeth - long fan triangles, many cells
+        int teeth = 40;
+        Pt2D[] pts = new Pt2D[teeth * 2 + 2];
+        int n = 0;
+        pts[n++] = new Pt2D(0, 0);
+        pts[n++] = new Pt2D(teeth * 2, 0);
+        for (int i = teeth; i > 0; i--) {
+            pts[n++] = new Pt2D(i * 2, 2);
+            pts[n++] = new Pt2D(i * 2 - 1, 3);
+        }
+        assertContainsMatchesTriangles(new ShapeGroup(new Shape45(pts)));
+    }
+
+    @Test
+    public void testContainsNestedAndOverlapping() {
+
+        // small square inside a large one - accepted by isValid, which
+        // doesn't check nesting
+        ShapeGroup nested = new ShapeGroup(rect(0, 0, 10, 10), rect(2, 2, 2, 2));
+        assertTrue(nested.isValid());
+        assertTrue(nested.contains(new Pt2D(3, 3)));
+        assertTrue(nested.contains(new Pt2D(1, 1)));
+        assertContainsMatchesTriangles(nested);
+        boolean[] out = new boolean[2];
+        nested.containsAll(new int[] { 3, 11 }, new int[] { 3, 3 }, out);
+        assertArrayEquals(new boolean[] { true, false }, out);
+
+        // shape sitting in the hole of another
+        Shape45 hole = new Shape45(new Pt2D(2, 2), new Pt2D(2, 8),
+                                   new Pt2D(8, 8), new Pt2D(8, 2));
+        Shape45 withHole = new Shape45(new Shape45[] { hole },
+                                       new Pt2D[] { new Pt2D(0, 0), new Pt2D(10, 0),
+                                                    new Pt2D(10, 10), new Pt2D(0, 10) });
+        ShapeGroup island = new ShapeGroup(withHole, rect(4, 4, 2, 2));
+        assertTrue(island.contains(new Pt2D(5, 5)));
+        assertFalse(island.contains(new Pt2D(3, 3)));
+        assertContainsMatchesTriangles(island);
+
+        // overlapping shapes (e.g. dragged over one another) - the union is
+        // contained, including where a shape overlaps another's hole
+        ShapeGroup overlap = new ShapeGroup(rect(0, 0, 6, 6), rect(3, 3, 4, 4),
+                                            withHole.shift(1, 1));
+        assertFalse(overlap.isValid());
+        assertTrue(overlap.contains(new Pt2D(4, 4)));
+        assertTrue(overlap.contains(new Pt2D(5, 5)));
+        assertTrue(overlap.contains(new Pt2D(10, 4)));
+        assertFalse(overlap.contains(new Pt2D(8, 8)));
+        assertContainsMatchesTriangles(overlap);
+    }
+
+    @Test
+    public void testContainsAll() {
+
+        Shape45 hole = new Shape45(new Pt2D(3, 3),
+                                   new Pt2D(3, 6),
+                                   new Pt2D(6, 6),
+                                   new Pt2D(7, 5),
+                                   new Pt2D(7, 3));
+        ShapeGroup sg = new ShapeGroup(new Shape45(new Shape45[] { hole },
+                                                   new Pt2D[] { new Pt2D(0, 0),
+                                                                new Pt2D(10, 0),
+                                                                new Pt2D(10, 8),
+                                                                new Pt2D(8, 10),
+                                                                new Pt2D(0, 10) }));
+
+        // raster covering the shape and its surroundings
+        int n = 0;
+        int[] xs = new int[17 * 17];
+        int[] ys = new int[17 * 17];
+        for (int y = -3; y <= 13; y++) {
+            for (int x = -3; x <= 13; x++) {
+                xs[n] = x;
+                ys[n] = y;
+                n++;
+            }
+        }
+
+        boolean[] out = new boolean[n];
+        boolean[] outExcl = new boolean[n];
+        BitSet bits = new BitSet();
+        bits.set(0, n); // must be cleared where not contained
+        sg.containsAll(xs, ys, out);
+        sg.containsAllExcludeEdges(xs, ys, outExcl);
+        sg.containsAll(xs, ys, bits);
+        for (int i = 0; i < n; i++) {
+            Pt2D p = new Pt2D(xs[i], ys[i]);
+            assertEquals(sg.contains(p), out[i], "containsAll " + p);
+            assertEquals(sg.containsExcludeEdges(p), outExcl[i],
+                         "containsAllExcludeEdges " + p);
+            assertEquals(out[i], bits.get(i), "containsAll (BitSet) " + p);
+        }
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> sg.containsAll(new int[2], new int[3], new boolean[3]));
+        assertThrows(IllegalArgumentException.class,
+                     () -> sg.containsAll(new int[3], new int[3], new boolean[2]));
+    }
+
+    @Test
+    public void testContainsAllParallel() {
+
+        // comb shape, queried with a raster big enough to be split up
+        int teeth = 200;
+        Pt2D[] pts = new Pt2D[teeth * 2 + 2];
+        int n = 0;
+        pts[n++] = new Pt2D(0, 0);
+        pts[n++] = new Pt2D(teeth * 2, 0);
+        for (int i = teeth; i > 0; i--) {
+            pts[n++] = new Pt2D(i * 2, 2);
+            pts[n++] = new Pt2D(i * 2 - 1, 3);
+        }
+        ShapeGroup sg = new ShapeGroup(new Shape45(pts));
+
+        int w = teeth * 2 + 5;
+        int h = 80;
+        int[] xs = new int[w * h];
+        int[] ys = new int[w * h];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i % w - 2;
+            ys[i] = i / w - 40;
+        }
+
+        boolean[] expected = new boolean[xs.length];
+        sg.containsAll(xs, ys, expected);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            boolean[] actual = new boolean[xs.length];
+            sg.containsAllParallel(xs, ys, actual, pool);
+            assertArrayEquals(expected, actual);
+        } finally {
+            pool.shutdown();
+        }
+
+        boolean[] actual = new boolean[xs.length];
+        new ShapeGroup(new Shape45(pts)).containsAllParallel(xs, ys, actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static void assertContainsMatchesTriangles(ShapeGroup sg) {
+        Box2D box = sg.getBoundingBox();
+        for (int x = box.lowX - 2; x <= box.highX + 2; x++) {
+            for (int y = box.lowY - 2; y <= box.highY + 2; y++) {
+                Pt2D p = new Pt2D(x, y);
+                boolean inTri = false;
+                for (int i = 0; i < sg.getNumTriangles(); i++)
+                    if (sg.getTriangle(i).contains(p))
+                        inTri = true;
+                boolean onEdge = false;
+                for (int i = 0; i < sg.getNumEdges(); i++)
+                    if (sg.getEdge(i).contains(p))
+                        onEdge = true;
+                assertEquals(inTri, sg.contains(p), "contains " + p);
+                assertEquals(inTri && !onEdge, sg.containsExcludeEdges(p),
+                             "containsExcludeEdges " + p);
+            }
+        }
+    }
+
+    @Test
+    public void testIsValidManyShapes() {
+        // chequerboard of squares which meet only at corners
+        List<Shape45> shapes = new ArrayList<>();
+        for (int r = 0; r < 40; r++)
+            for (int c = 0; c < 40; c++)
+                shapes.add(rect(c * 4 + (r % 2) * 2, r * 2, 2, 2));
+        Shape45[] arr = shapes.toArray(new Shape45[shapes.size()]);
+        assertTrue(new ShapeGroup(arr).isValid());
+
+        // one square moved to overlap its neighbour
+        Shape45[] bad = arr.clone();
+        bad[500] = rect(bad[500].getOutline().getVertexX(0) + 1,
+                        bad[500].getOutline().getVertexY(0) + 1, 2, 2);
+        assertFalse(new ShapeGroup(bad).isValid());
+
+        // one square with a vertex on the middle of another's edge
+        bad = arr.clone();
+        bad[500] = rect(bad[500].getOutline().getVertexX(0) + 1,
+                        bad[500].getOutline().getVertexY(0) + 2, 2, 2);
+        assertFalse(new ShapeGroup(bad).isValid());
+    }
+
+    @Test
+    public void testBuilder() {
+        // chequerboard, from a mix of finished shapes and shape builders
+        ShapeGroup.Builder b = new ShapeGroup.Builder();
+        for (int r = 0; r < 20; r++) {
+            for (int c = 0; c < 20; c++) {
+                int x = c * 4 + (r % 2) * 2;
+                int y = r * 2;
+                if (c % 2 == 0)
+                    b.addShape(rect(x, y, 2, 2));
+                else
+                    b.addShape(new Shape45.Builder().addVertex(x, y).addVertex(x + 2, y)
+                               .addVertex(x + 2, y + 2).addVertex(x, y + 2));
+            }
+        }
+        assertEquals(400, b.getNumShapes());
+        ShapeGroup g = b.build();
+        assertEquals(400, g.getNumShapes());
+        assertEquals(1600, g.getNumVertices());
+
+        // overlapping shapes
+        b.addShape(rect(1, 1, 2, 2));
+        assertThrows(IllegalStateException.class, () -> b.build());
+    }
+
+    private static Shape45 rect(int x, int y, int w, int h) {
+        return new Shape45(new Pt2D(x, y), new Pt2D(x + w, y),
+                           new Pt2D(x + w, y + h), new Pt2D(x, y + h));
+    }
+
+    @Test
+    public void testBoolean45() {
+
+        // square with random square holes (all co-ordinates multiples of 4,
+        // so that every lattice point off the lines is unambiguous) minus a
+        // random rectangle or diamond
+        Random rand = new Random(11);
+        for (int trial = 0; trial < 40; trial++) {
+            List<Shape45> holes = new ArrayList<>();
+            for (int cx = 0; cx < 4; cx++) {
+                for (int cy = 0; cy < 4; cy++) {
+                    if (rand.nextInt(3) != 0)
+                        continue;
+                    int x = 4 + cx * 12;
+                    int y = 4 + cy * 12;
+                    int size = 4 * (1 + rand.nextInt(2));
+                    // clockwise
+                    holes.add(new Shape45(new Pt2D(x, y),
+                                          new Pt2D(x, y + size),
+                                          new Pt2D(x + size, y + size),
+                                          new Pt2D(x + size, y)));
+                }
+            }
+            Shape45 home = new Shape45(holes.toArray(new Shape45[holes.size()]),
+                                       new Pt2D(0, 0),
+                                       new Pt2D(52, 0),
+                                       new Pt2D(52, 52),
+                                       new Pt2D(0, 52));
+            Shape45 away;
+            int x = 4 * rand.nextInt(14) - 4;
+            int y = 4 * rand.nextInt(14) - 4;
+            int r = 4 * (1 + rand.nextInt(5));
+            if (rand.nextBoolean())
+                away = new Shape45(new Pt2D(x, y),
+                                   new Pt2D(x + r, y),
+                                   new Pt2D(x + r, y + 2 * r),
+                                   new Pt2D(x, y + 2 * r));
+            else
+                away = new Shape45(new Pt2D(x, y - r),
+                                   new Pt2D(x + r, y),
+                                   new Pt2D(x, y + r),
+                                   new Pt2D(x - r, y));
+            assertTrue(home.isValid());
+            assertTrue(away.isValid());
+
+            ShapeGroup a = new ShapeGroup(home);
+            ShapeGroup b = new ShapeGroup(away);
+            checkBoolean45(a, b, a.subtract45(b), (inA, inB) -> inA && !inB, trial);
+            checkBoolean45(a, b, a.union45(b), (inA, inB) -> inA || inB, trial);
+            checkBoolean45(a, b, a.intersect45(b), (inA, inB) -> inA && inB, trial);
+            checkBoolean45(a, b, a.xor45(b), (inA, inB) -> inA != inB, trial);
+        }
+    }
+
+    @Test
+    public void testUnion45Touching() {
+        // two squares sharing an edge, plus a third overlapping both
+        ShapeGroup a = new ShapeGroup(new Shape45[] {
+                new Shape45(new Pt2D(0, 0), new Pt2D(4, 0),
+                            new Pt2D(4, 4), new Pt2D(0, 4)),
+                new Shape45(new Pt2D(4, 0), new Pt2D(8, 0),
+                            new Pt2D(8, 4), new Pt2D(4, 4)) });
+        ShapeGroup b = new ShapeGroup(new Shape45(new Pt2D(2, 2), new Pt2D(6, 2),
+                                                  new Pt2D(6, 6), new Pt2D(2, 6)));
+        ShapeGroup u = a.union45(b);
+        assertEquals(1, u.getNumShapes());
+        assertEquals(0, u.getShape(0).getNumSubShapes());
+        assertEquals(8, u.getShape(0).getOutline().getNumVertices());
+        assertTrue(u.getShape(0).isValid());
+
+        // the shared edge is inside both sides, so is not in the intersection
+        ShapeGroup i = a.intersect45(b);
+        assertEquals(1, i.getNumShapes());
+        assertEquals(4, i.getShape(0).getOutline().getNumVertices());
+
+        // shapes which only touch are merged by union, but not intersected
+        Shape45 s1 = a.getShape(0);
+        Shape45 s2 = a.getShape(1);
+        assertEquals(1, s1.union45(s2).size());
+        assertEquals(4, s1.union45(s2).get(0).getOutline().getNumVertices());
+        assertTrue(s1.intersect45(s2).isEmpty());
+        assertEquals(1, s1.xor45(s2).size());
+    }
+
+    private interface BoolFn {
+        boolean apply(boolean inA, boolean inB);
+    }
+
+    private static void checkBoolean45(ShapeGroup a, ShapeGroup b, ShapeGroup result,
+                                       BoolFn expected, int trial) {
+        for (Shape45 s : result)
+            assertTrue(s.isValid(), s.getSourceCode());
+        for (int px = -8; px <= 60; px++) {
+            for (int py = -8; py <= 60; py++) {
+                Pt2D p = new Pt2D(px, py);
+                if (onBoundary(a, p) || onBoundary(b, p) || onBoundary(result, p))
+                    continue;
+                assertEquals(expected.apply(a.contains(p), b.contains(p)),
+                             result.contains(p), "trial " + trial + " at " + p);
+            }
+        }
+    }
+
+    private static boolean onBoundary(ShapeGroup sg, Pt2D p) {
+        return sg.getNumShapes() > 0 && sg.contains(p) != sg.containsExcludeEdges(p);
+    }
+
+
+    @Test
+    public void testConcurrentMemoisation() throws Exception {
+        // fresh groups, so that every thread races to compute each value
+        for (int trial = 0; trial < 20; trial++) {
+            Shape45[] shapes = new Shape45[50];
+            for (int i = 0; i < shapes.length; i++)
+                shapes[i] = rect(i * 4, 0, 2, 2 + i % 3);
+            ShapeGroup group = new ShapeGroup(shapes);
+            int numThreads = 8;
+            Object[][] seen = new Object[numThreads][];
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; t++) {
+                final int n = t;
+                threads[t] = new Thread(() -> {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        // each thread asks in a different order
+                        Object[] r = new Object[4];
+                        for (int k = 0; k < 4; k++) {
+                            int q = (k + n) % 4;
+                            if (q == 0)
+                                r[q] = group.isValid();
+                            else if (q == 1)
+                                r[q] = group.getBoundingBox();
+                            else if (q == 2)
+                                r[q] = group.getTriangle(group.getNumTriangles() - 1);
+                            else
+                                r[q] = group.contains(new Pt2D(5, 1));
+                        }
+                        seen[n] = r;
+                    });
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread th : threads)
+                th.join();
+
+            for (Object[] r : seen) {
+                assertEquals(Boolean.TRUE, r[0]);
+                assertSame(seen[0][1], r[1]);
+                assertSame(seen[0][2], r[2]);
+                assertEquals(Boolean.TRUE, r[3]);
+            }
+            assertEquals(shapes.length * 2, group.getNumTriangles());
+        }
+    }
+
 }
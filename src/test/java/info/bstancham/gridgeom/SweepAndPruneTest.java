@@ -0,0 +1,63 @@
+package info.bstancham.gridgeom;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SweepAndPruneTest {
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random rand = new Random(3);
+        // sizes either side of the switch from list to tree
+        for (int n : new int[] { 0, 1, 2, 10, 64, 65, 200, 1000 }) {
+            for (int trial = 0; trial < 5; trial++) {
+                int[] minX = new int[n];
+                int[] minY = new int[n];
+                int[] maxX = new int[n];
+                int[] maxY = new int[n];
+                for (int i = 0; i < n; i++) {
+                    // mix of small boxes, long horizontal and long vertical
+                    // ones, and points - on a small range, for many ties
+                    int w = rand.nextInt(3) == 0 ? rand.nextInt(100) : rand.nextInt(3);
+                    int h = rand.nextInt(3) == 0 ? rand.nextInt(100) : rand.nextInt(3);
+                    minX[i] = rand.nextInt(100) - 50;
+                    minY[i] = rand.nextInt(100) - 50;
+                    maxX[i] = minX[i] + w;
+                    maxY[i] = minY[i] + h;
+                }
+
+                Set<Long> expected = new HashSet<>();
+                for (int i = 0; i < n; i++)
+                    for (int j = i + 1; j < n; j++)
+                        if (minX[i] <= maxX[j] && minX[j] <= maxX[i] &&
+                            minY[i] <= maxY[j] && minY[j] <= maxY[i])
+                            expected.add(pair(i, j));
+
+                Set<Long> actual = new HashSet<>();
+                assertTrue(SweepAndPrune.forEachOverlappingPair(minX, minY, maxX, maxY, (i, j) -> {
+                            // i entered the sweep first
+                            assertTrue(minX[i] < minX[j] || (minX[i] == minX[j] && i < j));
+                            assertTrue(actual.add(pair(i, j)), "visited twice: " + i + ", " + j);
+                            return true;
+                        }));
+                assertEquals(expected, actual, "n = " + n);
+
+                // stopping early
+                if (expected.size() >= 3) {
+                    int[] count = new int[1];
+                    assertFalse(SweepAndPrune.forEachOverlappingPair(minX, minY, maxX, maxY,
+                                                                     (i, j) -> ++count[0] < 3));
+                    assertEquals(3, count[0]);
+                }
+            }
+        }
+    }
+
+    private static long pair(int i, int j) {
+        return ((long) Math.min(i, j) << 32) | Math.max(i, j);
+    }
+
+}
@@ -2,6 +2,7 @@ package info.bstancham.gridgeom;
 
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -36,4 +37,51 @@ public class TriangleTest {
         assertFalse(degenerate1.isCCWWinding());
     }
 
+    @Test
+    public void testContains() {
+        // CCW
+        assertTrue(t1.contains(new Pt2D(2, 1)));
+        assertTrue(t1.contains(new Pt2D(2, 2)));
+        assertFalse(t1.containsExcludeEdges(new Pt2D(2, 2)));
+        assertTrue(t1.contains(new Pt2D(3, 3)));
+        assertFalse(t1.containsExcludeEdges(new Pt2D(3, 3)));
+        assertFalse(t1.contains(new Pt2D(1, 2)));
+        assertFalse(t1.contains(new Pt2D(4, 4))); // on extension of edge
+        // CW
+        assertTrue(t2.contains(new Pt2D(4, 2)));
+        assertTrue(t2.containsExcludeEdges(new Pt2D(4, 2)));
+        assertTrue(t2.contains(new Pt2D(4, 1)));
+        assertFalse(t2.containsExcludeEdges(new Pt2D(4, 1)));
+        assertFalse(t2.contains(new Pt2D(2, 3)));
+        // degenerate
+        assertFalse(degenerate1.contains(new Pt2D(6, 4)));
+    }
+
+    @Test
+    public void testContainsRandom() {
+        // a point is in a triangle exactly when the three triangles it makes
+        // with the edges have the same total area as the triangle itself
+        Random rand = new Random(5);
+        for (int trial = 0; trial < 200; trial++) {
+            int[] v = new int[6];
+            for (int i = 0; i < 6; i++)
+                v[i] = rand.nextInt(21) - 10;
+            Triangle t = new Triangle(v[0], v[1], v[2], v[3], v[4], v[5]);
+            long area = Math.abs(Geom2D.orient(v[0], v[1], v[2], v[3], v[4], v[5]));
+            for (int x = -11; x <= 11; x++) {
+                for (int y = -11; y <= 11; y++) {
+                    long a0 = Geom2D.orient(v[0], v[1], v[2], v[3], x, y);
+                    long a1 = Geom2D.orient(v[2], v[3], v[4], v[5], x, y);
+                    long a2 = Geom2D.orient(v[4], v[5], v[0], v[1], x, y);
+                    boolean in = area > 0 &&
+                        Math.abs(a0) + Math.abs(a1) + Math.abs(a2) == area;
+                    boolean onEdge = in && (a0 == 0 || a1 == 0 || a2 == 0);
+                    assertEquals(in, t.contains(x, y));
+                    assertEquals(in && !onEdge, t.containsExcludeEdges(x, y));
+                    assertEquals(in, t.contains(new Pt2D(x, y)));
+                }
+            }
+        }
+    }
+
 }
@@ -232,8 +232,20 @@ public class Gfx {
     }
     
     public void fillShape(Graphics g, ShapeGroup sg) {
-        for (int i = 0; i < sg.getNumTriangles(); i++) {
-            fillPolygon(g, sg.getTriangle(i));
+        for (Shape45 s : sg)
+            fillShape(g, s);
+    }
+
+    /**
+     * <p>Fills the bridged outline of {@code s}, then the islands in its
+     * holes.</p>
+     */
+    public void fillShape(Graphics g, Shape45 s) {
+        fillPolygon(g, s.getBridgedOutline());
+        for (int i = 0; i < s.getNumSubShapes(); i++) {
+            Shape45 hole = s.getSubShape(i);
+            for (int j = 0; j < hole.getNumSubShapes(); j++)
+                fillShape(g, hole.getSubShape(j));
         }
     }
 
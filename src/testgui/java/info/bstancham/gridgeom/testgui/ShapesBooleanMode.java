@@ -1,5 +1,7 @@
 package info.bstancham.gridgeom.testgui;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.awt.Graphics;
 import java.awt.Color;
@@ -69,8 +71,10 @@ public class ShapesBooleanMode extends ShapeEditMode {
     }
 
     private void addEdges(Digraph2D graph, ShapeGroup sg, int shapeID) {
+        List<Line> edges = new ArrayList<>();
         for (int i = 0; i < sg.getNumEdges(); i++)
-            graph.addLine(sg.getEdge(i), shapeID);
+            edges.add(sg.getEdge(i));
+        graph.addLines(edges, shapeID);
     }
     
 }